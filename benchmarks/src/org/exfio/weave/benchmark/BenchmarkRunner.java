@@ -0,0 +1,27 @@
+package org.exfio.weave.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BenchmarkRunner
+ *
+ * Runs benchmarks with standard JMH command line options, adding the GC profiler so that allocation
+ * rate (gc.alloc.rate.norm, bytes per op) is always reported alongside throughput and latency.
+ *
+ * Usage: java -jar target/benchmarks.jar [jmh options], e.g. -p records=10000 -p shape=tabs PayloadCipher
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmdOptions = new CommandLineOptions(args);
+
+		OptionsBuilder options = new OptionsBuilder();
+		options.parent(cmdOptions);
+		options.addProfiler(GCProfiler.class);
+
+		new Runner(options.build()).run();
+	}
+}
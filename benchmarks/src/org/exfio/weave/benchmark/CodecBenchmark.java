@@ -0,0 +1,66 @@
+package org.exfio.weave.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.exfio.weave.util.Base64;
+import org.exfio.weave.util.Hex;
+
+/**
+ * CodecBenchmark
+ *
+ * Base64 (ciphertext, IV and keys) and hex (HMAC) encoding as used for every record
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+	@Param({"16", "32", "4096", "65536"})
+	public int bytes;
+
+	private byte[] data;
+	private String base64;
+	private String hex;
+
+	@Setup
+	public void setup() {
+		data   = new SyntheticRecords(1).randomBytes(bytes);
+		base64 = Base64.encodeBase64String(data);
+		hex    = Hex.encodeHexString(data);
+	}
+
+	@Benchmark
+	public String base64Encode() {
+		return Base64.encodeBase64String(data);
+	}
+
+	@Benchmark
+	public byte[] base64Decode() {
+		return Base64.decodeBase64(base64);
+	}
+
+	@Benchmark
+	public String hexEncode() {
+		return Hex.encodeHexString(data);
+	}
+
+	@Benchmark
+	public byte[] hexDecode() {
+		return Hex.decodeHexString(hex);
+	}
+}
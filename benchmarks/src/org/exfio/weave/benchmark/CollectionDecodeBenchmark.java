@@ -0,0 +1,93 @@
+package org.exfio.weave.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.storage.JSONArrayCollectionIterator;
+import org.exfio.weave.storage.NewlinesCollectionIterator;
+import org.exfio.weave.storage.StorageContext;
+import org.exfio.weave.storage.WeaveCollectionIterator;
+import org.exfio.weave.util.Log;
+
+/**
+ * CollectionDecodeBenchmark
+ *
+ * Decode a collection response body into WBOs, including extraction of the encrypted envelope, as done
+ * by StorageContext.getCollection(). Response is served from memory, i.e. network is excluded.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CollectionDecodeBenchmark {
+
+	@Param({"100", "1000"})
+	public int records;
+
+	@Param({"bookmark", "history", "tabs"})
+	public String shape;
+
+	@Param({"512"})
+	public int payloadBytes;
+
+	@Param({StorageContext.FORMAT_JSON, StorageContext.FORMAT_NEWLINES})
+	public String format;
+
+	private byte[] body;
+
+	@Setup
+	public void setup() throws Exception {
+		Log.init("warn");
+
+		SyntheticRecords synthetic = new SyntheticRecords(1);
+		String[] wbos = synthetic.encryptedRecords(records, shape, payloadBytes, synthetic.randomKeyPair());
+		body = format.equals(StorageContext.FORMAT_NEWLINES) ? SyntheticRecords.toNewlines(wbos) : SyntheticRecords.toJSONArray(wbos);
+	}
+
+	@Benchmark
+	public int decodeCollection(Blackhole bh) throws WeaveException {
+		WeaveCollectionIterator iterator = newIterator(format, body);
+		int count = 0;
+		try {
+			while ( iterator.hasNext() ) {
+				bh.consume(iterator.next());
+				count++;
+			}
+		} finally {
+			iterator.close();
+		}
+		return count;
+	}
+
+	static WeaveCollectionIterator newIterator(String format, byte[] body) throws WeaveException {
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		if ( format.equals(StorageContext.FORMAT_NEWLINES) ) {
+			response.setEntity(new ByteArrayEntity(body, ContentType.create(StorageContext.MEDIA_TYPE_NEWLINES)));
+			return new NewlinesCollectionIterator(response);
+		} else {
+			response.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+			return new JSONArrayCollectionIterator(response);
+		}
+	}
+}
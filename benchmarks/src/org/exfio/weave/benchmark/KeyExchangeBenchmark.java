@@ -0,0 +1,83 @@
+package org.exfio.weave.benchmark;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.account.exfiopeer.crypto.DerivedSecrets;
+import org.exfio.weave.account.exfiopeer.crypto.ECDH;
+import org.exfio.weave.account.exfiopeer.crypto.HKDF;
+import org.exfio.weave.crypto.WeaveKeyPair;
+import org.exfio.weave.util.Log;
+
+/**
+ * KeyExchangeBenchmark
+ *
+ * 3DHE key agreement and HKDF key derivation as used to establish exfiopeer message sessions
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyExchangeBenchmark {
+
+	private ECDH ecdh;
+	private HKDF hkdf;
+
+	private byte[] identityPrivateKey;
+	private byte[] ephemeralPrivateKey;
+	private byte[] otherIdentityPublicKey;
+	private byte[] otherEphemeralPublicKey;
+
+	private byte[] sharedSecret;
+	private byte[] info;
+
+	@Setup
+	public void setup() throws WeaveException {
+		Log.init("warn");
+
+		ecdh = new ECDH();
+		hkdf = new HKDF();
+
+		KeyPair identity       = ecdh.generateECDHKeyPair();
+		KeyPair ephemeral      = ecdh.generateECDHKeyPair();
+		KeyPair otherIdentity  = ecdh.generateECDHKeyPair();
+		KeyPair otherEphemeral = ecdh.generateECDHKeyPair();
+
+		identityPrivateKey      = identity.getPrivate().getEncoded();
+		ephemeralPrivateKey     = ephemeral.getPrivate().getEncoded();
+		otherIdentityPublicKey  = otherIdentity.getPublic().getEncoded();
+		otherEphemeralPublicKey = otherEphemeral.getPublic().getEncoded();
+
+		sharedSecret = new SyntheticRecords(1).randomBytes(3 * 28);
+		info         = "eXfio Weave Client".getBytes();
+	}
+
+	@Benchmark
+	public WeaveKeyPair get3DHEKeyPair() throws WeaveException {
+		return ecdh.get3DHEKeyPair(identityPrivateKey, ephemeralPrivateKey, otherIdentityPublicKey, otherEphemeralPublicKey);
+	}
+
+	@Benchmark
+	public byte[] generateECDHSecret() throws WeaveException {
+		return ecdh.generateECDHSecret(identityPrivateKey, otherEphemeralPublicKey);
+	}
+
+	@Benchmark
+	public DerivedSecrets deriveSecrets() {
+		return hkdf.deriveSecrets(sharedSecret, info);
+	}
+}
@@ -0,0 +1,56 @@
+package org.exfio.weave.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.exfio.weave.util.Hex;
+import org.exfio.weave.util.Log;
+
+/**
+ * LoggingBenchmark
+ *
+ * Cost of debug logging in crypto hot paths when debug is disabled. With the GC profiler
+ * gc.alloc.rate.norm should be zero for the level guarded variant.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggingBenchmark {
+
+	private String payload;
+	private byte[] cryptKey;
+	private byte[] hmacKey;
+
+	@Setup
+	public void setup() {
+		Log.init("warn");
+
+		SyntheticRecords synthetic = new SyntheticRecords(1);
+		payload  = synthetic.payload(synthetic.randomId(), SyntheticRecords.SHAPE_BOOKMARK, 512);
+		cryptKey = synthetic.randomBytes(32);
+		hmacKey  = synthetic.randomBytes(32);
+	}
+
+	@Benchmark
+	public void disabledLevelGuarded() {
+		Log.debugf("payload: %s, crypt key:  %s, crypt hmac: %s", payload, cryptKey, hmacKey);
+	}
+
+	@Benchmark
+	public void disabledEager() {
+		Log.getInstance().debug(String.format("payload: %s, crypt key:  %s, crypt hmac: %s", payload, Hex.encodeHexString(cryptKey), Hex.encodeHexString(hmacKey)));
+	}
+}
@@ -0,0 +1,131 @@
+package org.exfio.weave.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.crypto.PayloadCipher;
+import org.exfio.weave.crypto.WeaveKeyPair;
+import org.exfio.weave.storage.EncryptedPayload;
+import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.util.Log;
+
+/**
+ * PayloadCipherBenchmark
+ *
+ * Encrypt and decrypt a single record, comparing PayloadCipher with the original implementation
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadCipherBenchmark {
+
+	@Param({"bookmark"})
+	public String shape;
+
+	@Param({"256", "4096", "65536"})
+	public int payloadBytes;
+
+	private PayloadCipher cipher;
+	private LegacyPayloadCipher legacyCipher;
+	private WeaveKeyPair keyPair;
+	private String plaintext;
+	private String encrypted;
+	private EncryptedPayload envelope;
+
+	@Setup
+	public void setup() throws Exception {
+		Log.init("warn");
+
+		SyntheticRecords records = new SyntheticRecords(1);
+		cipher       = new PayloadCipher();
+		legacyCipher = new LegacyPayloadCipher();
+		keyPair      = records.randomKeyPair();
+		plaintext    = records.payload(records.randomId(), shape, payloadBytes);
+		encrypted    = cipher.encrypt(plaintext, keyPair);
+
+		WeaveBasicObject wbo = new WeaveBasicObject("id", null, null, null, encrypted);
+		envelope = wbo.getEncryptedPayload();
+	}
+
+	@Benchmark
+	public String decrypt() throws WeaveException {
+		return cipher.decrypt(encrypted, keyPair);
+	}
+
+	@Benchmark
+	public String decryptEnvelope() throws WeaveException {
+		return cipher.decrypt(envelope, keyPair);
+	}
+
+	@Benchmark
+	public String decryptLegacy() throws WeaveException {
+		return legacyCipher.decrypt(encrypted, keyPair);
+	}
+
+	@Benchmark
+	public String encrypt() throws WeaveException {
+		return cipher.encrypt(plaintext, keyPair);
+	}
+
+	@Benchmark
+	public String encryptLegacy() throws WeaveException {
+		return legacyCipher.encrypt(plaintext, keyPair);
+	}
+
+	@Benchmark
+	public long encryptStreaming(Blackhole bh) throws WeaveException, IOException {
+		return cipher.writeEncryptedPayload(plaintext, keyPair, new BlackholeOutputStream(bh), false);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String encryptThreads4() throws WeaveException {
+		return cipher.encrypt(plaintext, keyPair);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String decryptThreads4() throws WeaveException {
+		return cipher.decrypt(encrypted, keyPair);
+	}
+
+	/**
+	 * Discards output, consuming it so that writes are not eliminated
+	 */
+	static class BlackholeOutputStream extends OutputStream {
+		private Blackhole bh;
+
+		BlackholeOutputStream(Blackhole bh) {
+			this.bh = bh;
+		}
+
+		@Override
+		public void write(int b) {
+			bh.consume(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			bh.consume(b);
+		}
+	}
+}
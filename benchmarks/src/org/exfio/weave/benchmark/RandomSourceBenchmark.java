@@ -0,0 +1,54 @@
+package org.exfio.weave.benchmark;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.exfio.weave.util.RandomSource;
+
+/**
+ * RandomSourceBenchmark
+ *
+ * IV generation via shared RandomSource, compared with the original per record SecureRandom seeding.
+ * See PayloadCipherBenchmark.encryptThreads4 for the effect on concurrent encryption.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RandomSourceBenchmark {
+
+	@Benchmark
+	public byte[] nextBytes() {
+		return RandomSource.nextBytes(16);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public byte[] nextBytesThreads4() {
+		return RandomSource.nextBytes(16);
+	}
+
+	@Benchmark
+	public byte[] legacyGenerateSeed() {
+		return new SecureRandom().generateSeed(16);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public byte[] legacyGenerateSeedThreads4() {
+		return new SecureRandom().generateSeed(16);
+	}
+}
@@ -0,0 +1,38 @@
+package org.exfio.weave.benchmark;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.crypto.PayloadCipher;
+import org.exfio.weave.crypto.WeaveKeyPair;
+import org.exfio.weave.crypto.WeaveSyncV5Crypto;
+import org.exfio.weave.storage.NotFoundException;
+import org.exfio.weave.storage.StorageContext;
+import org.exfio.weave.storage.StorageParams;
+import org.exfio.weave.storage.WeaveBasicObject;
+
+/**
+ * StubStorageContext
+ *
+ * Serves crypto/keys from memory so that WeaveSyncV5Crypto can be benchmarked without a server
+ *
+ */
+public class StubStorageContext extends StorageContext {
+
+	private WeaveBasicObject keys;
+
+	public StubStorageContext(WeaveKeyPair syncKeyPair, WeaveKeyPair defaultKeyPair) throws WeaveException {
+		super();
+		String payload = new PayloadCipher().encrypt(SyntheticRecords.bulkKeysPayload(defaultKeyPair), syncKeyPair);
+		keys = new WeaveBasicObject(WeaveSyncV5Crypto.KEY_CRYPTO_ID, 1400000000.00, null, null, payload);
+	}
+
+	public void init(StorageParams storageParams) throws WeaveException {
+	}
+
+	@Override
+	public WeaveBasicObject get(String path) throws WeaveException, NotFoundException {
+		if ( path.equals(WeaveSyncV5Crypto.KEY_CRYPTO_PATH) ) {
+			return keys;
+		}
+		throw new NotFoundException(String.format("%s not found", path));
+	}
+}
@@ -0,0 +1,180 @@
+package org.exfio.weave.benchmark;
+
+import java.util.Random;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import org.exfio.weave.Constants;
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.crypto.PayloadCipher;
+import org.exfio.weave.crypto.WeaveKeyPair;
+import org.exfio.weave.util.Base64;
+
+/**
+ * SyntheticRecords
+ *
+ * Deterministic generator for cleartext payloads and encoded collections of a given record shape
+ * and approximate payload size, so that benchmark runs are comparable.
+ *
+ */
+public class SyntheticRecords {
+
+	public static final String SHAPE_BOOKMARK = "bookmark";
+	public static final String SHAPE_HISTORY  = "history";
+	public static final String SHAPE_TABS     = "tabs";
+
+	private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-_";
+
+	private Random random;
+
+	public SyntheticRecords(long seed) {
+		this.random = new Random(seed);
+	}
+
+	public String randomString(int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		}
+		return sb.toString();
+	}
+
+	public String randomId() {
+		return randomString(12);
+	}
+
+	public byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	public WeaveKeyPair randomKeyPair() {
+		WeaveKeyPair keyPair = new WeaveKeyPair();
+		keyPair.cryptKey = randomBytes(32);
+		keyPair.hmacKey  = randomBytes(32);
+		return keyPair;
+	}
+
+	/**
+	 * payload()
+	 *
+	 * Cleartext payload of given shape, padded with shape appropriate content to at least payloadBytes
+	 */
+	@SuppressWarnings("unchecked")
+	public String payload(String id, String shape, int payloadBytes) {
+		JSONObject payload = new JSONObject();
+		payload.put("id", id);
+
+		if ( shape.equals(SHAPE_BOOKMARK) ) {
+			payload.put("type", "bookmark");
+			payload.put("title", randomString(24));
+			payload.put("bmkUri", "https://" + randomString(12) + ".example.com/" + randomString(20));
+			payload.put("parentid", randomId());
+			payload.put("parentName", randomString(10));
+			payload.put("loadInSidebar", false);
+			JSONArray tags = new JSONArray();
+			payload.put("tags", tags);
+			while ( payload.toJSONString().length() < payloadBytes ) {
+				tags.add(randomString(8));
+			}
+		} else if ( shape.equals(SHAPE_HISTORY) ) {
+			payload.put("histUri", "https://" + randomString(12) + ".example.com/" + randomString(20));
+			payload.put("title", randomString(32));
+			JSONArray visits = new JSONArray();
+			payload.put("visits", visits);
+			long date = 1400000000000000L;
+			while ( payload.toJSONString().length() < payloadBytes ) {
+				JSONObject visit = new JSONObject();
+				visit.put("date", date);
+				visit.put("type", 1L + random.nextInt(8));
+				visits.add(visit);
+				date += random.nextInt(1000000000);
+			}
+		} else if ( shape.equals(SHAPE_TABS) ) {
+			payload.put("clientName", randomString(16));
+			JSONArray tabs = new JSONArray();
+			payload.put("tabs", tabs);
+			while ( payload.toJSONString().length() < payloadBytes ) {
+				JSONObject tab = new JSONObject();
+				JSONArray urlHistory = new JSONArray();
+				urlHistory.add("https://" + randomString(12) + ".example.com/" + randomString(40));
+				tab.put("title", randomString(32));
+				tab.put("urlHistory", urlHistory);
+				tab.put("icon", "");
+				tab.put("lastUsed", 1400000000L + random.nextInt(1000000));
+				tabs.add(tab);
+			}
+		} else {
+			throw new IllegalArgumentException(String.format("Record shape '%s' not supported", shape));
+		}
+
+		return payload.toJSONString();
+	}
+
+	public String[] payloads(int records, String shape, int payloadBytes) {
+		String[] payloads = new String[records];
+		for (int i = 0; i < records; i++) {
+			payloads[i] = payload(randomId(), shape, payloadBytes);
+		}
+		return payloads;
+	}
+
+	/**
+	 * encryptedRecords()
+	 *
+	 * WBOs as returned by server, i.e. JSON encoded with encrypted payload
+	 */
+	@SuppressWarnings("unchecked")
+	public String[] encryptedRecords(int records, String shape, int payloadBytes, WeaveKeyPair keyPair) throws WeaveException {
+		PayloadCipher cipher = new PayloadCipher();
+		String[] wbos = new String[records];
+		double modified = 1400000000.00;
+		for (int i = 0; i < records; i++) {
+			String id = randomId();
+			JSONObject wbo = new JSONObject();
+			wbo.put("id", id);
+			wbo.put("modified", modified + i);
+			wbo.put("sortindex", (long)random.nextInt(1000));
+			wbo.put("payload", cipher.encrypt(payload(id, shape, payloadBytes), keyPair));
+			wbos[i] = wbo.toJSONString();
+		}
+		return wbos;
+	}
+
+	public static byte[] toJSONArray(String[] wbos) {
+		StringBuilder sb = new StringBuilder();
+		sb.append('[');
+		for (int i = 0; i < wbos.length; i++) {
+			if ( i > 0 ) {
+				sb.append(',');
+			}
+			sb.append(wbos[i]);
+		}
+		sb.append(']');
+		return sb.toString().getBytes(Constants.UTF8);
+	}
+
+	public static byte[] toNewlines(String[] wbos) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < wbos.length; i++) {
+			sb.append(wbos[i]).append('\n');
+		}
+		return sb.toString().getBytes(Constants.UTF8);
+	}
+
+	@SuppressWarnings("unchecked")
+	public static String bulkKeysPayload(WeaveKeyPair defaultKeyPair) {
+		JSONArray defaultKey = new JSONArray();
+		defaultKey.add(Base64.encodeBase64String(defaultKeyPair.cryptKey));
+		defaultKey.add(Base64.encodeBase64String(defaultKeyPair.hmacKey));
+
+		JSONObject keys = new JSONObject();
+		keys.put("id", "keys");
+		keys.put("collection", "crypto");
+		keys.put("collections", new JSONObject());
+		keys.put("default", defaultKey);
+		return keys.toJSONString();
+	}
+}
@@ -0,0 +1,116 @@
+package org.exfio.weave.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.crypto.WeaveKeyPair;
+import org.exfio.weave.crypto.WeaveSyncV5Crypto;
+import org.exfio.weave.storage.StorageContext;
+import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.storage.WeaveCollectionIterator;
+import org.exfio.weave.util.Log;
+
+/**
+ * WeaveSyncV5CryptoBenchmark
+ *
+ * Decrypt and encrypt whole collections with bulk keys, i.e. per record cost of WeaveClient.getCollection()
+ * and put() excluding the network
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WeaveSyncV5CryptoBenchmark {
+
+	private static final String COLLECTION = "bookmarks";
+
+	@Param({"100", "1000"})
+	public int records;
+
+	@Param({"bookmark", "history", "tabs"})
+	public String shape;
+
+	@Param({"512"})
+	public int payloadBytes;
+
+	private WeaveSyncV5Crypto crypto;
+	private byte[] body;
+	private WeaveBasicObject[] encryptedWbos;
+	private WeaveBasicObject[] cleartextWbos;
+
+	@Setup
+	public void setup() throws Exception {
+		Log.init("warn");
+
+		SyntheticRecords synthetic = new SyntheticRecords(1);
+		WeaveKeyPair syncKeyPair    = synthetic.randomKeyPair();
+		WeaveKeyPair defaultKeyPair = synthetic.randomKeyPair();
+
+		crypto = new WeaveSyncV5Crypto();
+		crypto.init(new StubStorageContext(syncKeyPair, defaultKeyPair), syncKeyPair);
+
+		body = SyntheticRecords.toNewlines(synthetic.encryptedRecords(records, shape, payloadBytes, defaultKeyPair));
+		encryptedWbos = decode(body);
+
+		String[] payloads = synthetic.payloads(records, shape, payloadBytes);
+		cleartextWbos = new WeaveBasicObject[records];
+		for (int i = 0; i < records; i++) {
+			cleartextWbos[i] = new WeaveBasicObject(synthetic.randomId(), null, null, null, payloads[i]);
+		}
+
+		//Load bulk keys before measurement
+		crypto.decryptWeaveBasicObject(encryptedWbos[0], COLLECTION);
+	}
+
+	private static WeaveBasicObject[] decode(byte[] body) throws WeaveException {
+		WeaveCollectionIterator iterator = CollectionDecodeBenchmark.newIterator(StorageContext.FORMAT_NEWLINES, body);
+		List<WeaveBasicObject> wbos = new ArrayList<WeaveBasicObject>();
+		while ( iterator.hasNext() ) {
+			wbos.add(iterator.next());
+		}
+		return wbos.toArray(new WeaveBasicObject[0]);
+	}
+
+	@Benchmark
+	public void decryptCollection(Blackhole bh) throws WeaveException {
+		for (WeaveBasicObject wbo: encryptedWbos) {
+			bh.consume(crypto.decryptWeaveBasicObject(wbo, COLLECTION));
+		}
+	}
+
+	@Benchmark
+	public void decodeAndDecryptCollection(Blackhole bh) throws WeaveException {
+		WeaveCollectionIterator iterator = CollectionDecodeBenchmark.newIterator(StorageContext.FORMAT_NEWLINES, body);
+		try {
+			while ( iterator.hasNext() ) {
+				bh.consume(crypto.decryptWeaveBasicObject(iterator.next(), COLLECTION));
+			}
+		} finally {
+			iterator.close();
+		}
+	}
+
+	@Benchmark
+	public void encryptCollection(Blackhole bh) throws WeaveException {
+		for (WeaveBasicObject wbo: cleartextWbos) {
+			bh.consume(crypto.encryptWeaveBasicObject(wbo, COLLECTION));
+		}
+	}
+}
@@ -3,13 +3,13 @@ package org.exfio.weave.account;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.security.SecureRandom;
 import java.util.Properties;
 
 import org.exfio.weave.WeaveException;
 import org.exfio.weave.net.HttpClient;
 import org.exfio.weave.storage.StorageParams;
 import org.exfio.weave.util.Base64;
+import org.exfio.weave.util.RandomSource;
 import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
 import org.exfio.weave.crypto.WeaveKeyPair;
 
@@ -93,8 +93,7 @@ public abstract class WeaveAccount {
 		}
 		
 		//Random url safe string
-        SecureRandom rnd = new SecureRandom();
-        byte[] rndBin  = rnd.generateSeed(9);
+        byte[] rndBin  = RandomSource.nextBytes(9);
         String rndText = Base64.encodeToString(rndBin, Base64.NO_PADDING | Base64.NO_WRAP | Base64.URL_SAFE);
 
 		return String.format("%s-%s-%s", username, baseHost, rndText);
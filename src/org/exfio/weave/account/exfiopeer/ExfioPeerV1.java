@@ -12,7 +12,6 @@ package org.exfio.weave.account.exfiopeer;
 
 import java.lang.AssertionError;
 import java.lang.Math;
-import java.security.SecureRandom;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
@@ -38,6 +37,7 @@ import org.exfio.weave.client.WeaveClientFactory;
 import org.exfio.weave.client.WeaveClientFactory.StorageVersion;
 import org.exfio.weave.util.Log;
 import org.exfio.weave.util.Base64;
+import org.exfio.weave.util.RandomSource;
 
 
 public class ExfioPeerV1 {
@@ -150,10 +150,9 @@ public class ExfioPeerV1 {
 	}
 	
 	private String generateAuthCode(int chars) {
-		SecureRandom rnd = new SecureRandom();
 		Base32 b32codec = new Base32();
 		int bytes = (int)Math.ceil((double)chars * 5 / 8);
-        String authCode = b32codec.encodeToString(rnd.generateSeed(bytes));
+        String authCode = b32codec.encodeToString(RandomSource.nextBytes(bytes));
 
         // Convert to uppercase, translate L and O to 8 and 9
 		authCode = authCode.toUpperCase()
@@ -340,7 +340,7 @@ public class Comms {
 			
 			if ( client.getClientId().equals(clientId) ) {
 				//Ignore our own client record
-				Log.getInstance().debug(String.format("Client '%s' (%s) is self. Skipping...", client.getClientName(), client.getClientId()));
+				Log.debugf("Client '%s' (%s) is self. Skipping...", client.getClientName(), client.getClientId());
 				continue;
 			}
 
@@ -652,7 +652,7 @@ public class Comms {
 			} else if ( msg.getSession().getState().equals("responsepending") ) {
 				CommsStorage.updateMessageSession(db, msg.getMessageSessionId(), "responsesent", msg.getSequence(), null);			
 			} else {
-				Log.getInstance().warn(String.format("Unrecognised state '%s' for message session '%s'", msg.getSession().getState(), msg.getMessageSessionId()));
+				Log.warnf("Unrecognised state '%s' for message session '%s'", msg.getSession().getState(), msg.getMessageSessionId());
 				CommsStorage.updateMessageSession(db, msg.getMessageSessionId(), "messagesent", msg.getSequence(), null);
 			}
 		} catch (SQLException e) {
@@ -712,7 +712,7 @@ public class Comms {
 		//Get message ids
 		String[] msgIds = null;
 
-		Log.getInstance().debug(String.format("Polling server for new messages since '%.2f'", (lastPoll == null ? 0 : lastPoll)));
+		Log.debugf("Polling server for new messages since '%.2f'", (lastPoll == null ? 0 : lastPoll));
 
 		try {
 			msgIds = commsApi.getMessageIds(lastPoll);
@@ -720,7 +720,7 @@ public class Comms {
 			throw new WeaveException("Couldn't check messages - " + e.getMessage());
 		}
 			
-		Log.getInstance().debug(String.format("Processing %d messages", msgIds.length));
+		Log.debugf("Processing %d messages", msgIds.length);
 		
 		for (String msgId: msgIds) {
 			
@@ -728,14 +728,14 @@ public class Comms {
 			try {
 				msg = commsApi.getMessage(msgId);
 			} catch (NotFoundException e) {
-				Log.getInstance().warn(String.format("Error processsing message '%s' - Message not found", msgId));
+				Log.warnf("Error processsing message '%s' - Message not found", msgId);
 				syncError = true;
 				continue;
 			}
 			
 			//Check message is ours
 			if ( !msg.getDestinationClientId().equals(clientId) ) {
-				Log.getInstance().info(String.format("Message '%s' for other client '%s'. Skipping...", msgId, msg.getDestinationClientId()));
+				Log.infof("Message '%s' for other client '%s'. Skipping...", msgId, msg.getDestinationClientId());
 				continue;
 			}
 			
@@ -744,13 +744,13 @@ public class Comms {
 			try {
 				ekey = CommsStorage.getEphemeralKey(db, clientId, msg.getDestinationKeyId());
 			} catch (SQLException e) {
-				Log.getInstance().error(String.format("Couldn't get ephemeral key for keyid '%s' - %s", msg.getDestinationKeyId(), e.getMessage()));
+				Log.errorf("Couldn't get ephemeral key for keyid '%s' - %s", msg.getDestinationKeyId(), e.getMessage());
 				syncError = true;
 				continue;
 			}
 			
 			if ( ekey == null ) {
-				Log.getInstance().error(String.format("Couldn't get ephemeral key for keyid '%s' - not found", msg.getDestinationKeyId()));
+				Log.errorf("Couldn't get ephemeral key for keyid '%s' - not found", msg.getDestinationKeyId());
 				syncError = true;
 				continue;
 			}
@@ -766,7 +766,7 @@ public class Comms {
 					
 					Client otherClient = CommsStorage.getClient(db, msg.getSourceClientId());
 					if ( otherClient == null ) {
-						Log.getInstance().error(String.format("Couldn't load client '%s'", msg.getSourceClientId()));
+						Log.errorf("Couldn't load client '%s'", msg.getSourceClientId());
 						syncError = true;
 						continue;
 					}
@@ -774,7 +774,7 @@ public class Comms {
 					try {
 						createIncomingMessageSession(msg.getDestinationKeyId(), msg.getSourceClientId(), otherClient.getPublicKey(), msg.getSourceKeyId(), msg.getSourceKey());
 					} catch (WeaveException e) {
-						Log.getInstance().error(String.format("Couldn't create message session for message '%s' - %s", msgId, e.getMessage()));
+						Log.errorf("Couldn't create message session for message '%s' - %s", msgId, e.getMessage());
 						syncError = true;
 						continue;
 					}
@@ -784,7 +784,7 @@ public class Comms {
 				
 				//Check session validity
 				if ( !validateMessageSession(msg, session) ) {
-					Log.getInstance().error(String.format("Message session invalid for message '%s'", msgId));
+					Log.errorf("Message session invalid for message '%s'", msgId);
 					syncError = true;
 					continue;
 				}
@@ -794,11 +794,11 @@ public class Comms {
 				CommsStorage.createMessage(db, msg);
 				
 			} catch (SQLException e) {
-				Log.getInstance().error(String.format("Error processing message '%s' - Couldn't save message to local storage - %s", msgId, e.getMessage()));
+				Log.errorf("Error processing message '%s' - Couldn't save message to local storage - %s", msgId, e.getMessage());
 				syncError = true;
 				continue;
 			} catch (WeaveException e) {
-				Log.getInstance().warn(String.format("Error processing message '%s' - %s", msgId, e.getMessage()));
+				Log.warnf("Error processing message '%s' - %s", msgId, e.getMessage());
 				syncError = true;
 				continue;			
 			}
@@ -807,11 +807,11 @@ public class Comms {
 			try {
 				commsApi.deleteMessage(msgId);
 			} catch (NotFoundException e) {
-				Log.getInstance().warn(String.format("Couldn't delete message '%s' - Message not found", msgId));
+				Log.warnf("Couldn't delete message '%s' - Message not found", msgId);
 				syncError = true;
 				continue;
 			} catch (WeaveException e) {
-				Log.getInstance().warn(String.format("Couldn't delete message '%s' - %s", msgId, e.getMessage()));
+				Log.warnf("Couldn't delete message '%s' - %s", msgId, e.getMessage());
 				syncError = true;
 				continue;					
 			}
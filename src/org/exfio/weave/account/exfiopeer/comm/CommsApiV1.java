@@ -319,7 +319,7 @@ public class CommsApiV1 {
 	 */
 	private String encryptMessageContent(String plaintext, WeaveKeyPair keyPair) throws WeaveException {		
 		Log.getInstance().debug( "encryptMessageContent()");
-		Log.getInstance().debug( "plaintext:\n" + plaintext);
+		Log.debugf("plaintext:\n%s", plaintext);
 	        		
 		PayloadCipher cipher = new PayloadCipher();
 		return cipher.encrypt(plaintext, keyPair);
@@ -393,7 +393,7 @@ public class CommsApiV1 {
 			try {
 				clients.add(decodeClientWeavePayload(wbos[i].getPayloadAsJSONObject()));
 			} catch (ParseException e) {
-				Log.getInstance().error("Couldn't parse client record - " + e.getMessage());
+				Log.errorf("Couldn't parse client record - %s", e.getMessage());
 				continue;
 			} catch (WeaveException e) {
 				Log.getInstance().error(e.getMessage());
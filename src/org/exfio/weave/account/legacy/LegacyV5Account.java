@@ -6,7 +6,6 @@ import java.net.URISyntaxException;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.util.Map;
 import java.util.Properties;
 
@@ -39,6 +38,7 @@ import org.exfio.weave.storage.StorageV1_1Params;
 import org.exfio.weave.storage.WeaveCollectionInfo;
 import org.exfio.weave.util.Hex;
 import org.exfio.weave.util.Log;
+import org.exfio.weave.util.RandomSource;
 import org.exfio.weave.util.URIUtils;
 
 //FIXME - Add support for account management
@@ -132,8 +132,7 @@ public class LegacyV5Account extends WeaveAccount {
 		} 
 
 		// Generate sync key
-		SecureRandom rnd = new SecureRandom();
-		byte[] syncKeyBin = rnd.generateSeed(16);
+		byte[] syncKeyBin = RandomSource.nextBytes(16);
 		
 		Base32 b32codec = new Base32();
 		String syncKeyB32 = b32codec.encodeToString(syncKeyBin);
@@ -0,0 +1,198 @@
+package org.exfio.weave.client;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.Getter;
+
+import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.storage.WeaveCollectionInfo;
+
+/**
+ * RecordCache
+ *
+ * In-process cache of decrypted records returned by WeaveClient.get(), bounded by the total size of
+ * cached payloads with least recently used records evicted first. A collection's records are dropped
+ * when its modified time in info/collections changes, or when records are written by this client.
+ *
+ * Each collection has a generation which is advanced whenever its records are invalidated. Records are
+ * only cached if the generation is unchanged since they were requested, hence a fetch that overlaps an
+ * invalidation can't re-populate the cache with a stale record.
+ *
+ */
+public class RecordCache {
+
+	public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+	private static class Entry {
+		private String collection;
+		private WeaveBasicObject wbo;
+		private long bytes;
+
+		private Entry(String collection, WeaveBasicObject wbo, long bytes) {
+			this.collection = collection;
+			this.wbo        = wbo;
+			this.bytes      = bytes;
+		}
+	}
+
+	//Access ordered map provides LRU order
+	private Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private Map<String, Long> generations = new HashMap<String, Long>();
+	private long generation = 0;
+	private long baseGeneration = 0;
+	private Map<String, Double> modified = new HashMap<String, Double>();
+
+	@Getter private long maxBytes;
+	@Getter private long bytes     = 0;
+	@Getter private long hits      = 0;
+	@Getter private long misses    = 0;
+	@Getter private long evictions = 0;
+
+	public RecordCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	public RecordCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	private static String key(String collection, String id) {
+		return collection + "/" + id;
+	}
+
+	//Payload as held in memory, i.e. UTF-16
+	private static long weigh(WeaveBasicObject wbo) {
+		return wbo.getPayload() == null ? 0 : 2L * wbo.getPayload().length();
+	}
+
+	private static WeaveBasicObject copy(WeaveBasicObject wbo) {
+		return new WeaveBasicObject(wbo.getId(), wbo.getModified(), wbo.getSortindex(), wbo.getTtl(), wbo.getPayload());
+	}
+
+	/**
+	 * get()
+	 *
+	 * @return copy of cached record or null if not cached
+	 */
+	public synchronized WeaveBasicObject get(String collection, String id) {
+		Entry entry = entries.get(key(collection, id));
+		if ( entry == null ) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return copy(entry.wbo);
+	}
+
+	/**
+	 * getGeneration()
+	 *
+	 * Read before fetching a record to be cached with put()
+	 */
+	public synchronized long getGeneration(String collection) {
+		Long current = generations.get(collection);
+		return current == null ? baseGeneration : current;
+	}
+
+	/**
+	 * put()
+	 *
+	 * Cache record unless collection has been invalidated since generation was read
+	 */
+	public synchronized void put(String collection, WeaveBasicObject wbo, long generation) {
+		if ( generation != getGeneration(collection) ) {
+			return;
+		}
+
+		long weight = weigh(wbo);
+		if ( weight > maxBytes ) {
+			return;
+		}
+
+		Entry previous = entries.put(key(collection, wbo.getId()), new Entry(collection, copy(wbo), weight));
+		if ( previous != null ) {
+			bytes -= previous.bytes;
+		}
+		bytes += weight;
+
+		Iterator<Entry> iter = entries.values().iterator();
+		while ( bytes > maxBytes && iter.hasNext() ) {
+			bytes -= iter.next().bytes;
+			iter.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized void invalidate(String collection, String id) {
+		advance(collection);
+		Entry entry = entries.remove(key(collection, id));
+		if ( entry != null ) {
+			bytes -= entry.bytes;
+		}
+	}
+
+	public synchronized void invalidateCollection(String collection) {
+		advance(collection);
+		Iterator<Entry> iter = entries.values().iterator();
+		while ( iter.hasNext() ) {
+			Entry entry = iter.next();
+			if ( entry.collection.equals(collection) ) {
+				bytes -= entry.bytes;
+				iter.remove();
+			}
+		}
+	}
+
+	//Generations are never reused, hence a stale value can't match
+	private void advance(String collection) {
+		generations.put(collection, ++generation);
+	}
+
+	/**
+	 * revalidate()
+	 *
+	 * Invalidate collections whose modified time has changed. Records cached before a collection's
+	 * modified time is first seen are also invalidated, as they may predate it.
+	 */
+	public synchronized void revalidate(Map<String, WeaveCollectionInfo> info) {
+		Map<String, Double> current = new HashMap<String, Double>();
+		for (Map.Entry<String, WeaveCollectionInfo> colInfo: info.entrySet()) {
+			if ( colInfo.getValue().getModified() != null ) {
+				current.put(colInfo.getKey(), colInfo.getValue().getModified());
+			}
+		}
+
+		//Includes collections with fetches in progress, via their generation
+		Set<String> collections = new HashSet<String>(current.keySet());
+		collections.addAll(modified.keySet());
+		for (Entry entry: entries.values()) {
+			collections.add(entry.collection);
+		}
+
+		for (String collection: collections) {
+			Double previous = modified.get(collection);
+			if ( previous == null || !previous.equals(current.get(collection)) ) {
+				invalidateCollection(collection);
+			}
+		}
+
+		modified = current;
+	}
+
+	public synchronized void clear() {
+		baseGeneration = ++generation;
+		generations.clear();
+		entries.clear();
+		modified.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+}
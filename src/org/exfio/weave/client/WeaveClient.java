@@ -11,7 +11,24 @@
 package org.exfio.weave.client;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.apache.http.concurrent.FutureCallback;
 
 import org.json.simple.parser.ParseException;
 
@@ -25,6 +42,9 @@ import org.exfio.weave.storage.NotFoundException;
 import org.exfio.weave.storage.StorageContext;
 import org.exfio.weave.storage.WeaveBasicObject;
 import org.exfio.weave.storage.WeaveCollectionInfo;
+import org.exfio.weave.storage.WeaveCollectionIterator;
+import org.exfio.weave.storage.WeavePostResult;
+import org.exfio.weave.util.WeaveFuture;
 
 public abstract class WeaveClient {
 	
@@ -32,6 +52,15 @@ public abstract class WeaveClient {
 	protected WeaveAccountParams accountParams = null;
 	protected StorageContext storageClient = null;
 	protected WeaveSyncV5Crypto cryptoClient = null;
+
+	public static final int DEFAULT_PARALLEL_DECRYPT_THRESHOLD = 64;
+
+	//Decrypt collections using pool, e.g. new ForkJoinPool(), if set. Not shut down by close()
+	@Getter @Setter protected ExecutorService decryptPool = null;
+	@Getter @Setter protected int parallelDecryptThreshold = DEFAULT_PARALLEL_DECRYPT_THRESHOLD;
+
+	//Cache decrypted records returned by get() if set, e.g. new RecordCache()
+	@Getter @Setter protected RecordCache recordCache = null;
 	
 	public abstract void init(WeaveAccountParams params) throws WeaveException;
 
@@ -42,6 +71,20 @@ public abstract class WeaveClient {
 	
 	public void initServer() throws WeaveException {
 		this.cryptoClient.initServer();
+		if ( recordCache != null ) {
+			recordCache.clear();
+		}
+	}
+
+	/**
+	 * revalidateKeys()
+	 *
+	 * Discard cached bulk keys if crypto/keys has been modified by another client, i.e. at start of sync
+	 *
+	 * @return true if cached keys were discarded
+	 */
+	public boolean revalidateKeys() throws WeaveException {
+		return this.cryptoClient.revalidateKeys();
 	}
 
 	public StorageContext getApiClient() {
@@ -61,6 +104,16 @@ public abstract class WeaveClient {
 	}
 	
 	public WeaveBasicObject get(String collection, String id, boolean decrypt) throws WeaveException, NotFoundException {
+		RecordCache cache = this.recordCache;
+		long generation = 0;
+		if ( decrypt && cache != null ) {
+			WeaveBasicObject cached = cache.get(collection, id);
+			if ( cached != null ) {
+				return cached;
+			}
+			generation = cache.getGeneration(collection);
+		}
+
 		WeaveBasicObject wbo = this.storageClient.get(collection, id);
 		if ( decrypt ) {
 			try {
@@ -72,6 +125,9 @@ public abstract class WeaveClient {
 			} catch (ParseException e) {
 				throw new WeaveException(e);
 			}
+			if ( cache != null ) {
+				cache.put(collection, wbo, generation);
+			}
 		}
 		return wbo;
 	}
@@ -83,25 +139,261 @@ public abstract class WeaveClient {
 	public WeaveBasicObject[] getCollection(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format, boolean decrypt) throws WeaveException, NotFoundException {
 		WeaveBasicObject[] colWbo = this.storageClient.getCollection(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format);
 		if ( decrypt ) {
-			try {
-				for (int i = 0; i < colWbo.length; i++) {
-					if ( this.cryptoClient.isEncrypted(colWbo[i]) ) {
-						colWbo[i] = this.cryptoClient.decryptWeaveBasicObject(colWbo[i], collection);
-					} else {
+			decryptAll(colWbo, collection);
+		}
+		return colWbo;
+	}
+
+	/**
+	 * decryptAll()
+	 * 
+	 * Decrypt WBOs in place. If a decrypt pool is set larger collections are split into chunks
+	 * which are decrypted in parallel. Chunks are checked in order, hence if any WBO fails
+	 * verification the error reported is always that of the first failing WBO.
+	 *
+	 */
+	public void decryptAll(final WeaveBasicObject[] colWbo, final String collection) throws WeaveException {
+		ExecutorService pool = this.decryptPool;
+		if ( pool == null || colWbo.length < parallelDecryptThreshold ) {
+			for (int i = 0; i < colWbo.length; i++) {
+				colWbo[i] = decryptWeaveBasicObject(colWbo[i], collection);
+			}
+			return;
+		}
+		
+		int chunkSize = Math.max(1, (int)Math.ceil((double)colWbo.length / (Runtime.getRuntime().availableProcessors() * 4)));
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		
+		try {
+			for (int start = 0; start < colWbo.length; start += chunkSize) {
+				final int from = start;
+				final int to   = Math.min(start + chunkSize, colWbo.length);
+				futures.add(pool.submit(new Callable<Void>() {
+					public Void call() throws WeaveException {
+						for (int i = from; i < to; i++) {
+							colWbo[i] = decryptWeaveBasicObject(colWbo[i], collection);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future: futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new WeaveException(e);
+		} catch (ExecutionException e) {
+			if ( e.getCause() instanceof WeaveException ) {
+				throw (WeaveException)e.getCause();
+			} else if ( e.getCause() instanceof RuntimeException ) {
+				throw (RuntimeException)e.getCause();
+			}
+			throw new WeaveException(e.getCause());
+		} catch (RejectedExecutionException e) {
+			throw new WeaveException(e);
+		} finally {
+			for (Future<Void> future: futures) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * getCollectionIterator()
+	 * 
+	 * Stream collection, optionally decrypting each WBO as it is handed out.
+	 * Callers must close the iterator if it is not read to the end.
+	 *
+	 */
+	public WeaveCollectionIterator getCollectionIterator(final String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format, boolean decrypt) throws WeaveException, NotFoundException {
+		WeaveCollectionIterator source = this.storageClient.getCollectionIterator(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format);
+		return decrypt ? decryptIterator(source, collection) : source;
+	}
+
+	/**
+	 * getCollectionPaged()
+	 * 
+	 * Lazily fetch collection in pages of pageSize records, optionally decrypting each WBO as it is handed out.
+	 * Callers must close the iterator if it is not read to the end.
+	 *
+	 */
+	public WeaveCollectionIterator getCollectionPaged(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, String sort, String format, int pageSize, boolean decrypt) throws WeaveException, NotFoundException {
+		WeaveCollectionIterator source = this.storageClient.getCollectionPaged(collection, ids, older, newer, index_above, index_below, sort, format, pageSize);
+		return decrypt ? decryptIterator(source, collection) : source;
+	}
+
+	public String[] getCollectionIdsPaged(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, String sort, int pageSize) throws WeaveException, NotFoundException {
+		return this.storageClient.getCollectionIdsPaged(collection, ids, older, newer, index_above, index_below, sort, pageSize);
+	}
+
+	private WeaveCollectionIterator decryptIterator(final WeaveCollectionIterator source, final String collection) {
+		return new WeaveCollectionIterator() {
+			@Override
+			protected WeaveBasicObject readNext() throws WeaveException {
+				if ( !source.hasNext() ) {
+					return null;
+				}
+				WeaveBasicObject wbo = source.next();
+				try {
+					if ( !cryptoClient.isEncrypted(wbo) ) {
 						throw new WeaveException("Weave Basic Object payload not encrypted");
 					}
+				} catch (ParseException e) {
+					throw new WeaveException(e);
 				}
-			} catch (ParseException e) {
-				throw new WeaveException(e);
+				return cryptoClient.decryptWeaveBasicObject(wbo, collection);
 			}
+			
+			@Override
+			public void close() {
+				source.close();
+				super.close();
+			}
+		};
+	}
+
+	/**
+	 * getAsync()
+	 * 
+	 * Fetch WBO without blocking the caller. Decryption is chained on the storage executor
+	 * rather than the I/O dispatch thread.
+	 *
+	 */
+	public WeaveFuture<WeaveBasicObject> getAsync(final String collection, String id, boolean decrypt) {
+		WeaveFuture<WeaveBasicObject> future = this.storageClient.getAsync(collection, id);
+		if ( !decrypt ) {
+			return future;
 		}
-		return colWbo;
+		return future.then(new WeaveFuture.Transform<WeaveBasicObject, WeaveBasicObject>() {
+			public WeaveBasicObject apply(WeaveBasicObject wbo) throws Exception {
+				return decryptWeaveBasicObject(wbo, collection);
+			}
+		}, this.storageClient.getExecutor());
+	}
+
+	public WeaveFuture<WeaveBasicObject[]> getCollectionAsync(final String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format, boolean decrypt) {
+		WeaveFuture<WeaveBasicObject[]> future = this.storageClient.getCollectionAsync(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format);
+		return decrypt ? decryptAllAsync(future, collection) : future;
+	}
+
+	public WeaveBasicObject[] getByIds(String collection, Collection<String> ids) throws WeaveException, NotFoundException { return getByIds(collection, ids, true); }
+
+	/**
+	 * getByIds()
+	 * 
+	 * Fetch any number of WBOs by id. Ids are split into URL safe chunks which are requested concurrently,
+	 * at most maxParallelRequests at a time, and each chunk is decrypted while the remaining chunks are in flight.
+	 * WBOs are returned in the order of ids, ids that do not exist are omitted.
+	 *
+	 */
+	public WeaveBasicObject[] getByIds(String collection, Collection<String> ids, boolean decrypt) throws WeaveException, NotFoundException {
+		Set<String> uniqueIds = new LinkedHashSet<String>(ids);
+		List<String[]> chunks = this.storageClient.chunkIds(uniqueIds);
+		List<WeaveFuture<WeaveBasicObject[]>> futures = new ArrayList<WeaveFuture<WeaveBasicObject[]>>(chunks.size());
+		final Semaphore permits = new Semaphore(Math.max(1, this.storageClient.getMaxParallelRequests()));
+		
+		try {
+			for (String[] chunk: chunks) {
+				permits.acquire();
+				WeaveFuture<WeaveBasicObject[]> future = this.storageClient.getCollectionAsync(collection, chunk, null, null, null, null, null, null, null, null);
+				future.addCallback(new FutureCallback<WeaveBasicObject[]>() {
+					public void completed(WeaveBasicObject[] result) { permits.release(); }
+					public void failed(Exception e) { permits.release(); }
+					public void cancelled() { permits.release(); }
+				});
+				futures.add(decrypt ? decryptAllAsync(future, collection) : future);
+			}
+			
+			Map<String, WeaveBasicObject> wbos = new HashMap<String, WeaveBasicObject>();
+			for (WeaveFuture<WeaveBasicObject[]> future: futures) {
+				for (WeaveBasicObject wbo: future.get()) {
+					wbos.put(wbo.getId(), wbo);
+				}
+			}
+			
+			List<WeaveBasicObject> listWbo = new ArrayList<WeaveBasicObject>(wbos.size());
+			for (String id: uniqueIds) {
+				if ( wbos.containsKey(id) ) {
+					listWbo.add(wbos.get(id));
+				}
+			}
+			return listWbo.toArray(new WeaveBasicObject[listWbo.size()]);
+			
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new WeaveException(e);
+		} catch (ExecutionException e) {
+			if ( e.getCause() instanceof NotFoundException ) {
+				throw (NotFoundException)e.getCause();
+			} else if ( e.getCause() instanceof WeaveException ) {
+				throw (WeaveException)e.getCause();
+			}
+			throw new WeaveException(e.getCause());
+		} finally {
+			for (WeaveFuture<WeaveBasicObject[]> future: futures) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	private WeaveFuture<WeaveBasicObject[]> decryptAllAsync(WeaveFuture<WeaveBasicObject[]> future, final String collection) {
+		return future.then(new WeaveFuture.Transform<WeaveBasicObject[], WeaveBasicObject[]>() {
+			public WeaveBasicObject[] apply(WeaveBasicObject[] colWbo) throws Exception {
+				decryptAll(colWbo, collection);
+				return colWbo;
+			}
+		}, this.storageClient.getExecutor());
+	}
+
+	public WeaveFuture<Map<String, WeaveCollectionInfo>> getInfoCollectionsAsync() {
+		return this.storageClient.getInfoCollectionsAsync();
+	}
+
+	public WeaveBasicObject decryptWeaveBasicObject(WeaveBasicObject wbo, String collection) throws WeaveException {
+		try {
+			if ( !this.cryptoClient.isEncrypted(wbo) ) {
+				throw new WeaveException("Weave Basic Object payload not encrypted");
+			}
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		}
+		return this.cryptoClient.decryptWeaveBasicObject(wbo, collection);
+	}
+
+	public WeaveBasicObject encryptWeaveBasicObject(WeaveBasicObject wbo, String collection) throws WeaveException {
+		try {
+			if ( this.cryptoClient.isEncrypted(wbo) ) {
+				throw new WeaveException("Weave Basic Object payload already encrypted");
+			}
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		}
+		return this.cryptoClient.encryptWeaveBasicObject(wbo, collection);
 	}
 
 	public WeaveCollectionInfo getCollectionInfo(String collection) throws WeaveException, NotFoundException { return getCollectionInfo(collection, false, false); }
 
-	public WeaveCollectionInfo getCollectionInfo(String collection, boolean getcount, boolean getusage) throws WeaveException, NotFoundException {
+	public Map<String, WeaveCollectionInfo> getInfoCollections() throws WeaveException { return getInfoCollections(false, false); }
+
+	/**
+	 * getInfoCollections()
+	 * 
+	 * Fetch modified time, and optionally count and usage, of all collections. Cached bulk keys are
+	 * revalidated against crypto collection as a side effect.
+	 *
+	 */
+	public Map<String, WeaveCollectionInfo> getInfoCollections(boolean getcount, boolean getusage) throws WeaveException {
 		Map<String, WeaveCollectionInfo> wcols = this.storageClient.getInfoCollections(getcount, getusage);
+		this.cryptoClient.revalidateKeys(wcols);
+		if ( recordCache != null ) {
+			recordCache.revalidate(wcols);
+		}
+		return wcols;
+	}
+
+	public WeaveCollectionInfo getCollectionInfo(String collection, boolean getcount, boolean getusage) throws WeaveException, NotFoundException {
+		Map<String, WeaveCollectionInfo> wcols = getInfoCollections(getcount, getusage);
 		if ( !wcols.containsKey(collection) ) {
 			throw new NotFoundException(String.format("Collection '%s' not found", collection));
 		}
@@ -111,10 +403,19 @@ public abstract class WeaveClient {
 	public Double put(String collection, String id, WeaveBasicObject wbo) throws WeaveException { return put(collection, id, wbo, true); }
 	
 	public Double put(String collection, String id, WeaveBasicObject wbo, boolean encrypt) throws WeaveException {
+		try {
+			return putUncached(collection, id, wbo, encrypt);
+		} finally {
+			invalidateCache(collection, id);
+		}
+	}
+
+	private Double putUncached(String collection, String id, WeaveBasicObject wbo, boolean encrypt) throws WeaveException {
 		if ( encrypt ) {
 			try {
 				if ( !this.cryptoClient.isEncrypted(wbo) ) {
-					wbo = this.cryptoClient.encryptWeaveBasicObject(wbo, collection);
+					//Encrypt as request is sent rather than holding encrypted copies of payload
+					return this.storageClient.put(collection, id, this.cryptoClient.createEncryptingEntity(wbo, collection));
 				} else {
 					throw new WeaveException("Weave Basic Object payload already encrypted");
 				}
@@ -125,24 +426,156 @@ public abstract class WeaveClient {
 		return this.storageClient.put(collection, id, wbo);
 	}
 
+	public WeaveFuture<Double> putAsync(String collection, String id, WeaveBasicObject wbo) { return putAsync(collection, id, wbo, true); }
+
+	/**
+	 * putAsync()
+	 * 
+	 * Encryption is performed on the calling thread, only the request itself is asynchronous
+	 *
+	 */
+	public WeaveFuture<Double> putAsync(String collection, String id, WeaveBasicObject wbo, boolean encrypt) {
+		if ( encrypt ) {
+			try {
+				if ( !this.cryptoClient.isEncrypted(wbo) ) {
+					wbo = this.cryptoClient.encryptWeaveBasicObject(wbo, collection);
+				} else {
+					throw new WeaveException("Weave Basic Object payload already encrypted");
+				}
+			} catch (ParseException e) {
+				return WeaveFuture.failed(e);
+			} catch (WeaveException e) {
+				return WeaveFuture.failed(e);
+			}
+		}
+		return invalidateCacheOnCompletion(this.storageClient.putAsync(collection, id, wbo), collection, id);
+	}
+
+	public WeavePostResult postCollection(String collection, List<WeaveBasicObject> wbos) throws WeaveException { return postCollection(collection, wbos, true); }
+	
+	public WeavePostResult postCollection(String collection, List<WeaveBasicObject> wbos, boolean encrypt) throws WeaveException {
+		if ( encrypt ) {
+			wbos = encryptAll(collection, wbos);
+		}
+		try {
+			return this.storageClient.postCollection(collection, wbos);
+		} finally {
+			invalidateCache(collection, null);
+		}
+	}
+
+	/**
+	 * postCollection()
+	 * 
+	 * Upload records only if collection has not been modified since ifUnmodifiedSince, i.e. by another client
+	 *
+	 */
+	public WeavePostResult postCollection(String collection, List<WeaveBasicObject> wbos, boolean encrypt, Double ifUnmodifiedSince) throws WeaveException, PreconditionFailedException {
+		if ( encrypt ) {
+			wbos = encryptAll(collection, wbos);
+		}
+		try {
+			return this.storageClient.postCollection(collection, wbos, ifUnmodifiedSince);
+		} finally {
+			invalidateCache(collection, null);
+		}
+	}
+
+	protected List<WeaveBasicObject> encryptAll(String collection, List<WeaveBasicObject> wbos) throws WeaveException {
+		List<WeaveBasicObject> encWbos = new ArrayList<WeaveBasicObject>(wbos.size());
+		try {
+			for (WeaveBasicObject wbo: wbos) {
+				if ( !this.cryptoClient.isEncrypted(wbo) ) {
+					encWbos.add(this.cryptoClient.encryptWeaveBasicObject(wbo, collection));
+				} else {
+					throw new WeaveException("Weave Basic Object payload already encrypted");
+				}
+			}
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		}
+		return encWbos;
+	}
+
 	public Double delete(String collection, String id) throws NotFoundException, WeaveException {
-		return this.storageClient.delete(collection, id);
+		try {
+			return this.storageClient.delete(collection, id);
+		} finally {
+			invalidateCache(collection, id);
+		}
+	}
+
+	public WeaveFuture<Double> deleteAsync(String collection, String id) {
+		return invalidateCacheOnCompletion(this.storageClient.deleteAsync(collection, id), collection, id);
 	}
 
 	public Double deleteCollection(String collection, String[] ids, Double older, Double newer, Integer limit, Integer offset, String sort) throws WeaveException, NotFoundException {
-		return this.storageClient.deleteCollection(collection, ids, older, newer, limit, offset, sort);
+		try {
+			return this.storageClient.deleteCollection(collection, ids, older, newer, limit, offset, sort);
+		} finally {
+			invalidateCache(collection, null);
+		}
+	}
+
+	/**
+	 * invalidateCache()
+	 * 
+	 * Drop cached record, or collection if id is null, once a write has completed or failed. Reads that
+	 * overlap the write are not cached.
+	 *
+	 */
+	protected void invalidateCache(String collection, String id) {
+		RecordCache cache = this.recordCache;
+		if ( cache == null ) {
+			return;
+		} else if ( id == null ) {
+			cache.invalidateCollection(collection);
+		} else {
+			cache.invalidate(collection, id);
+		}
+	}
+
+	//Returned future completes once cache has been invalidated, as waiters on future may run before its callbacks
+	private <T> WeaveFuture<T> invalidateCacheOnCompletion(WeaveFuture<T> future, final String collection, final String id) {
+		if ( this.recordCache == null ) {
+			return future;
+		}
+		final WeaveFuture<T> next = new WeaveFuture<T>();
+		future.addCallback(new FutureCallback<T>() {
+			public void completed(T result) {
+				invalidateCache(collection, id);
+				next.complete(result);
+			}
+			public void failed(Exception e) {
+				invalidateCache(collection, id);
+				next.fail(e);
+			}
+			public void cancelled() {
+				invalidateCache(collection, id);
+				next.cancel(false);
+			}
+		});
+		return next;
 	}
 	
 	public StorageVersion getStorageVersion() { return version; }
 
 	public ApiVersion getApiVersion() { return getApiClient().getApiVersion(); }
 
+	public boolean isBackingOff() { return getApiClient().isBackingOff(); }
+
+	public long getBackoffUntil() { return getApiClient().getBackoffUntil(); }
+
 	public WeaveBasicObject get(String collection, String id) throws WeaveException, NotFoundException { return get(collection, id, true); }
 
 	public WeaveBasicObject[] getCollection(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format) throws WeaveException, NotFoundException {
 		return getCollection(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format, true);
 	}
 
+	public WeaveCollectionIterator getCollectionIterator(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format) throws WeaveException, NotFoundException {
+		return getCollectionIterator(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format, true);
+	}
+
 	public void close() throws IOException {
 		getApiClient().close();
 	}
@@ -10,6 +10,8 @@
  ******************************************************************************/
 package org.exfio.weave.client;
 
+import java.util.List;
+
 import org.json.simple.JSONObject;
 import org.json.simple.parser.ParseException;
 import org.exfio.weave.Constants;
@@ -20,9 +22,11 @@ import org.exfio.weave.account.fxa.FxAccount;
 import org.exfio.weave.account.fxa.FxAccountParams;
 import org.exfio.weave.client.WeaveClientFactory.StorageVersion;
 import org.exfio.weave.crypto.WeaveSyncV5Crypto;
+import org.exfio.weave.storage.BatchUploadSession;
 import org.exfio.weave.storage.NotFoundException;
 import org.exfio.weave.storage.StorageV1_5;
 import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.storage.WeavePostResult;
 import org.exfio.weave.util.Log;
 import org.exfio.weave.util.OSUtils;
 
@@ -172,6 +176,31 @@ public class WeaveClientV1_5 extends WeaveClient {
 		this.put("clients", wboClient.getId(), wboClient);
 	}
 
+	public BatchUploadSession startBatchUpload(String collection) throws WeaveException {
+		return ((StorageV1_5)storageClient).startBatchUpload(collection);
+	}
+
+	/**
+	 * postCollectionBatch()
+	 * 
+	 * Upload records to collection in a single atomic batch
+	 *
+	 */
+	public WeavePostResult postCollectionBatch(String collection, List<WeaveBasicObject> wbos, boolean encrypt) throws WeaveException {
+		if ( encrypt ) {
+			wbos = encryptAll(collection, wbos);
+		}
+
+		BatchUploadSession session = startBatchUpload(collection);
+		try {
+			session.addAll(wbos);
+			return session.commit();
+		} finally {
+			session.close();
+			invalidateCache(collection, null);
+		}
+	}
+
 	public boolean isAuthorised() {
 		throw new AssertionError("Not yet implemented");
 	}
@@ -0,0 +1,195 @@
+package org.exfio.weave.crypto;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.storage.NotFoundException;
+import org.exfio.weave.storage.StorageContext;
+import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.storage.WeaveCollectionInfo;
+import org.exfio.weave.util.Base64;
+import org.exfio.weave.util.Log;
+
+/**
+ * BulkKeyManager
+ *
+ * Caches bulk keys from crypto/keys along with the modified time of the crypto collection when
+ * they were fetched. Keys are revalidated against info/collections, which is cheap, and only
+ * reloaded if another client has since replaced them.
+ *
+ */
+public class BulkKeyManager {
+
+	private StorageContext storageClient;
+	private WeaveKeyPair privateKey;
+	private PayloadCipher payloadCipher;
+
+	private Map<String, WeaveKeyPair> bulkKeys = null;
+	private Double keysModified = null;
+
+	public BulkKeyManager(StorageContext storageClient, WeaveKeyPair privateKey, PayloadCipher payloadCipher) {
+		this.storageClient = storageClient;
+		this.privateKey    = privateKey;
+		this.payloadCipher = payloadCipher;
+	}
+
+	public synchronized void invalidate() {
+		bulkKeys     = null;
+		keysModified = null;
+	}
+
+	public synchronized Double getKeysModified() {
+		return keysModified;
+	}
+
+	/**
+	 * getKeyPair()
+	 *
+	 * Get bulk key for collection, or default key if there is none, loading keys if required
+	 */
+	public synchronized WeaveKeyPair getKeyPair(String collection) throws WeaveException {
+		if ( bulkKeys == null ) {
+			loadKeys();
+		}
+		return lookup(collection);
+	}
+
+	private WeaveKeyPair lookup(String collection) throws WeaveException {
+        if ( bulkKeys.containsKey(collection) )  {
+        	return bulkKeys.get(collection);
+        } else if ( bulkKeys.containsKey("default") ) {
+        	Log.debugf("No key found for %s, using default", collection);
+        	return bulkKeys.get("default");
+        } else {
+        	throw new WeaveException("No default key found");
+        }
+	}
+
+	/**
+	 * revalidate()
+	 *
+	 * Check cached keys against info/collections, which is served from the response cache if unchanged
+	 *
+	 * @return true if cached keys were discarded
+	 */
+	public boolean revalidate() throws WeaveException {
+		return revalidate(storageClient.getInfoCollections());
+	}
+
+	/**
+	 * revalidate()
+	 *
+	 * Check cached keys against info/collections already fetched by caller, i.e. at start of sync
+	 *
+	 * @return true if cached keys were discarded
+	 */
+	public synchronized boolean revalidate(Map<String, WeaveCollectionInfo> collections) {
+		if ( bulkKeys == null ) {
+			return false;
+		}
+
+		WeaveCollectionInfo info = collections.get(WeaveSyncV5Crypto.KEY_CRYPTO_COLLECTION);
+		Double modified = info == null ? null : info.getModified();
+		if ( modified == null || keysModified == null || modified.doubleValue() > keysModified.doubleValue() ) {
+			Log.infof("Bulk keys modified at %s, previously %s", modified, keysModified);
+			invalidate();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * refresh()
+	 *
+	 * Get fresh key for collection after HMAC verification failed with the given key. Keys are only
+	 * fetched if the cached key is still the one used, hence concurrent failures caused by the same
+	 * key change result in a single fetch.
+	 *
+	 * @param used key pair the caller failed to verify with
+	 * @return key pair to retry with or null if key is unchanged on server
+	 */
+	public synchronized WeaveKeyPair refresh(String collection, WeaveKeyPair used) throws WeaveException {
+		if ( bulkKeys != null ) {
+			WeaveKeyPair current = lookup(collection);
+			if ( !isSameKey(current, used) ) {
+				//Already replaced since caller fetched key
+				return current;
+			}
+		}
+
+		loadKeys();
+		WeaveKeyPair current = lookup(collection);
+		return isSameKey(current, used) ? null : current;
+	}
+
+	//Reloaded keys are new instances, hence compare key material
+	private static boolean isSameKey(WeaveKeyPair a, WeaveKeyPair b) {
+		if ( a == b ) {
+			return true;
+		} else if ( a == null || b == null ) {
+			return false;
+		}
+		return Arrays.equals(a.cryptKey, b.cryptKey) && Arrays.equals(a.hmacKey, b.hmacKey);
+	}
+
+	private void loadKeys() throws WeaveException {
+		Log.getInstance().info( "Fetching bulk keys from server");
+
+        WeaveBasicObject res = null;
+        try {
+        	res = storageClient.get(WeaveSyncV5Crypto.KEY_CRYPTO_PATH);
+        } catch (NotFoundException e) {
+        	throw new WeaveException(WeaveSyncV5Crypto.KEY_CRYPTO_PATH + " not found " + e.getMessage());
+        }
+
+        // Decrypt key data using private key
+        String payload = payloadCipher.decrypt(res.getPayload(), privateKey);
+
+        // Parse JSONUtils encoded payload
+        JSONParser parser = new JSONParser();
+        JSONObject keyData = null;
+
+        try {
+        	keyData = (JSONObject)parser.parse(payload);
+        } catch (ParseException e) {
+        	throw new WeaveException(e);
+        }
+
+		Map<String, WeaveKeyPair> keys = new HashMap<String, WeaveKeyPair>();
+
+		//Get default key pair
+		JSONArray defaultKey = (JSONArray)keyData.get("default");
+
+    	WeaveKeyPair keyPair = new WeaveKeyPair();
+    	keyPair.cryptKey = Base64.decodeBase64((String)defaultKey.get(0));
+    	keyPair.hmacKey  = Base64.decodeBase64((String)defaultKey.get(1));
+        keys.put("default", keyPair);
+
+        //Get collection key pairs
+        JSONObject colKeys = (JSONObject)keyData.get("collections");
+
+	    Iterator<?> it = colKeys.entrySet().iterator();
+	    while (it.hasNext()) {
+	        Map.Entry<?, ?> pairs = (Map.Entry<?, ?>)it.next();
+        	JSONArray bulkKey = (JSONArray)pairs.getValue();
+
+        	WeaveKeyPair bulkKeyPair = new WeaveKeyPair();
+        	bulkKeyPair.cryptKey = Base64.decodeBase64((String)bulkKey.get(0));
+        	bulkKeyPair.hmacKey  = Base64.decodeBase64((String)bulkKey.get(1));
+            keys.put((String)pairs.getKey(), bulkKeyPair);
+        }
+
+        bulkKeys     = keys;
+        keysModified = res.getModified();
+
+        Log.infof("Successfully decrypted bulk keys modified at %s", keysModified);
+	}
+}
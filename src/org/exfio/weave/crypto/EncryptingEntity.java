@@ -0,0 +1,97 @@
+package org.exfio.weave.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.json.simple.JSONObject;
+
+import org.exfio.weave.Constants;
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.storage.WeaveBasicObject;
+
+/**
+ * EncryptingEntity
+ *
+ * Request entity for a cleartext WBO that is encrypted as it is written to the connection. Unlike
+ * encryptWeaveBasicObject() neither the ciphertext, the envelope nor the encoded WBO are held in
+ * memory. Content length is known in advance, and each write uses a fresh IV, hence the entity is
+ * repeatable for retries.
+ *
+ */
+public class EncryptingEntity extends AbstractHttpEntity {
+
+	private String plaintext;
+	private WeaveKeyPair keyPair;
+	private PayloadCipher payloadCipher;
+
+	private byte[] prefix;
+	private byte[] suffix;
+	private long contentLength;
+
+	@SuppressWarnings("unchecked")
+	public EncryptingEntity(WeaveBasicObject wbo, WeaveKeyPair keyPair, PayloadCipher payloadCipher) {
+		this.plaintext     = wbo.getPayload();
+		this.keyPair       = keyPair;
+		this.payloadCipher = payloadCipher;
+
+		//Encode WBO as per StorageContext.encodeWeaveBasicObject() with payload written last
+		JSONObject jobj = new JSONObject();
+		jobj.put("id", wbo.getId());
+		if ( wbo.getModified() != null ) {
+			jobj.put("modified", String.format("%.2f", wbo.getModified()));
+		}
+		if ( wbo.getSortindex() != null ) {
+			jobj.put("sortindex", wbo.getSortindex());
+		}
+		if ( wbo.getTtl() != null ) {
+			jobj.put("ttl", wbo.getTtl());
+		}
+		String fields = jobj.toJSONString();
+
+		this.prefix = (fields.substring(0, fields.length() - 1) + ",\"payload\":\"").getBytes(Constants.UTF8);
+		this.suffix = "\"}".getBytes(Constants.ASCII);
+		this.contentLength = prefix.length + PayloadCipher.getEncryptedPayloadLength(plaintext, true) + suffix.length;
+
+		//Backwards compatible with android version of org.apache.http
+		setContentType("text/plain");
+		setContentEncoding("UTF-8");
+	}
+
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	public boolean isStreaming() {
+		return false;
+	}
+
+	/**
+	 * getContent()
+	 *
+	 * Only used by clients that cannot write entities directly, e.g. async requests, hence content is buffered
+	 */
+	public InputStream getContent() throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream((int)contentLength);
+		writeTo(buffer);
+		return new ByteArrayInputStream(buffer.toByteArray());
+	}
+
+	public void writeTo(OutputStream outstream) throws IOException {
+		outstream.write(prefix);
+		try {
+			payloadCipher.writeEncryptedPayload(plaintext, keyPair, outstream, true);
+		} catch (WeaveException e) {
+			throw new IOException(e);
+		}
+		outstream.write(suffix);
+		outstream.flush();
+	}
+}
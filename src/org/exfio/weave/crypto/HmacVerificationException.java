@@ -0,0 +1,16 @@
+package org.exfio.weave.crypto;
+
+import org.exfio.weave.WeaveException;
+
+/**
+ * HmacVerificationException
+ *
+ * Payload HMAC does not match, i.e. record is corrupt or was encrypted with a different key
+ */
+public class HmacVerificationException extends WeaveException {
+	private static final long serialVersionUID = 3541986043871346022L;
+
+	public HmacVerificationException(String message) {
+		super(message);
+	}
+}
@@ -1,9 +1,16 @@
 package org.exfio.weave.crypto;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -13,89 +20,155 @@ import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import org.apache.commons.codec.binary.Base64OutputStream;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import org.exfio.weave.Constants;
 import org.exfio.weave.WeaveException;
+import org.exfio.weave.storage.EncryptedPayload;
 import org.exfio.weave.util.Base64;
 import org.exfio.weave.util.Hex;
 import org.exfio.weave.util.Log;
+import org.exfio.weave.util.RandomSource;
 
+/**
+ * PayloadCipher
+ * 
+ * Provider lookup is expensive relative to encrypting or decrypting a small record, hence each thread
+ * reuses its own Cipher and Mac rather than creating them per call. The Mac is only re-initialised when
+ * the key changes, so PayloadCipher is stateless and a single instance can be shared across threads.
+ *
+ */
 public class PayloadCipher {
 	
+	private static final String CIPHER_TRANSFORMATION = "AES/CBC/PKCS5Padding";
+	private static final String MAC_ALGORITHM         = "HmacSHA256";
+	
+	private static class Engines {
+		Cipher cipher;
+		Mac mac;
+		SecretKeySpec macKey = null;
+	}
+	
+	private static final ThreadLocal<Engines> engines = new ThreadLocal<Engines>();
+	
+	private static Engines getEngines() throws WeaveException {
+		Engines e = engines.get();
+		if ( e == null ) {
+			e = new Engines();
+			try {
+				e.cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+				e.mac    = Mac.getInstance(MAC_ALGORITHM);
+			} catch (NoSuchAlgorithmException ex) {
+				throw new WeaveException(ex);
+			} catch (NoSuchPaddingException ex) {
+				throw new WeaveException(ex);
+			}
+			engines.set(e);
+		}
+		return e;
+	}
+	
+	private static byte[] hmac(Engines e, WeaveKeyPair keyPair, byte[] data) throws WeaveException {
+		initMac(e, keyPair);
+		return e.mac.doFinal(data);
+	}
+
+	private static void initMac(Engines e, WeaveKeyPair keyPair) throws WeaveException {
+		SecretKeySpec key = keyPair.getHmacKeySpec();
+		try {
+			if ( e.macKey != key ) {
+				e.mac.init(key);
+				e.macKey = key;
+			}
+		} catch (InvalidKeyException ex) {
+			e.macKey = null;
+			throw new WeaveException(ex);
+		}
+	}
+	
 	public String decrypt(String payload, WeaveKeyPair keyPair) throws WeaveException {
 		
 		if (keyPair == null) {
 			throw new AssertionError("keyPair is a required parameter");
 		}
 		
-		String cleartext         = null;
-		JSONObject encryptObject = null;
+		EncryptedPayload envelope = null;
 
 		// Parse JSONUtils encoded payload
 		try {
 			JSONParser parser = new JSONParser();			
-			encryptObject = (JSONObject)parser.parse(payload);  
+			envelope = EncryptedPayload.fromJSONObject((JSONObject)parser.parse(payload));
 		} catch (ParseException e) {
 			throw new WeaveException(e);
+		} catch (ClassCastException e) {
+			throw new WeaveException(e);
+		}
+		
+		if ( envelope == null ) {
+			throw new WeaveException("Payload not encrypted");
 		}
+		
+		return decrypt(envelope, keyPair);
+	}
+	
+	/**
+	 * decrypt()
+	 *
+	 * Decrypt envelope extracted when WBO was decoded, see WeaveBasicObject.getEncryptedPayload()
+	 */
+	public String decrypt(EncryptedPayload envelope, WeaveKeyPair keyPair) throws WeaveException {
+		
+		if (keyPair == null) {
+			throw new AssertionError("keyPair is a required parameter");
+		}
+		
+		String cleartext = null;
 
 		// An encrypted payload has three relevant fields
-		String ciphertext  = (String)encryptObject.get("ciphertext");
+		String ciphertext  = envelope.getCiphertext();
 		byte[] cipherbytes = Base64.decodeBase64(ciphertext);
-		byte[] iv          = Base64.decodeBase64((String)encryptObject.get("IV"));
-		String cipher_hmac = (String)encryptObject.get("hmac");
+		byte[] iv          = Base64.decodeBase64(envelope.getIv());
+		String cipher_hmac = envelope.getHmac();
 
-		Log.getInstance().debug( String.format("payload: %s, crypt key:  %s, crypt hmac: %s", payload, Hex.encodeHexString(keyPair.cryptKey), Hex.encodeHexString(keyPair.hmacKey)));
+		Log.debugf("payload: %s, crypt key:  %s, crypt hmac: %s", envelope, keyPair.cryptKey, keyPair.hmacKey);
 
+		Engines engines = getEngines();
+		
 		// 1. Validate hmac of ciphertext
 		// Note: HMAC verification is done against base64 encoded ciphertext
-		String local_hmac = null;
-
-		try {
-			Mac hmacSHA256 = Mac.getInstance("HmacSHA256");
-			hmacSHA256.init(new SecretKeySpec(keyPair.hmacKey, "HmacSHA256"));
-			local_hmac = Hex.encodeHexString(hmacSHA256.doFinal(ciphertext.getBytes(Constants.ASCII)));
-		} catch (NoSuchAlgorithmException e) {
-			throw new WeaveException(e);
-		} catch (InvalidKeyException e) {
-			throw new WeaveException(e);
-		}
+		String local_hmac = Hex.encodeHexString(hmac(engines, keyPair, ciphertext.getBytes(Constants.ASCII)));
 
 		if ( !local_hmac.equals(cipher_hmac) ) {
-			Log.getInstance().warn(String.format("cipher hmac: %s, local hmac: %s", cipher_hmac, local_hmac));
-			throw new WeaveException("HMAC verification failed!");
+			Log.warnf("cipher hmac: %s, local hmac: %s", cipher_hmac, local_hmac);
+			throw new HmacVerificationException("HMAC verification failed!");
 		}
 
 		// 2. Decrypt ciphertext
 		// Note: this is the same as this operation at the openssl command line:
 		// openssl enc -d -in data -aes-256-cbc -K `cat unwrapped_symkey.16` -iv `cat iv.16`
 		try {
-			Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-			cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyPair.cryptKey, "AES"), new IvParameterSpec(iv));
+			Cipher cipher = engines.cipher;
+			cipher.init(Cipher.DECRYPT_MODE, keyPair.getCryptKeySpec(), new IvParameterSpec(iv));
 
 			byte[] clearbytes = cipher.doFinal(cipherbytes);
 			cleartext = new String(clearbytes, Constants.UTF8);
 
-			Log.getInstance().debug(String.format("cleartext: %s", cleartext));
+			Log.debugf("cleartext: %s", cleartext);
 
-		} catch (NoSuchAlgorithmException e) {
-			throw new WeaveException(e);
 		} catch (InvalidAlgorithmParameterException e) {
 			throw new WeaveException(e);
 		} catch (IllegalBlockSizeException e) {
 			throw new WeaveException(e);
-		} catch (NoSuchPaddingException e) {
-			throw new WeaveException(e);
 		} catch (BadPaddingException e) {
 			throw new WeaveException(e);
 		} catch (InvalidKeyException e) {
 			throw new WeaveException(e);
 		}
 
-		Log.getInstance().info("Successfully decrypted v5 data record");
+		Log.getInstance().debug("Successfully decrypted v5 data record");
 
 		return cleartext;
 	}
@@ -106,13 +179,18 @@ public class PayloadCipher {
 	 *
 	 * Given a plaintext object, encrypt it and return the ciphertext value.
 	 */
-	@SuppressWarnings("unchecked")
-	public String encrypt(String plaintext, WeaveKeyPair keyPair) throws WeaveException {		
+	public String encrypt(String plaintext, WeaveKeyPair keyPair) throws WeaveException {
+		return encryptPayload(plaintext, keyPair).toJSONString();
+	}
+	
+	public EncryptedPayload encryptPayload(String plaintext, WeaveKeyPair keyPair) throws WeaveException {		
 		Log.getInstance().debug( "encrypt()");
-		Log.getInstance().debug( "plaintext:\n" + plaintext);
+		Log.debugf("plaintext:\n%s", plaintext);
 	        
 
-        Log.getInstance().debug( String.format("payload: %s, crypt key:  %s, crypt hmac: %s", plaintext, Hex.encodeHexString(keyPair.cryptKey), Hex.encodeHexString(keyPair.hmacKey)));
+        Log.debugf("payload: %s, crypt key:  %s, crypt hmac: %s", plaintext, keyPair.cryptKey, keyPair.hmacKey);
+        
+        Engines engines = getEngines();
 		        
 		// Encryption primitives
         String ciphertext  = null;
@@ -125,22 +203,17 @@ public class PayloadCipher {
         // openssl enc -d -in data -aes-256-cbc -K `cat unwrapped_symkey.16` -iv `cat iv.16`
 		
         try {
-            SecureRandom rnd = new SecureRandom();
-            IvParameterSpec ivspec = new IvParameterSpec(rnd.generateSeed(16));
+            IvParameterSpec ivspec = new IvParameterSpec(RandomSource.nextBytes(16));
             
-        	Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        	cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyPair.cryptKey, "AES"), ivspec);
+        	Cipher cipher = engines.cipher;
+        	cipher.init(Cipher.ENCRYPT_MODE, keyPair.getCryptKeySpec(), ivspec);
         	cipherbytes = cipher.doFinal(plaintext.getBytes(Constants.ASCII));
         	iv          = cipher.getIV();
         	
-		} catch (NoSuchAlgorithmException e) {
-			throw new WeaveException(e);
 		} catch (InvalidAlgorithmParameterException e) {
 			throw new WeaveException(e);
 		} catch (IllegalBlockSizeException e) {
 			throw new WeaveException(e);
-		} catch (NoSuchPaddingException e) {
-			throw new WeaveException(e);
 		} catch (BadPaddingException e) {
 			throw new WeaveException(e);
 		} catch (InvalidKeyException e) {
@@ -151,26 +224,178 @@ public class PayloadCipher {
         // Note: HMAC is done against base64 encoded ciphertext
     	ciphertext = Base64.encodeBase64String(cipherbytes);
     	
-    	try {
-            Mac hmacSHA256 = Mac.getInstance("HmacSHA256");
-            hmacSHA256.init(new SecretKeySpec(keyPair.hmacKey, "HmacSHA256"));
-            hmac = hmacSHA256.doFinal(ciphertext.getBytes(Constants.ASCII));
-		} catch (NoSuchAlgorithmException e) {
+    	hmac = hmac(engines, keyPair, ciphertext.getBytes(Constants.ASCII));
+
+		Log.getInstance().debug("Successfully encrypted v5 data record");
+
+		return new EncryptedPayload(ciphertext, Base64.encodeBase64String(iv), Hex.encodeHexString(hmac));
+	}
+
+	/**
+	 * writeEncryptedPayload()
+	 *
+	 * Encrypt plaintext and write JSON envelope to stream without buffering ciphertext, i.e. plaintext is
+	 * encoded, encrypted, base64 encoded and HMAC'd in chunks as envelope is written. If quoted the envelope
+	 * is escaped for use as the body of a JSON string, e.g. WBO payload.
+	 *
+	 * @return number of bytes written, which is always getEncryptedPayloadLength()
+	 */
+	public long writeEncryptedPayload(String plaintext, WeaveKeyPair keyPair, OutputStream out, boolean quoted) throws WeaveException, IOException {
+		Log.getInstance().debug("writeEncryptedPayload()");
+
+		Engines engines = getEngines();
+		Cipher cipher   = engines.cipher;
+
+		try {
+			cipher.init(Cipher.ENCRYPT_MODE, keyPair.getCryptKeySpec(), new IvParameterSpec(RandomSource.nextBytes(16)));
+		} catch (InvalidAlgorithmParameterException e) {
 			throw new WeaveException(e);
 		} catch (InvalidKeyException e) {
 			throw new WeaveException(e);
 		}
+		initMac(engines, keyPair);
+
+		// Engines are reused by this thread, hence MAC must not be left part way through on failure
+		boolean complete = false;
+		try {
+			long length = writeEncryptedPayload(plaintext, engines, out, quoted);
+			complete = true;
+			return length;
+		} finally {
+			if ( !complete ) {
+				engines.mac.reset();
+			}
+		}
+	}
 
-		Log.getInstance().info( "Successfully encrypted v5 data record");
+	private long writeEncryptedPayload(String plaintext, Engines engines, OutputStream out, boolean quoted) throws WeaveException, IOException {
+		Cipher cipher = engines.cipher;
 
-        // Construct JSONUtils encoded payload
-		JSONObject encryptObject = new JSONObject();
-		
-		encryptObject.put("ciphertext", ciphertext);
-		encryptObject.put("IV", Base64.encodeBase64String(iv));
-		encryptObject.put("hmac", Hex.encodeHexString(hmac));
-				
-		return encryptObject.toJSONString();
+		String quote = quoted ? "\\\"" : "\"";
+		CountingMacOutputStream macOut = new CountingMacOutputStream(out, engines.mac);
+
+		out.write(String.format("{%s%s%s:%s", quote, EncryptedPayload.KEY_CIPHERTEXT, quote, quote).getBytes(Constants.ASCII));
+
+		// Ciphertext is HMAC'd as base64 encoded, hence MAC is updated as base64 is written
+		Base64OutputStream b64Out = new Base64OutputStream(macOut, true, 0, null);
+		try {
+			CharsetEncoder encoder = newPlaintextEncoder();
+			CharBuffer in   = CharBuffer.wrap(plaintext);
+			ByteBuffer buf  = ByteBuffer.allocate(CHUNK_SIZE);
+			boolean flushed = false;
+			while ( !flushed ) {
+				CoderResult result = encoder.encode(in, buf, true);
+				if ( result.isUnderflow() ) {
+					result  = encoder.flush(buf);
+					flushed = result.isUnderflow();
+				}
+				byte[] cipherbytes = cipher.update(buf.array(), 0, buf.position());
+				if ( cipherbytes != null ) {
+					b64Out.write(cipherbytes);
+				}
+				buf.clear();
+			}
+			b64Out.write(cipher.doFinal());
+		} catch (IllegalBlockSizeException e) {
+			throw new WeaveException(e);
+		} catch (BadPaddingException e) {
+			throw new WeaveException(e);
+		} finally {
+			//Writes base64 padding, underlying stream is left open
+			b64Out.close();
+		}
+
+		String hmac = Hex.encodeHexString(engines.mac.doFinal());
+		String iv   = Base64.encodeBase64String(cipher.getIV());
+
+		out.write(String.format("%s,%s%s%s:%s%s%s,%s%s%s:%s%s%s}",
+			quote,
+			quote, EncryptedPayload.KEY_IV, quote, quote, iv, quote,
+			quote, EncryptedPayload.KEY_HMAC, quote, quote, hmac, quote
+		).getBytes(Constants.ASCII));
+
+		Log.getInstance().debug("Successfully encrypted v5 data record");
+
+		return getEnvelopeLength(quoted) + macOut.getCount();
+	}
+
+	/**
+	 * getEncryptedPayloadLength()
+	 *
+	 * Length in bytes of envelope written by writeEncryptedPayload(), allowing request content length to be
+	 * set before plaintext is encrypted
+	 */
+	public static long getEncryptedPayloadLength(String plaintext, boolean quoted) {
+		CharsetEncoder encoder = newPlaintextEncoder();
+		CharBuffer in  = CharBuffer.wrap(plaintext);
+		ByteBuffer buf = ByteBuffer.allocate(CHUNK_SIZE);
+		long plainLength = 0;
+		boolean flushed  = false;
+		while ( !flushed ) {
+			CoderResult result = encoder.encode(in, buf, true);
+			if ( result.isUnderflow() ) {
+				result  = encoder.flush(buf);
+				flushed = result.isUnderflow();
+			}
+			plainLength += buf.position();
+			buf.clear();
+		}
+
+		//PKCS5 always pads to next block
+		long cipherLength = (plainLength / 16 + 1) * 16;
+		long base64Length = (cipherLength + 2) / 3 * 4;
+
+		return getEnvelopeLength(quoted) + base64Length;
+	}
+
+	private static final int CHUNK_SIZE = 4096;
+
+	//Length of envelope excluding ciphertext, i.e. IV is 16 bytes base64 encoded and HMAC is 32 bytes hex encoded
+	private static long getEnvelopeLength(boolean quoted) {
+		String envelope = new EncryptedPayload("", "", "").toJSONString();
+		if ( quoted ) {
+			envelope = envelope.replace("\"", "\\\"");
+		}
+		return envelope.length() + 24 + 64;
+	}
+
+	//Plaintext is encoded as per encryptPayload()
+	private static CharsetEncoder newPlaintextEncoder() {
+		return Constants.ASCII.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	private static class CountingMacOutputStream extends FilterOutputStream {
+		private Mac mac;
+		private long count = 0;
+
+		public CountingMacOutputStream(OutputStream out, Mac mac) {
+			super(out);
+			this.mac = mac;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			mac.update((byte)b);
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			mac.update(b, off, len);
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+		public long getCount() {
+			return count;
+		}
 	}
-	
 }
@@ -1,6 +1,30 @@
 package org.exfio.weave.crypto;
 
+import javax.crypto.spec.SecretKeySpec;
+
 public class WeaveKeyPair {
 	public byte[] cryptKey;
 	public byte[] hmacKey;
+
+	//Key specs are built once per key pair, rebuilt if keys are replaced
+	private SecretKeySpec cryptKeySpec = null;
+	private SecretKeySpec hmacKeySpec  = null;
+	private byte[] cryptKeySpecSource  = null;
+	private byte[] hmacKeySpecSource   = null;
+
+	public synchronized SecretKeySpec getCryptKeySpec() {
+		if ( cryptKeySpec == null || cryptKeySpecSource != cryptKey ) {
+			cryptKeySpec       = new SecretKeySpec(cryptKey, "AES");
+			cryptKeySpecSource = cryptKey;
+		}
+		return cryptKeySpec;
+	}
+
+	public synchronized SecretKeySpec getHmacKeySpec() {
+		if ( hmacKeySpec == null || hmacKeySpecSource != hmacKey ) {
+			hmacKeySpec       = new SecretKeySpec(hmacKey, "HmacSHA256");
+			hmacKeySpecSource = hmacKey;
+		}
+		return hmacKeySpec;
+	}
 }
@@ -11,24 +11,23 @@
 package org.exfio.weave.crypto;
 
 import java.util.Map;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.security.SecureRandom;
 
 import org.json.simple.JSONObject;
 import org.json.simple.JSONArray;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.exfio.weave.WeaveException;
 import org.exfio.weave.client.WeaveClientFactory.StorageVersion;
 import org.exfio.weave.client.WeaveClientFactory;
 import org.exfio.weave.crypto.PayloadCipher;
 import org.exfio.weave.crypto.WeaveKeyPair;
+import org.exfio.weave.storage.EncryptedPayload;
 import org.exfio.weave.storage.NotFoundException;
 import org.exfio.weave.storage.StorageContext;
 import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.storage.WeaveCollectionInfo;
 import org.exfio.weave.util.Log;
 import org.exfio.weave.util.Base64;
+import org.exfio.weave.util.RandomSource;
 
 public class WeaveSyncV5Crypto {
 	
@@ -43,23 +42,26 @@ public class WeaveSyncV5Crypto {
 	
 	private StorageContext storageClient;
 	private WeaveKeyPair privateKey;
-	private Map<String, WeaveKeyPair> bulkKeys;
+	private BulkKeyManager keyManager;
+
+	//Stateless and thread safe, see PayloadCipher
+	private PayloadCipher payloadCipher = new PayloadCipher();
 
 	public WeaveSyncV5Crypto() {
 		storageClient  = null;
 		privateKey     = null;
-		bulkKeys       = null;
+		keyManager     = null;
 	}
 	
 	public void init(StorageContext storageClient, WeaveKeyPair keyPair) throws WeaveException {
 		this.storageClient   = storageClient;
 		this.privateKey      = keyPair;
-		this.bulkKeys        = null;		
+		this.keyManager      = new BulkKeyManager(storageClient, keyPair, payloadCipher);
 	}
 
 	@SuppressWarnings("unchecked")
 	public void initServer() throws WeaveException {
-		this.bulkKeys = null;
+		keyManager.invalidate();
 
 		//1. Build and publish meta/global WBO
 		JSONObject metaObject = new JSONObject();
@@ -97,6 +99,23 @@ public class WeaveSyncV5Crypto {
 		return storageClient;
 	}
 	
+	public BulkKeyManager getKeyManager() {
+		return keyManager;
+	}
+
+	/**
+	 * revalidateKeys()
+	 *
+	 * Discard cached bulk keys if crypto/keys has been modified since they were fetched
+	 */
+	public boolean revalidateKeys() throws WeaveException {
+		return keyManager.revalidate();
+	}
+
+	public boolean revalidateKeys(Map<String, WeaveCollectionInfo> collections) {
+		return keyManager.revalidate(collections);
+	}
+
 	public String generateWeaveID() {
 		return storageClient.generateWeaveID();
 	}
@@ -129,111 +148,79 @@ public class WeaveSyncV5Crypto {
 	}
 	
 	private WeaveKeyPair generateWeaveKeyPair() {
-        SecureRandom rnd = new SecureRandom();
         WeaveKeyPair keyPair = new WeaveKeyPair();
-        keyPair.cryptKey = rnd.generateSeed(32);
-        keyPair.hmacKey = rnd.generateSeed(32);
+        keyPair.cryptKey = RandomSource.nextBytes(32);
+        keyPair.hmacKey = RandomSource.nextBytes(32);
         return keyPair;
 	}
     
-	/**
-      Given a bulk key label, pull the key down from the network,
-      and decrypt it using my private key.  Then store the key
-      into self storage for later decrypt operations."""
-	 */
-	private WeaveKeyPair getBulkKeyPair(String collection) throws WeaveException {
-		Log.getInstance().debug("getBulkKeyPair()");
-		
-		if ( this.bulkKeys == null ) {
-			Log.getInstance().info( "Fetching bulk keys from server");
-
-            WeaveBasicObject res = null;
-            try {
-            	res = storageClient.get(KEY_CRYPTO_PATH);
-            } catch (NotFoundException e) {
-            	throw new WeaveException(KEY_CRYPTO_PATH + " not found " + e.getMessage());
-            }
-
-            // Recursively call decrypt to extract key data
-            String payload = this.decrypt(res.getPayload(), null);
-            
-            // Parse JSONUtils encoded payload
-            JSONParser parser = new JSONParser();
-            JSONObject keyData = null; 
-            		
-            try {
-            	keyData = (JSONObject)parser.parse(payload);  
-            } catch (ParseException e) {
-            	throw new WeaveException(e);
-            }
-
-    		this.bulkKeys   = new HashMap<String, WeaveKeyPair>();
-
-    		//Get default key pair
-    		JSONArray defaultKey = (JSONArray)keyData.get("default");
-    		
-        	WeaveKeyPair keyPair = new WeaveKeyPair();
-        	keyPair.cryptKey = Base64.decodeBase64((String)defaultKey.get(0));
-        	keyPair.hmacKey  = Base64.decodeBase64((String)defaultKey.get(1));
-            this.bulkKeys.put("default", keyPair);
-    		
-            //Get collection key pairs
-            JSONObject colKeys = (JSONObject)keyData.get("collections");
-            
-    	    Iterator<?> it = colKeys.entrySet().iterator();
-    	    while (it.hasNext()) {
-    	        Map.Entry<?, ?> pairs = (Map.Entry<?, ?>)it.next();
-            	JSONArray bulkKey = (JSONArray)pairs.getValue();
-            	
-            	WeaveKeyPair bulkKeyPair = new WeaveKeyPair();
-            	bulkKeyPair.cryptKey = Base64.decodeBase64((String)bulkKey.get(0));
-            	bulkKeyPair.hmacKey  = Base64.decodeBase64((String)bulkKey.get(1));
-                this.bulkKeys.put((String)pairs.getKey(), bulkKeyPair);
-            }
-            
-            Log.getInstance().info( String.format("Successfully decrypted bulk key for %s", collection));
-		}
-
-        if ( this.bulkKeys.containsKey(collection) )  {
-        	return this.bulkKeys.get(collection);
-        } else if ( this.bulkKeys.containsKey("default") ) {
-        	Log.getInstance().info( String.format("No key found for %s, using default", collection));
-        	return this.bulkKeys.get("default");        	
-        } else {
-        	throw new WeaveException("No default key found");
-        }
-	}
-	
 	public WeaveBasicObject decryptWeaveBasicObject(WeaveBasicObject wbo, String collection) throws WeaveException {
+		EncryptedPayload envelope = null;
 		try {
-			if ( !isEncrypted(wbo) ) {
-				throw new WeaveException("Weave Basic Object already decrypted");
-			}
+			envelope = wbo.getEncryptedPayload();
 		} catch (ParseException e) {
 			throw new WeaveException(e);
 		}
-		String payload = decrypt(wbo.getPayload(), collection);
+		if ( envelope == null ) {
+			throw new WeaveException("Weave Basic Object already decrypted");
+		}
+		
+		//Cleartext is only parsed if and when caller requests it
+		String payload = decrypt(envelope, collection);
 		return new WeaveBasicObject(wbo.getId(), wbo.getModified(), wbo.getSortindex(), wbo.getTtl(), payload);
 	}
 	
 	public String decrypt(String payload, String collection) throws WeaveException {
-		
-        WeaveKeyPair keyPair = null;
-        
+		WeaveKeyPair keyPair = getKeyPair(collection, "Decrypting");
+		try {
+			return payloadCipher.decrypt(payload, keyPair);
+		} catch (HmacVerificationException e) {
+			WeaveKeyPair freshKeyPair = getFreshKeyPair(collection, keyPair);
+			if ( freshKeyPair == null ) {
+				throw e;
+			}
+			return payloadCipher.decrypt(payload, freshKeyPair);
+		}
+	}
+
+	public String decrypt(EncryptedPayload envelope, String collection) throws WeaveException {
+		WeaveKeyPair keyPair = getKeyPair(collection, "Decrypting");
+		try {
+			return payloadCipher.decrypt(envelope, keyPair);
+		} catch (HmacVerificationException e) {
+			WeaveKeyPair freshKeyPair = getFreshKeyPair(collection, keyPair);
+			if ( freshKeyPair == null ) {
+				throw e;
+			}
+			return payloadCipher.decrypt(envelope, freshKeyPair);
+		}
+	}
+
+	/**
+	 * Bulk keys may have been replaced by another client since they were cached. If so retry
+	 * decryption once with fresh keys, otherwise the HMAC failure stands.
+	 *
+	 * @return key pair to retry with or null if keys are unchanged
+	 */
+	private WeaveKeyPair getFreshKeyPair(String collection, WeaveKeyPair keyPair) throws WeaveException {
+		if ( collection == null ) {
+			return null;
+		}
+		WeaveKeyPair freshKeyPair = keyManager.refresh(collection, keyPair);
+		if ( freshKeyPair != null ) {
+			Log.infof("Bulk keys changed, retrying decryption for %s", collection);
+		}
+		return freshKeyPair;
+	}
+
+	private WeaveKeyPair getKeyPair(String collection, String operation) throws WeaveException {
         if ( collection == null ) {
-        	Log.getInstance().info("Decrypting data record using sync key");
-        	
-        	keyPair = this.privateKey;
-        		
+        	Log.debugf("%s data record using sync key", operation);
+        	return this.privateKey;
         } else {
-        	Log.getInstance().info(String.format("Decrypting data record using bulk key %s", collection));
-
-        	keyPair = this.getBulkKeyPair(collection);
+        	Log.debugf("%s data record using bulk key %s", operation, collection);
+        	return keyManager.getKeyPair(collection);
         }
-
-        PayloadCipher cipher = new PayloadCipher();
-        
-        return cipher.decrypt(payload, keyPair);
 	}
 
 	public WeaveBasicObject encryptWeaveBasicObject(WeaveBasicObject wbo, String collection) throws WeaveException {
@@ -244,8 +231,25 @@ public class WeaveSyncV5Crypto {
 		} catch (ParseException e) {
 			throw new WeaveException(e);
 		}
-		String payload = encrypt(wbo.getPayload(), collection);
-		return new WeaveBasicObject(wbo.getId(), wbo.getModified(), wbo.getSortindex(), wbo.getTtl(), payload);
+		WeaveBasicObject encWbo = new WeaveBasicObject(wbo.getId(), wbo.getModified(), wbo.getSortindex(), wbo.getTtl(), null);
+		encWbo.setEncryptedPayload(payloadCipher.encryptPayload(wbo.getPayload(), getKeyPair(collection, "Encrypting")));
+		return encWbo;
+	}
+
+	/**
+	 * createEncryptingEntity()
+	 *
+	 * Request entity that encrypts cleartext WBO as it is sent, avoiding copies of large payloads
+	 */
+	public EncryptingEntity createEncryptingEntity(WeaveBasicObject wbo, String collection) throws WeaveException {
+		try {
+			if ( isEncrypted(wbo) ) {
+				throw new WeaveException("Weave Basic Object already encrypted");
+			}
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		}
+		return new EncryptingEntity(wbo, getKeyPair(collection, "Encrypting"), payloadCipher);
 	}
 
 	/**
@@ -255,30 +259,14 @@ public class WeaveSyncV5Crypto {
 	 */
 	public String encrypt(String plaintext, String collection) throws WeaveException {		
 		Log.getInstance().debug( "encrypt()");
-		Log.getInstance().debug( "plaintext:\n" + plaintext);
+		Log.debugf("plaintext:\n%s", plaintext);
 	        
 
-		WeaveKeyPair keyPair = null;
-		
-		if ( collection == null ) {
-			Log.getInstance().info( "Encrypting data record using sync key");
-
-        	keyPair = this.privateKey;
-	                
-		} else {
-			Log.getInstance().info( String.format("Encrypting data record using bulk key %s", collection));
-
-			keyPair = this.getBulkKeyPair(collection);
-		}
-		
-		PayloadCipher cipher = new PayloadCipher();
-		
-		return cipher.encrypt(plaintext, keyPair);
+		return payloadCipher.encrypt(plaintext, getKeyPair(collection, "Encrypting"));
 	}
 	
 	public boolean isEncrypted(WeaveBasicObject wbo) throws ParseException {
-		//Determine if WBO is encrypted or not
-		JSONObject jsonPayload = wbo.getPayloadAsJSONObject();
-		return ( jsonPayload.containsKey("ciphertext") && jsonPayload.containsKey("IV") && jsonPayload.containsKey("hmac") );
+		//Envelope is extracted once and cached on WBO
+		return wbo.isEncrypted();
 	}
 }
@@ -0,0 +1,373 @@
+package org.exfio.weave.mirror;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.client.WeaveClient;
+import org.exfio.weave.crypto.WeaveSyncV5Crypto;
+import org.exfio.weave.storage.NotFoundException;
+import org.exfio.weave.storage.StorageContext;
+import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.storage.WeaveCollectionInfo;
+import org.exfio.weave.storage.WeaveCollectionIterator;
+import org.exfio.weave.sync.SyncEngine;
+import org.exfio.weave.sync.SyncTarget;
+import org.exfio.weave.util.Log;
+
+/**
+ * CollectionMirror
+ *
+ * Local SQLite copy of collections. Each sync fetches only records modified since the collection's
+ * server modified time at the previous sync, i.e. newer=, hence steady state syncs only transfer
+ * changes. Records are stored encrypted and decrypted when read.
+ *
+ * Records deleted on the server can't be detected incrementally. Collections deleted or reset on the
+ * server, and all collections when crypto/keys is replaced, are cleared and fetched in full. Use
+ * reconcile() to remove individually deleted records.
+ *
+ */
+public class CollectionMirror implements Closeable, SyncTarget {
+
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	//Not a valid collection name, hence can't clash with mirrored collections
+	private static final String KEY_CRYPTO_MARK = WeaveSyncV5Crypto.KEY_CRYPTO_PATH;
+
+	private WeaveClient weaveClient;
+	private Connection db;
+	private boolean ownConnection;
+
+	@Getter @Setter private String format = StorageContext.DEFAULT_COLLECTION_FORMAT;
+	@Getter @Setter private int batchSize = DEFAULT_BATCH_SIZE;
+
+	public CollectionMirror(WeaveClient weaveClient, String database) throws WeaveException {
+		try {
+			init(weaveClient, getDatabaseConnection(database), true);
+		} catch (SQLException e) {
+			throw new WeaveException("Couldn't initialise mirror database - " + e.getMessage());
+		}
+	}
+
+	public CollectionMirror(WeaveClient weaveClient, Connection db) throws WeaveException {
+		init(weaveClient, db, false);
+	}
+
+	private void init(WeaveClient weaveClient, Connection db, boolean ownConnection) throws WeaveException {
+		this.weaveClient   = weaveClient;
+		this.db            = db;
+		this.ownConnection = ownConnection;
+		try {
+			MirrorStorage.initDB(db);
+		} catch (SQLException e) {
+			throw new WeaveException("Couldn't initialise mirror database - " + e.getMessage());
+		}
+	}
+
+	public static Connection getDatabaseConnection(String database) throws SQLException {
+		return DriverManager.getConnection("jdbc:sqlite:" + database);
+	}
+
+	public Connection getDB() {
+		return db;
+	}
+
+	/**
+	 * syncAll()
+	 *
+	 * Sync every collection on server, except crypto and meta, see SyncEngine.DEFAULT_EXCLUDED
+	 *
+	 * @return number of records fetched per collection
+	 */
+	public Map<String, Integer> syncAll() throws WeaveException {
+		Map<String, WeaveCollectionInfo> info = weaveClient.getInfoCollections();
+		Set<String> names = new LinkedHashSet<String>(info.keySet());
+		names.removeAll(SyncEngine.DEFAULT_EXCLUDED);
+		return sync(names, info);
+	}
+
+	public Map<String, Integer> sync(Collection<String> collections) throws WeaveException {
+		return sync(collections, weaveClient.getInfoCollections());
+	}
+
+	public Map<String, Integer> sync(Collection<String> collections, Map<String, WeaveCollectionInfo> info) throws WeaveException {
+		checkKeys(info);
+
+		Map<String, Integer> fetched = new LinkedHashMap<String, Integer>();
+		for (String collection: collections) {
+			fetched.put(collection, sync(collection, info.get(collection)));
+		}
+		return fetched;
+	}
+
+	public void begin(Map<String, WeaveCollectionInfo> info) throws WeaveException {
+		checkKeys(info);
+	}
+
+	public int sync(String collection) throws WeaveException {
+		Map<String, WeaveCollectionInfo> info = weaveClient.getInfoCollections();
+		checkKeys(info);
+		return sync(collection, info.get(collection));
+	}
+
+	/**
+	 * sync()
+	 *
+	 * Fetch records modified since last sync. Records are written in batches as they are received, and
+	 * collection only marked as synced once all have been written, hence an interrupted sync is simply
+	 * repeated. Collections may be synced concurrently.
+	 *
+	 * @param info collection info from info/collections, or null if collection does not exist on server
+	 * @return number of records fetched
+	 */
+	public int sync(String collection, WeaveCollectionInfo info) throws WeaveException {
+		Double local = getModified(collection);
+
+		if ( info == null || info.getModified() == null ) {
+			if ( local != null ) {
+				Log.infof("Collection '%s' no longer on server, clearing mirror", collection);
+				clear(collection);
+			}
+			return 0;
+		}
+
+		Double modified = info.getModified();
+		if ( local != null ) {
+			if ( modified.equals(local) ) {
+				Log.debugf("Collection '%s' not modified since %s", collection, local);
+				return 0;
+			} else if ( modified < local ) {
+				Log.infof("Collection '%s' reset on server, clearing mirror", collection);
+				clear(collection);
+				local = null;
+			}
+		}
+
+		Log.debugf("Syncing collection '%s' newer than %s", collection, local);
+
+		WeaveCollectionIterator iterator = null;
+		int count = 0;
+		try {
+			iterator = weaveClient.getCollectionIterator(collection, null, null, local, null, null, null, null, null, format, false);
+
+			List<WeaveBasicObject> batch = new ArrayList<WeaveBasicObject>(batchSize);
+			while ( iterator.hasNext() ) {
+				batch.add(iterator.next());
+				if ( batch.size() >= batchSize ) {
+					writeRecords(collection, batch);
+					count += batch.size();
+					batch.clear();
+				}
+			}
+			writeRecords(collection, batch);
+			count += batch.size();
+
+		} catch (NotFoundException e) {
+			Log.infof("Collection '%s' not found, clearing mirror", collection);
+			clear(collection);
+			return 0;
+		} finally {
+			if ( iterator != null ) {
+				iterator.close();
+			}
+		}
+
+		try {
+			synchronized(db) {
+				MirrorStorage.setCollectionModified(db, collection, modified);
+			}
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't update mirror for collection '%s' - %s", collection, e.getMessage()));
+		}
+
+		Log.debugf("Fetched %s records for collection '%s'", count, collection);
+
+		return count;
+	}
+
+	private void writeRecords(String collection, List<WeaveBasicObject> wbos) throws WeaveException {
+		if ( wbos.isEmpty() ) {
+			return;
+		}
+
+		synchronized(db) {
+			try {
+				db.setAutoCommit(false);
+				try {
+					PreparedStatement st = MirrorStorage.prepareReplaceRecord(db);
+					for (WeaveBasicObject wbo: wbos) {
+						MirrorStorage.addReplaceRecord(st, collection, wbo);
+					}
+					st.executeBatch();
+					db.commit();
+				} catch (SQLException e) {
+					db.rollback();
+					throw e;
+				} finally {
+					db.setAutoCommit(true);
+				}
+			} catch (SQLException e) {
+				throw new WeaveException(String.format("Couldn't update mirror for collection '%s' - %s", collection, e.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * checkKeys()
+	 *
+	 * Records are stored encrypted, hence if bulk keys have been replaced every collection will have been
+	 * re-uploaded. Clear mirror rather than wait for stale records to be reconciled.
+	 */
+	private void checkKeys(Map<String, WeaveCollectionInfo> info) throws WeaveException {
+		WeaveCollectionInfo crypto = info.get(WeaveSyncV5Crypto.KEY_CRYPTO_COLLECTION);
+		if ( crypto == null || crypto.getModified() == null ) {
+			return;
+		}
+
+		try {
+			synchronized(db) {
+				Double mark = MirrorStorage.getCollectionModified(db, KEY_CRYPTO_MARK);
+				if ( mark != null && !mark.equals(crypto.getModified()) ) {
+					Log.getInstance().info("Bulk keys changed, clearing mirror");
+					for (String collection: MirrorStorage.getCollections(db).keySet()) {
+						MirrorStorage.deleteCollection(db, collection);
+					}
+				}
+				MirrorStorage.setCollectionModified(db, KEY_CRYPTO_MARK, crypto.getModified());
+			}
+		} catch (SQLException e) {
+			throw new WeaveException("Couldn't update mirror - " + e.getMessage());
+		}
+	}
+
+	/**
+	 * reconcile()
+	 *
+	 * Remove records that have been deleted on server. Only ids are fetched.
+	 *
+	 * @return number of records removed
+	 */
+	public int reconcile(String collection) throws WeaveException {
+		Set<String> serverIds = null;
+		try {
+			serverIds = new HashSet<String>(Arrays.asList(weaveClient.getCollectionIds(collection, null, null, null, null, null, null, null, null)));
+		} catch (NotFoundException e) {
+			serverIds = new HashSet<String>();
+		}
+
+		int count = 0;
+		try {
+			synchronized(db) {
+				for (String id: MirrorStorage.getRecordIds(db, collection)) {
+					if ( !serverIds.contains(id) ) {
+						MirrorStorage.deleteRecord(db, collection, id);
+						count++;
+					}
+				}
+			}
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't reconcile mirror for collection '%s' - %s", collection, e.getMessage()));
+		}
+
+		Log.debugf("Removed %s deleted records from collection '%s'", count, collection);
+
+		return count;
+	}
+
+	/**
+	 * getModified()
+	 *
+	 * @return server modified time of collection at last sync, or null if collection has not been synced
+	 */
+	public Double getModified(String collection) throws WeaveException {
+		try {
+			synchronized(db) {
+				return MirrorStorage.getCollectionModified(db, collection);
+			}
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't read mirror for collection '%s' - %s", collection, e.getMessage()));
+		}
+	}
+
+	public WeaveBasicObject get(String collection, String id) throws WeaveException, NotFoundException { return get(collection, id, true); }
+
+	public WeaveBasicObject get(String collection, String id, boolean decrypt) throws WeaveException, NotFoundException {
+		WeaveBasicObject wbo = null;
+		try {
+			synchronized(db) {
+				wbo = MirrorStorage.getRecord(db, collection, id, now());
+			}
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't read mirror for collection '%s' - %s", collection, e.getMessage()));
+		}
+
+		if ( wbo == null ) {
+			throw new NotFoundException(String.format("Record '%s' not found in collection '%s'", id, collection));
+		}
+
+		return decrypt ? weaveClient.decryptWeaveBasicObject(wbo, collection) : wbo;
+	}
+
+	public WeaveBasicObject[] getCollection(String collection, boolean decrypt) throws WeaveException { return getCollection(collection, null, decrypt); }
+
+	/**
+	 * getCollection()
+	 *
+	 * @return records modified after newer, if given, oldest first
+	 */
+	public WeaveBasicObject[] getCollection(String collection, Double newer, boolean decrypt) throws WeaveException {
+		WeaveBasicObject[] colWbo = null;
+		try {
+			synchronized(db) {
+				colWbo = MirrorStorage.getRecords(db, collection, newer, now());
+			}
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't read mirror for collection '%s' - %s", collection, e.getMessage()));
+		}
+
+		if ( decrypt ) {
+			weaveClient.decryptAll(colWbo, collection);
+		}
+		return colWbo;
+	}
+
+	public void clear(String collection) throws WeaveException {
+		try {
+			synchronized(db) {
+				MirrorStorage.deleteCollection(db, collection);
+			}
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't clear mirror for collection '%s' - %s", collection, e.getMessage()));
+		}
+	}
+
+	private static double now() {
+		return System.currentTimeMillis() / 1000.0;
+	}
+
+	public void close() throws IOException {
+		if ( ownConnection ) {
+			try {
+				db.close();
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+}
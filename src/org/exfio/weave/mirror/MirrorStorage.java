@@ -0,0 +1,312 @@
+package org.exfio.weave.mirror;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.exfio.weave.storage.WeaveBasicObject;
+
+/**
+ * MirrorStorage
+ *
+ * SQLite tables for CollectionMirror. Records are stored as fetched, i.e. with encrypted payload,
+ * along with the server modified time of each mirrored collection at last sync.
+ *
+ */
+public class MirrorStorage {
+
+	public static final int QUERY_TIMEOUT = 10;
+
+	public static void initDB(Connection db) throws SQLException {
+		initDB(db, false);
+	}
+
+	public static void initDB(Connection db, boolean force) throws SQLException {
+
+		String SQL = null;
+
+		Statement st = db.createStatement();
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		//Create MirrorCollection table
+		if ( force ) st.executeUpdate("DROP TABLE IF EXISTS MirrorCollection");
+
+		SQL = "CREATE TABLE IF NOT EXISTS MirrorCollection"
+			+ "\n"
+			+ "("
+			+ " Collection TEXT PRIMARY KEY NOT NULL"
+			+ " ,Modified REAL NOT NULL"
+			+ " ,ModifiedDate TEXT NOT NULL DEFAULT CURRENT_TIMESTAMP"
+			+ ")";
+		st.executeUpdate(SQL);
+
+		//Create MirrorRecord table
+		if ( force ) st.executeUpdate("DROP TABLE IF EXISTS MirrorRecord");
+
+		SQL = "CREATE TABLE IF NOT EXISTS MirrorRecord"
+			+ "\n"
+			+ "("
+			+ " Collection TEXT NOT NULL"
+			+ " ,ID TEXT NOT NULL"
+			+ " ,Modified REAL NOT NULL"
+			+ " ,SortIndex INTEGER"
+			+ " ,TTL INTEGER"
+			+ " ,Payload TEXT NOT NULL"
+			+ " ,PRIMARY KEY (Collection, ID)"
+			+ ")";
+		st.executeUpdate(SQL);
+
+		SQL = "CREATE INDEX IF NOT EXISTS MirrorRecordModified ON MirrorRecord (Collection, Modified)";
+		st.executeUpdate(SQL);
+	}
+
+	/**
+	 * getCollections()
+	 *
+	 * @return server modified time of each mirrored collection at last sync
+	 */
+	public static Map<String, Double> getCollections(Connection db) throws SQLException {
+
+		String SQL = "SELECT Collection, Modified FROM MirrorCollection";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		Map<String, Double> collections = new HashMap<String, Double>();
+
+		ResultSet rs = st.executeQuery();
+		while ( rs.next() ) {
+			collections.put(rs.getString("Collection"), rs.getDouble("Modified"));
+		}
+
+		return collections;
+	}
+
+	public static Double getCollectionModified(Connection db, String collection) throws SQLException {
+
+		String SQL = "SELECT Modified FROM MirrorCollection WHERE Collection = ?";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		int col = 1;
+		st.setString(col++, collection);
+
+		ResultSet rs = st.executeQuery();
+		if ( !rs.next() ) {
+			return null;
+		}
+
+		return rs.getDouble("Modified");
+	}
+
+	public static void setCollectionModified(Connection db, String collection, Double modified) throws SQLException {
+
+		String SQL = null;
+
+		SQL = "REPLACE INTO MirrorCollection"
+			+ "\n"
+			+ "("
+			+ " Collection"
+			+ " ,Modified"
+			+ " ,ModifiedDate"
+			+ ")"
+			+ "\n"
+			+ "VALUES(?, ?, CURRENT_TIMESTAMP)";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		int col = 1;
+		st.setString(col++, collection);
+		st.setDouble(col++, modified);
+
+		st.executeUpdate();
+	}
+
+	/**
+	 * deleteCollection()
+	 *
+	 * Remove collection and its records from mirror
+	 */
+	public static void deleteCollection(Connection db, String collection) throws SQLException {
+
+		PreparedStatement st = db.prepareStatement("DELETE FROM MirrorRecord WHERE Collection = ?");
+		st.setQueryTimeout(QUERY_TIMEOUT);
+		st.setString(1, collection);
+		st.executeUpdate();
+
+		st = db.prepareStatement("DELETE FROM MirrorCollection WHERE Collection = ?");
+		st.setQueryTimeout(QUERY_TIMEOUT);
+		st.setString(1, collection);
+		st.executeUpdate();
+	}
+
+	public static PreparedStatement prepareReplaceRecord(Connection db) throws SQLException {
+
+		String SQL = null;
+
+		SQL = "REPLACE INTO MirrorRecord"
+			+ "\n"
+			+ "("
+			+ " Collection"
+			+ " ,ID"
+			+ " ,Modified"
+			+ " ,SortIndex"
+			+ " ,TTL"
+			+ " ,Payload"
+			+ ")"
+			+ "\n"
+			+ "VALUES(?, ?, ?, ?, ?, ?)";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		return st;
+	}
+
+	/**
+	 * addReplaceRecord()
+	 *
+	 * Add record to batch of prepareReplaceRecord() statement
+	 */
+	public static void addReplaceRecord(PreparedStatement st, String collection, WeaveBasicObject wbo) throws SQLException {
+		int col = 1;
+		st.setString(col++, collection);
+		st.setString(col++, wbo.getId());
+		st.setDouble(col++, wbo.getModified() == null ? 0 : wbo.getModified());
+		if ( wbo.getSortindex() == null ) {
+			st.setNull(col++, Types.INTEGER);
+		} else {
+			st.setLong(col++, wbo.getSortindex());
+		}
+		if ( wbo.getTtl() == null ) {
+			st.setNull(col++, Types.INTEGER);
+		} else {
+			st.setLong(col++, wbo.getTtl());
+		}
+		st.setString(col++, wbo.getPayload());
+		st.addBatch();
+	}
+
+	public static void deleteRecord(Connection db, String collection, String id) throws SQLException {
+
+		String SQL = "DELETE FROM MirrorRecord WHERE Collection = ? AND ID = ?";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		int col = 1;
+		st.setString(col++, collection);
+		st.setString(col++, id);
+
+		st.executeUpdate();
+	}
+
+	/**
+	 * getRecord()
+	 *
+	 * @return record or null if not found or expired
+	 */
+	public static WeaveBasicObject getRecord(Connection db, String collection, String id, double now) throws SQLException {
+
+		String SQL = buildQueryGetRecords() + " AND ID = ?";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		int col = 1;
+		st.setString(col++, collection);
+		st.setDouble(col++, now);
+		st.setString(col++, id);
+
+		ResultSet rs = st.executeQuery();
+		if ( !rs.next() ) {
+			return null;
+		}
+
+		return mapRecord(rs);
+	}
+
+	/**
+	 * getRecords()
+	 *
+	 * @return unexpired records modified after newer, if given, oldest first
+	 */
+	public static WeaveBasicObject[] getRecords(Connection db, String collection, Double newer, double now) throws SQLException {
+
+		String SQL = buildQueryGetRecords();
+		if ( newer != null ) {
+			SQL += " AND Modified > ?";
+		}
+		SQL += " ORDER BY Modified, ID";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		int col = 1;
+		st.setString(col++, collection);
+		st.setDouble(col++, now);
+		if ( newer != null ) {
+			st.setDouble(col++, newer);
+		}
+
+		List<WeaveBasicObject> wbos = new LinkedList<WeaveBasicObject>();
+
+		ResultSet rs = st.executeQuery();
+		while ( rs.next() ) {
+			wbos.add(mapRecord(rs));
+		}
+
+		return wbos.toArray(new WeaveBasicObject[0]);
+	}
+
+	public static List<String> getRecordIds(Connection db, String collection) throws SQLException {
+
+		String SQL = "SELECT ID FROM MirrorRecord WHERE Collection = ?";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		int col = 1;
+		st.setString(col++, collection);
+
+		List<String> ids = new LinkedList<String>();
+
+		ResultSet rs = st.executeQuery();
+		while ( rs.next() ) {
+			ids.add(rs.getString("ID"));
+		}
+
+		return ids;
+	}
+
+	protected static String buildQueryGetRecords() {
+		//TTL is seconds from modification, expired records are no longer returned by server
+		return "SELECT ID, Modified, SortIndex, TTL, Payload"
+			+ "\n"
+			+ "FROM MirrorRecord"
+			+ "\n"
+			+ "WHERE Collection = ?"
+			+ " AND (TTL IS NULL OR Modified + TTL > ?)";
+	}
+
+	protected static WeaveBasicObject mapRecord(ResultSet rs) throws SQLException {
+		Long sortindex = rs.getLong("SortIndex");
+		if ( rs.wasNull() ) {
+			sortindex = null;
+		}
+		Long ttl = rs.getLong("TTL");
+		if ( rs.wasNull() ) {
+			ttl = null;
+		}
+		return new WeaveBasicObject(rs.getString("ID"), rs.getDouble("Modified"), sortindex, ttl, rs.getString("Payload"));
+	}
+}
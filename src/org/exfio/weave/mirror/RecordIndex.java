@@ -0,0 +1,333 @@
+package org.exfio.weave.mirror;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.exfio.weave.storage.WeaveBasicObject;
+
+/**
+ * RecordIndex
+ *
+ * In-memory records of a single collection, indexed by id, modified and sortindex. Evaluates the
+ * getCollection() query parameters with the same semantics as the server, i.e. older, newer,
+ * index_above and index_below are exclusive, records without sortindex never match index bounds
+ * and sort order ties are broken by id.
+ *
+ * Queries are answered from the index matching the requested sort order, hence a limited query
+ * only visits the records it returns plus any that are filtered out.
+ *
+ */
+public class RecordIndex {
+
+	//Sentinel records have null id, which sorts before all ids with the same key
+	private static int compareIds(String a, String b) {
+		if ( a == null || b == null ) {
+			return a == null ? (b == null ? 0 : -1) : 1;
+		}
+		return a.compareTo(b);
+	}
+
+	public static final Comparator<WeaveBasicObject> BY_MODIFIED = new Comparator<WeaveBasicObject>() {
+		public int compare(WeaveBasicObject a, WeaveBasicObject b) {
+			int cmp = Double.compare(a.getModified(), b.getModified());
+			return cmp != 0 ? cmp : compareIds(a.getId(), b.getId());
+		}
+	};
+
+	//Records without sortindex sort lowest, i.e. last for sort=index
+	public static final Comparator<WeaveBasicObject> BY_SORTINDEX = new Comparator<WeaveBasicObject>() {
+		public int compare(WeaveBasicObject a, WeaveBasicObject b) {
+			Long ai = a.getSortindex();
+			Long bi = b.getSortindex();
+			if ( ai == null || bi == null ) {
+				if ( ai != bi ) {
+					return ai == null ? -1 : 1;
+				}
+			} else if ( !ai.equals(bi) ) {
+				return ai < bi ? -1 : 1;
+			}
+			return compareIds(a.getId(), b.getId());
+		}
+	};
+
+	private final Map<String, WeaveBasicObject> byId = new HashMap<String, WeaveBasicObject>();
+	private final NavigableSet<WeaveBasicObject> byModified = new TreeSet<WeaveBasicObject>(BY_MODIFIED);
+	private final NavigableSet<WeaveBasicObject> bySortindex = new TreeSet<WeaveBasicObject>(BY_SORTINDEX);
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	public void put(WeaveBasicObject wbo) {
+		lock.writeLock().lock();
+		try {
+			add(wbo);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * putAll()
+	 *
+	 * Add or replace records atomically with respect to queries
+	 */
+	public void putAll(Collection<WeaveBasicObject> wbos) {
+		lock.writeLock().lock();
+		try {
+			for (WeaveBasicObject wbo: wbos) {
+				add(wbo);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void add(WeaveBasicObject wbo) {
+		if ( wbo.getModified() == null ) {
+			throw new IllegalArgumentException(String.format("Record '%s' has no modified time", wbo.getId()));
+		}
+		remove(wbo.getId());
+		byId.put(wbo.getId(), wbo);
+		byModified.add(wbo);
+		bySortindex.add(wbo);
+	}
+
+	public boolean delete(String id) {
+		lock.writeLock().lock();
+		try {
+			return remove(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private boolean remove(String id) {
+		WeaveBasicObject wbo = byId.remove(id);
+		if ( wbo == null ) {
+			return false;
+		}
+		byModified.remove(wbo);
+		bySortindex.remove(wbo);
+		return true;
+	}
+
+	/**
+	 * retainAll()
+	 *
+	 * Remove records whose id is not in ids, i.e. records deleted on server
+	 *
+	 * @return number of records removed
+	 */
+	public int retainAll(Set<String> ids) {
+		lock.writeLock().lock();
+		try {
+			List<String> deleted = new ArrayList<String>();
+			for (String id: byId.keySet()) {
+				if ( !ids.contains(id) ) {
+					deleted.add(id);
+				}
+			}
+			for (String id: deleted) {
+				remove(id);
+			}
+			return deleted.size();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * purgeExpired()
+	 *
+	 * @return number of records removed
+	 */
+	public int purgeExpired(double now) {
+		lock.writeLock().lock();
+		try {
+			List<String> expired = new ArrayList<String>();
+			for (WeaveBasicObject wbo: byId.values()) {
+				if ( isExpired(wbo, now) ) {
+					expired.add(wbo.getId());
+				}
+			}
+			for (String id: expired) {
+				remove(id);
+			}
+			return expired.size();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			byId.clear();
+			byModified.clear();
+			bySortindex.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return byId.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * get()
+	 *
+	 * @return record or null if not found or expired
+	 */
+	public WeaveBasicObject get(String id, double now) {
+		lock.readLock().lock();
+		try {
+			WeaveBasicObject wbo = byId.get(id);
+			return wbo == null || isExpired(wbo, now) ? null : wbo;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * query()
+	 *
+	 * Evaluate getCollection() parameters against index. Where the server does not define an order,
+	 * i.e. sort is null, records are returned oldest first.
+	 *
+	 * @param sort oldest, newest, index or null
+	 * @param now current time in seconds, records whose ttl has passed are excluded
+	 * @return matching records
+	 */
+	public List<WeaveBasicObject> query(String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, double now) {
+		Comparator<WeaveBasicObject> order = null;
+		if ( sort == null || sort.equals("oldest") ) {
+			order = BY_MODIFIED;
+		} else if ( sort.equals("newest") ) {
+			order = Collections.reverseOrder(BY_MODIFIED);
+		} else if ( sort.equals("index") ) {
+			order = Collections.reverseOrder(BY_SORTINDEX);
+		} else {
+			throw new IllegalArgumentException(String.format("Sort order '%s' not recognised", sort));
+		}
+
+		int skip = offset == null ? 0 : Math.max(0, offset);
+		int max  = limit == null ? Integer.MAX_VALUE : Math.max(0, limit);
+
+		lock.readLock().lock();
+		try {
+			Iterable<WeaveBasicObject> candidates = null;
+			boolean ordered = true;
+
+			if ( ids != null && ids.length > 0 ) {
+				List<WeaveBasicObject> listed = new ArrayList<WeaveBasicObject>(ids.length);
+				for (String id: new LinkedHashSet<String>(Arrays.asList(ids))) {
+					WeaveBasicObject wbo = byId.get(id);
+					if ( wbo != null ) {
+						listed.add(wbo);
+					}
+				}
+				candidates = listed;
+				ordered = false;
+			} else if ( "index".equals(sort) ) {
+				//Range is inclusive of lower bound, exact bounds are applied by filter
+				NavigableSet<WeaveBasicObject> range = bySortindex;
+				if ( index_above != null && index_below != null && index_below <= index_above ) {
+					return new ArrayList<WeaveBasicObject>();
+				}
+				if ( index_above != null ) {
+					range = range.tailSet(sentinel(null, index_above.longValue()), true);
+				}
+				if ( index_below != null ) {
+					range = range.headSet(sentinel(null, index_below.longValue()), false);
+				}
+				candidates = range.descendingSet();
+			} else {
+				NavigableSet<WeaveBasicObject> range = byModified;
+				if ( newer != null && older != null && older <= newer ) {
+					return new ArrayList<WeaveBasicObject>();
+				}
+				if ( newer != null ) {
+					range = range.tailSet(sentinel(newer, null), true);
+				}
+				if ( older != null ) {
+					range = range.headSet(sentinel(older, null), false);
+				}
+				candidates = order == BY_MODIFIED ? range : range.descendingSet();
+			}
+
+			List<WeaveBasicObject> matched = new ArrayList<WeaveBasicObject>();
+			Iterator<WeaveBasicObject> iter = candidates.iterator();
+			while ( iter.hasNext() ) {
+				if ( ordered && matched.size() - skip >= max ) {
+					break;
+				}
+				WeaveBasicObject wbo = iter.next();
+				if ( matches(wbo, older, newer, index_above, index_below, now) ) {
+					matched.add(wbo);
+				}
+			}
+
+			if ( !ordered ) {
+				Collections.sort(matched, order);
+			}
+
+			if ( skip >= matched.size() ) {
+				return new ArrayList<WeaveBasicObject>();
+			}
+			return new ArrayList<WeaveBasicObject>(matched.subList(skip, (int)Math.min(matched.size(), (long)skip + max)));
+
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static WeaveBasicObject sentinel(Double modified, Long sortindex) {
+		return new WeaveBasicObject(null, modified == null ? 0 : modified, sortindex, null, null);
+	}
+
+	private static boolean matches(WeaveBasicObject wbo, Double older, Double newer, Integer index_above, Integer index_below, double now) {
+		double modified = wbo.getModified();
+		if ( older != null && !(modified < older) ) {
+			return false;
+		}
+		if ( newer != null && !(modified > newer) ) {
+			return false;
+		}
+		if ( index_above != null || index_below != null ) {
+			Long sortindex = wbo.getSortindex();
+			if ( sortindex == null ) {
+				return false;
+			}
+			if ( index_above != null && !(sortindex > index_above) ) {
+				return false;
+			}
+			if ( index_below != null && !(sortindex < index_below) ) {
+				return false;
+			}
+		}
+		return !isExpired(wbo, now);
+	}
+
+	private static boolean isExpired(WeaveBasicObject wbo, double now) {
+		//TTL is seconds from modification
+		return wbo.getTtl() != null && !(wbo.getModified() + wbo.getTtl() > now);
+	}
+}
@@ -0,0 +1,254 @@
+package org.exfio.weave.mirror;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.client.WeaveClient;
+import org.exfio.weave.storage.NotFoundException;
+import org.exfio.weave.storage.StorageContext;
+import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.storage.WeaveCollectionInfo;
+import org.exfio.weave.storage.WeaveCollectionIterator;
+import org.exfio.weave.sync.SyncTarget;
+import org.exfio.weave.util.Log;
+
+/**
+ * RecordStore
+ *
+ * Opt-in in-memory copy of selected collections, decrypted once as fetched, answering getCollection()
+ * queries locally. Collections are kept current by refresh(), which compares each collection's
+ * modified time in info/collections with that of the previous refresh and fetches only newer records.
+ * Deleted records are detected by comparing collection counts, in which case ids are fetched.
+ *
+ * Results are as current as the last refresh. Records handed out are copies.
+ *
+ */
+public class RecordStore implements SyncTarget {
+
+	private static class Entry {
+		private final RecordIndex index = new RecordIndex();
+
+		//Server modified time at last refresh, null until loaded
+		private volatile Double modified = null;
+		private volatile boolean loaded = false;
+	}
+
+	private WeaveClient weaveClient;
+	private ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	@Getter @Setter private String format = StorageContext.DEFAULT_COLLECTION_FORMAT;
+
+	public RecordStore(WeaveClient weaveClient) {
+		this.weaveClient = weaveClient;
+	}
+
+	/**
+	 * enable()
+	 *
+	 * Add collection to store. Collection is loaded by next refresh().
+	 */
+	public void enable(String collection) {
+		entries.putIfAbsent(collection, new Entry());
+	}
+
+	public void disable(String collection) {
+		entries.remove(collection);
+	}
+
+	public boolean isEnabled(String collection) {
+		return entries.containsKey(collection);
+	}
+
+	public Set<String> getCollections() {
+		return new HashSet<String>(entries.keySet());
+	}
+
+	/**
+	 * getModified()
+	 *
+	 * @return server modified time of collection at last refresh, or null if not loaded or not on server
+	 */
+	public Double getModified(String collection) {
+		Entry entry = entries.get(collection);
+		return entry == null ? null : entry.modified;
+	}
+
+	/**
+	 * refresh()
+	 *
+	 * Bring all enabled collections up to date. Collection counts are requested in order to detect
+	 * deleted records.
+	 *
+	 * @return number of records fetched per collection
+	 */
+	public Map<String, Integer> refresh() throws WeaveException {
+		return refresh(weaveClient.getInfoCollections(true, false));
+	}
+
+	public Map<String, Integer> refresh(Map<String, WeaveCollectionInfo> info) throws WeaveException {
+		Map<String, Integer> fetched = new ConcurrentHashMap<String, Integer>();
+		for (String collection: entries.keySet()) {
+			fetched.put(collection, refresh(collection, info.get(collection)));
+		}
+		return fetched;
+	}
+
+	public void begin(Map<String, WeaveCollectionInfo> info) {
+		//Records are held decrypted, hence unaffected by key changes
+	}
+
+	/**
+	 * sync()
+	 *
+	 * Enable collection if required and refresh, i.e. collections are selected by SyncEngine
+	 */
+	public int sync(String collection, WeaveCollectionInfo info) throws WeaveException {
+		enable(collection);
+		return refresh(collection, info);
+	}
+
+	/**
+	 * refresh()
+	 *
+	 * @param info collection info from info/collections, or null if collection does not exist on server
+	 * @return number of records fetched
+	 */
+	public int refresh(String collection, WeaveCollectionInfo info) throws WeaveException {
+		Entry entry = entries.get(collection);
+		if ( entry == null ) {
+			throw new WeaveException(String.format("Collection '%s' not enabled", collection));
+		}
+
+		synchronized(entry) {
+			if ( info == null || info.getModified() == null ) {
+				entry.index.clear();
+				entry.modified = null;
+				entry.loaded   = true;
+				return 0;
+			}
+
+			Double local = entry.modified;
+			if ( local != null ) {
+				if ( info.getModified().equals(local) ) {
+					return 0;
+				} else if ( info.getModified() < local ) {
+					Log.infof("Collection '%s' reset on server, reloading", collection);
+					entry.index.clear();
+					local = null;
+				}
+			}
+
+			List<WeaveBasicObject> wbos = new ArrayList<WeaveBasicObject>();
+			WeaveCollectionIterator iterator = null;
+			try {
+				iterator = weaveClient.getCollectionIterator(collection, null, null, local, null, null, null, null, null, format, true);
+				while ( iterator.hasNext() ) {
+					wbos.add(iterator.next());
+				}
+			} catch (NotFoundException e) {
+				wbos.clear();
+				entry.index.clear();
+			} finally {
+				if ( iterator != null ) {
+					iterator.close();
+				}
+			}
+
+			entry.index.putAll(wbos);
+			entry.index.purgeExpired(now());
+
+			//Deletes only show up as a change in count
+			if ( local != null && info.getCount() != null && entry.index.size() != info.getCount() ) {
+				reconcile(collection, entry);
+			}
+
+			entry.modified = info.getModified();
+			entry.loaded   = true;
+
+			Log.debugf("Fetched %s records for collection '%s'", wbos.size(), collection);
+
+			return wbos.size();
+		}
+	}
+
+	private void reconcile(String collection, Entry entry) throws WeaveException {
+		Set<String> ids = null;
+		try {
+			ids = new HashSet<String>(Arrays.asList(weaveClient.getCollectionIds(collection, null, null, null, null, null, null, null, null)));
+		} catch (NotFoundException e) {
+			ids = new HashSet<String>();
+		}
+		int count = entry.index.retainAll(ids);
+		Log.debugf("Removed %s deleted records from collection '%s'", count, collection);
+	}
+
+	public WeaveBasicObject get(String collection, String id) throws WeaveException, NotFoundException {
+		WeaveBasicObject wbo = getEntry(collection).index.get(id, now());
+		if ( wbo == null ) {
+			throw new NotFoundException(String.format("Record '%s' not found in collection '%s'", id, collection));
+		}
+		return copy(wbo);
+	}
+
+	/**
+	 * getCollection()
+	 *
+	 * Evaluate getCollection() parameters locally, see RecordIndex.query()
+	 */
+	public WeaveBasicObject[] getCollection(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort) throws WeaveException {
+		List<WeaveBasicObject> wbos = query(collection, ids, older, newer, index_above, index_below, limit, offset, sort);
+		WeaveBasicObject[] colWbo = new WeaveBasicObject[wbos.size()];
+		for (int i = 0; i < colWbo.length; i++) {
+			colWbo[i] = copy(wbos.get(i));
+		}
+		return colWbo;
+	}
+
+	public String[] getCollectionIds(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort) throws WeaveException {
+		List<WeaveBasicObject> wbos = query(collection, ids, older, newer, index_above, index_below, limit, offset, sort);
+		String[] colIds = new String[wbos.size()];
+		for (int i = 0; i < colIds.length; i++) {
+			colIds[i] = wbos.get(i).getId();
+		}
+		return colIds;
+	}
+
+	private List<WeaveBasicObject> query(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort) throws WeaveException {
+		if ( sort != null ) {
+			sort = sort.toLowerCase();
+			if ( !sort.matches("oldest|newest|index") ) {
+				throw new WeaveException(String.format("getCollection() sort parameter value of '%s' not recognised", sort));
+			}
+		}
+		return getEntry(collection).index.query(ids, older, newer, index_above, index_below, limit, offset, sort, now());
+	}
+
+	private Entry getEntry(String collection) throws WeaveException {
+		Entry entry = entries.get(collection);
+		if ( entry == null ) {
+			throw new WeaveException(String.format("Collection '%s' not enabled", collection));
+		}
+		if ( !entry.loaded ) {
+			throw new WeaveException(String.format("Collection '%s' not loaded, call refresh()", collection));
+		}
+		return entry;
+	}
+
+	private static WeaveBasicObject copy(WeaveBasicObject wbo) {
+		return new WeaveBasicObject(wbo.getId(), wbo.getModified(), wbo.getSortindex(), wbo.getTtl(), wbo.getPayload());
+	}
+
+	private static double now() {
+		return System.currentTimeMillis() / 1000.0;
+	}
+}
@@ -0,0 +1,22 @@
+package org.exfio.weave.net;
+
+import java.io.IOException;
+
+import lombok.Getter;
+
+/**
+ * BackoffException
+ *
+ * Request was not sent as the server has asked clients to back off for longer than the client is
+ * prepared to wait. Thrown as an IOException, i.e. like a connection failure, as no response exists.
+ */
+public class BackoffException extends IOException {
+	private static final long serialVersionUID = -2795024751369462419L;
+
+	@Getter private long backoffUntil;
+
+	public BackoffException(String host, long backoffUntil) {
+		super(String.format("Backing off from '%s' for %d ms", host, Math.max(0, backoffUntil - System.currentTimeMillis())));
+		this.backoffUntil = backoffUntil;
+	}
+}
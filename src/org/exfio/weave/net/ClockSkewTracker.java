@@ -0,0 +1,147 @@
+package org.exfio.weave.net;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AUTH;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.protocol.HTTP;
+import org.exfio.weave.util.Log;
+
+/**
+ * ClockSkewTracker
+ *
+ * Estimates the offset between local and server clocks per host from the X-Weave-Timestamp header,
+ * or Date if not present, of each response. The offset is applied to Hawk signatures so that hosts
+ * with drifting clocks are not rejected with 401 Unauthorized.
+ *
+ * Skew is in seconds to be added to local time, as per HawkAuthHeaderProvider.
+ *
+ */
+public class ClockSkewTracker {
+
+	public static final String HEADER_TIMESTAMP = "X-Weave-Timestamp";
+
+	//Hawk servers typically accept timestamps within 60 seconds
+	public static final long SKEW_TOLERANCE = 30;
+
+	private static final Pattern HAWK_TS = Pattern.compile("\\bts=\"?(\\d+)\"?");
+
+	private Map<String, Long> skews = new HashMap<String, Long>();
+
+	public synchronized long getSkew(String host) {
+		Long skew = skews.get(host);
+		return skew == null ? 0 : skew.longValue();
+	}
+
+	public synchronized void setSkew(String host, long skew) {
+		Long previous = skews.put(host, skew);
+		if ( previous == null || Math.abs(previous.longValue() - skew) >= SKEW_TOLERANCE ) {
+			Log.infof("Clock skew for '%s' is %d seconds", host, skew);
+		}
+	}
+
+	/**
+	 * recordResponse()
+	 *
+	 * Update skew estimate for host from response headers
+	 *
+	 * @return updated skew or null if response had no usable timestamp
+	 */
+	public Long recordResponse(String host, HttpResponse response) {
+		long now = System.currentTimeMillis();
+		Long serverTime = parseServerTime(response);
+		if ( serverTime == null ) {
+			return null;
+		}
+		long skew = Math.round((serverTime.longValue() - now) / 1000.0);
+		setSkew(host, skew);
+		return skew;
+	}
+
+	/**
+	 * isSkewError()
+	 *
+	 * Whether 401 response was most likely caused by the request timestamp, i.e. the server reports
+	 * a Hawk timestamp or the skew estimate has moved beyond tolerance since request was signed
+	 */
+	public boolean isSkewError(String host, HttpResponse response, long signedSkew) {
+		if ( response.getStatusLine().getStatusCode() != HttpStatus.SC_UNAUTHORIZED ) {
+			return false;
+		}
+		if ( parseHawkTimestamp(response) != null ) {
+			return true;
+		}
+		return Math.abs(getSkew(host) - signedSkew) >= SKEW_TOLERANCE;
+	}
+
+	/**
+	 * parseServerTime()
+	 *
+	 * @return server time in milliseconds since epoch or null if not present
+	 */
+	private static Long parseServerTime(HttpResponse response) {
+		Long hawkTime = parseHawkTimestamp(response);
+		if ( hawkTime != null ) {
+			return hawkTime;
+		}
+
+		Header timestamp = response.getFirstHeader(HEADER_TIMESTAMP);
+		if ( timestamp != null ) {
+			double seconds = Double.NaN;
+			try {
+				seconds = Double.parseDouble(timestamp.getValue().trim());
+			} catch (NumberFormatException e) {
+				//Handled below
+			}
+			if ( seconds >= 0 && seconds < Long.MAX_VALUE / 1000 ) {
+				return Math.round(seconds * 1000);
+			}
+			Log.warnf("Invalid %s header '%s'", HEADER_TIMESTAMP, timestamp.getValue());
+		}
+
+		Header date = response.getFirstHeader(HTTP.DATE_HEADER);
+		if ( date != null ) {
+			Date serverDate = DateUtils.parseDate(date.getValue());
+			if ( serverDate != null ) {
+				return serverDate.getTime();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * parseHawkTimestamp()
+	 *
+	 * Stale timestamp challenge carries the server time, i.e. Hawk ts="1353832234"
+	 *
+	 * @return server time in milliseconds since epoch or null if not present or invalid
+	 */
+	private static Long parseHawkTimestamp(HttpResponse response) {
+		Header challenge = response.getFirstHeader(AUTH.WWW_AUTH);
+		if ( challenge == null ) {
+			return null;
+		}
+		Matcher matcher = HAWK_TS.matcher(challenge.getValue());
+		if ( !matcher.find() ) {
+			return null;
+		}
+		long seconds = -1;
+		try {
+			seconds = Long.parseLong(matcher.group(1));
+		} catch (NumberFormatException e) {
+			//Out of range, handled below
+		}
+		if ( seconds < 0 || seconds > Long.MAX_VALUE / 1000 ) {
+			Log.warnf("Invalid Hawk timestamp in %s header '%s'", AUTH.WWW_AUTH, challenge.getValue());
+			return null;
+		}
+		return seconds * 1000;
+	}
+}
@@ -0,0 +1,66 @@
+package org.exfio.weave.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CompressionStats
+ *
+ * Byte counters for compressed requests and responses. Only compressed bodies are counted,
+ * i.e. savings are relative to sending or receiving the same bodies uncompressed.
+ *
+ */
+public class CompressionStats {
+
+	private AtomicLong requestBytesOriginal  = new AtomicLong();
+	private AtomicLong requestBytesSent      = new AtomicLong();
+	private AtomicLong responseBytesReceived = new AtomicLong();
+	private AtomicLong responseBytesDecoded  = new AtomicLong();
+
+	public void recordRequest(long original, long sent) {
+		requestBytesOriginal.addAndGet(original);
+		requestBytesSent.addAndGet(sent);
+	}
+
+	void addResponseBytesReceived(long bytes) {
+		responseBytesReceived.addAndGet(bytes);
+	}
+
+	void addResponseBytesDecoded(long bytes) {
+		responseBytesDecoded.addAndGet(bytes);
+	}
+
+	public long getRequestBytesOriginal() {
+		return requestBytesOriginal.get();
+	}
+
+	public long getRequestBytesSent() {
+		return requestBytesSent.get();
+	}
+
+	public long getRequestBytesSaved() {
+		return requestBytesOriginal.get() - requestBytesSent.get();
+	}
+
+	public long getResponseBytesReceived() {
+		return responseBytesReceived.get();
+	}
+
+	public long getResponseBytesDecoded() {
+		return responseBytesDecoded.get();
+	}
+
+	public long getResponseBytesSaved() {
+		return responseBytesDecoded.get() - responseBytesReceived.get();
+	}
+
+	public void reset() {
+		requestBytesOriginal.set(0);
+		requestBytesSent.set(0);
+		responseBytesReceived.set(0);
+		responseBytesDecoded.set(0);
+	}
+
+	public String toString() {
+		return String.format("requests: %d/%d bytes, responses: %d/%d bytes", requestBytesSent.get(), requestBytesOriginal.get(), responseBytesReceived.get(), responseBytesDecoded.get());
+	}
+}
@@ -0,0 +1,173 @@
+package org.exfio.weave.net;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * ContentEncodingInterceptor
+ *
+ * Negotiates gzip or deflate response encoding and transparently decodes responses, counting
+ * bytes on the wire and decoded bytes in CompressionStats. Replaces the client's built-in
+ * content compression, which does not report how much was saved.
+ *
+ */
+public class ContentEncodingInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+	public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	private CompressionStats stats;
+
+	public ContentEncodingInterceptor(CompressionStats stats) {
+		this.stats = stats;
+	}
+
+	public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+		if ( !request.containsHeader("Accept-Encoding") ) {
+			request.addHeader("Accept-Encoding", ACCEPT_ENCODING);
+		}
+	}
+
+	public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+		decodeResponse(response);
+	}
+
+	/**
+	 * decodeResponse()
+	 *
+	 * Replace compressed response entity with decoding entity. Responses that are not compressed,
+	 * or have already been decoded, are left unchanged.
+	 */
+	public void decodeResponse(HttpResponse response) throws IOException {
+		HttpEntity entity = response.getEntity();
+		if ( entity == null || entity.getContentLength() == 0 || entity.getContentEncoding() == null ) {
+			return;
+		}
+
+		String encoding = entity.getContentEncoding().getValue().trim().toLowerCase(Locale.ROOT);
+		if ( encoding.equals("gzip") || encoding.equals("x-gzip") || encoding.equals("deflate") ) {
+			response.setEntity(new DecodingEntity(entity, encoding, stats));
+			response.removeHeaders(HTTP.CONTENT_LEN);
+			response.removeHeaders(HTTP.CONTENT_ENCODING);
+			response.removeHeaders("Content-MD5");
+		} else if ( !encoding.equals("identity") ) {
+			throw new IOException(String.format("Unsupported Content-Encoding '%s'", encoding));
+		}
+	}
+
+	/**
+	 * DecodingEntity
+	 *
+	 * Decompresses wrapped entity as it is read
+	 */
+	private static class DecodingEntity extends HttpEntityWrapper {
+		private String encoding;
+		private CompressionStats stats;
+		private InputStream content = null;
+
+		public DecodingEntity(HttpEntity entity, String encoding, CompressionStats stats) {
+			super(entity);
+			this.encoding = encoding;
+			this.stats    = stats;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			if ( content == null ) {
+				InputStream received = new CountingInputStream(wrappedEntity.getContent(), stats, true);
+				InputStream decoded  = encoding.equals("deflate") ? new DeflateInputStream(received) : new GZIPInputStream(received);
+				content = new CountingInputStream(decoded, stats, false);
+			}
+			return content;
+		}
+
+		@Override
+		public Header getContentEncoding() {
+			return null;
+		}
+
+		@Override
+		public long getContentLength() {
+			return -1;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return false;
+		}
+
+		@Override
+		public void writeTo(OutputStream outstream) throws IOException {
+			InputStream instream = getContent();
+			try {
+				byte[] buffer = new byte[4096];
+				int len;
+				while ( (len = instream.read(buffer)) != -1 ) {
+					outstream.write(buffer, 0, len);
+				}
+			} finally {
+				instream.close();
+			}
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		private CompressionStats stats;
+		private boolean received;
+
+		public CountingInputStream(InputStream in, CompressionStats stats, boolean received) {
+			super(in);
+			this.stats    = stats;
+			this.received = received;
+		}
+
+		private void count(long bytes) {
+			if ( bytes <= 0 ) {
+				return;
+			}
+			if ( received ) {
+				stats.addResponseBytesReceived(bytes);
+			} else {
+				stats.addResponseBytesDecoded(bytes);
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if ( b != -1 ) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			count(n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count(skipped);
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package org.exfio.weave.net;
+
+import org.mozilla.gecko.sync.net.AuthHeaderProvider;
+import org.mozilla.gecko.sync.net.HawkAuthHeaderProvider;
+
+/**
+ * HawkCredentials
+ *
+ * Hawk id and key for a storage node. HawkAuthHeaderProvider takes a fixed skew, hence
+ * a provider is created whenever the estimated skew for the node changes.
+ *
+ */
+public class HawkCredentials {
+
+	private String id;
+	private byte[] key;
+
+	private AuthHeaderProvider provider = null;
+	private long providerSkew = 0;
+
+	public HawkCredentials(String id, byte[] key) {
+		this.id  = id;
+		this.key = key;
+	}
+
+	public synchronized AuthHeaderProvider getAuthHeaderProvider(long skew) {
+		if ( provider == null || providerSkew != skew ) {
+			provider     = new HawkAuthHeaderProvider(id, key, false, skew);
+			providerSkew = skew;
+		}
+		return provider;
+	}
+}
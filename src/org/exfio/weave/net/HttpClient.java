@@ -14,24 +14,35 @@
 package org.exfio.weave.net;
 
 import java.security.GeneralSecurityException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
 
 import lombok.Getter;
 import lombok.Setter;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
+import org.apache.http.auth.AUTH;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.client.methods.HttpUriRequest; 
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.util.EntityUtils;
 import org.mozilla.gecko.sync.net.AuthHeaderProvider;
 import org.exfio.weave.Constants;
 import org.exfio.weave.client.PreconditionFailedException;
 import org.exfio.weave.net.HttpException;
-import org.exfio.weave.net.HttpRequestRetryHandler;
 import org.exfio.weave.storage.NotFoundException;
 import org.exfio.weave.util.Log;
 
@@ -40,10 +51,15 @@ public class HttpClient {
 	public final static String DEFAULT_USER_AGENT = "eXfio Weave/" + Constants.APP_VERSION;
 	
 	private CloseableHttpClient httpClient = null;
+	private volatile boolean closed = false;
 	
+	@Getter private HttpConnectionPool connectionPool = null;
 	@Getter private String userAgent = null;
-	@Setter private HttpClientContext context = null;
-	@Setter private AuthHeaderProvider authHeaderProvider = null;
+	@Getter @Setter private HttpClientContext context = null;
+	@Getter @Setter private AuthHeaderProvider authHeaderProvider = null;
+
+	//If set Hawk signatures are corrected for server clock skew, in preference to authHeaderProvider
+	@Getter @Setter private HawkCredentials hawkCredentials = null;
 
 	//Initialise httpClient
 	public HttpClient() {
@@ -51,14 +67,20 @@ public class HttpClient {
 	}
 	
 	public HttpClient(String userAgent) {
+		this(userAgent, HttpConnectionPool.getDefaultInstance());
+	}
+
+	/**
+	 * Connections are owned by the pool, hence HttpClient instances are lightweight and
+	 * any number of them can share a pool. Context and auth are per instance.
+	 */
+	public HttpClient(String userAgent, HttpConnectionPool connectionPool) {
 
 		this.userAgent = userAgent;
 		this.context = HttpClientContext.create();
 		
-		httpClient = HttpClients.custom()
-			.setRetryHandler(HttpRequestRetryHandler.INSTANCE)
-			.setUserAgent(userAgent)
-			.build();
+		this.connectionPool = connectionPool;
+		this.httpClient     = connectionPool.getHttpClient();
 	}
 
 	public static void closeResponse(CloseableHttpResponse response) {
@@ -70,7 +92,7 @@ public class HttpClient {
 			response.close();
 		} catch (Exception e) {
 			//fail quietly
-			Log.getInstance().error("Couldn't close HttpResponse - " + e.getMessage());
+			Log.errorf("Couldn't close HttpResponse - %s", e.getMessage());
 		}
 	}
 	
@@ -95,17 +117,279 @@ public class HttpClient {
 		}
 	}
 	
+	/**
+	 * execute()
+	 * 
+	 * Execute request, retrying as directed by the pool's RetryScheduler. Waits for any backoff
+	 * requested by the server via Retry-After, unless it is longer than the maximum retry delay
+	 * in which case BackoffException is thrown without sending the request.
+	 * 
+	 * If a Hawk signed request is rejected due to clock skew it is re-signed and retried once.
+	 */
 	public CloseableHttpResponse execute(HttpUriRequest request) throws IOException, GeneralSecurityException {
-		if ( authHeaderProvider != null ) {
-			request.addHeader(authHeaderProvider.getAuthHeader(request, null, null));
-		}		
-		return httpClient.execute(request, context);
+		checkOpen();
+		
+		RetryScheduler scheduler = connectionPool.getRetryScheduler();
+		String host = request.getURI().getHost();
+		boolean resigned = false;
+		
+		//Context is not thread safe so use child context per request, which inherits credentials and auth cache
+		HttpClientContext requestContext = HttpClientContext.adapt(new BasicHttpContext(context));
+		
+		for (int attempt = 0; ; attempt++) {
+			awaitBackoff(host);
+			long signedSkew = prepareRequest(request);
+			
+			CloseableHttpResponse response = null;
+			long delay = -1;
+			try {
+				//Set by request executor once request is written, hence whether it is safe to retry POST
+				requestContext.removeAttribute(HttpCoreContext.HTTP_REQ_SENT);
+				response = httpClient.execute(request, requestContext);
+			} catch (IOException e) {
+				delay = scheduler.getRetryDelay(host, request, requestContext, null, e, attempt);
+				if ( delay < 0 ) {
+					throw e;
+				}
+				Log.warnf("Request to '%s' failed, retrying in %d ms - %s", host, delay, e.getMessage());
+			}
+			
+			if ( response != null ) {
+				if ( isSkewError(host, response, signedSkew) && !resigned ) {
+					Log.warnf("Request to '%s' rejected due to clock skew, re-signing", host);
+					closeResponse(response);
+					resigned = true;
+					attempt--;
+					continue;
+				}
+				scheduler.recordResponse(host, response);
+				delay = scheduler.getRetryDelay(host, request, response, null, attempt);
+				if ( delay < 0 ) {
+					return response;
+				}
+				Log.warnf("Request to '%s' returned %d, retrying in %d ms", host, response.getStatusLine().getStatusCode(), delay);
+				closeResponse(response);
+			}
+			
+			sleep(delay);
+		}
 	}
 	
-	public void close() throws IOException {
-		if ( httpClient != null ) {
-			httpClient.close();
+	/**
+	 * executeAsync()
+	 * 
+	 * Execute request using non-blocking client. The response entity is buffered in memory
+	 * before callback is invoked on an I/O dispatch thread. Retries and backoff are handled
+	 * as per execute() but delays are scheduled rather than blocking.
+	 */
+	public Future<HttpResponse> executeAsync(HttpUriRequest request, FutureCallback<HttpResponse> callback) throws IOException, GeneralSecurityException {
+		checkOpen();
+		
+		BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(callback);
+		executeAsync(request, future, 0, false);
+		return future;
+	}
+	
+	private void executeAsync(final HttpUriRequest request, final BasicFuture<HttpResponse> future, final int attempt, final boolean resigned) throws IOException, GeneralSecurityException {
+		final RetryScheduler scheduler = connectionPool.getRetryScheduler();
+		final String host = request.getURI().getHost();
+		
+		long wait = scheduler.getRequiredDelay(host);
+		if ( wait > scheduler.getMaxDelay() ) {
+			throw new BackoffException(host, System.currentTimeMillis() + wait);
+		} else if ( wait > 0 ) {
+			scheduleAsync(request, future, attempt, resigned, wait);
+			return;
+		}
+		
+		final long signedSkew = prepareRequest(request);
+		
+		//Context is not thread safe so use child context per request, which inherits credentials and auth cache
+		HttpClientContext requestContext = HttpClientContext.adapt(new BasicHttpContext(context));
+		connectionPool.getHttpAsyncClient().execute(request, requestContext, new FutureCallback<HttpResponse>() {
+			public void completed(HttpResponse response) {
+				try {
+					//Async client does not run response interceptors on buffered entity
+					connectionPool.getContentEncoding().decodeResponse(response);
+				} catch (IOException e) {
+					future.failed(e);
+					return;
+				}
+				if ( isSkewError(host, response, signedSkew) && !resigned ) {
+					Log.warnf("Request to '%s' rejected due to clock skew, re-signing", host);
+					EntityUtils.consumeQuietly(response.getEntity());
+					scheduleAsync(request, future, attempt, true, 0);
+					return;
+				}
+				scheduler.recordResponse(host, response);
+				long delay = scheduler.getRetryDelay(host, request, response, null, attempt);
+				if ( delay < 0 ) {
+					future.completed(response);
+					return;
+				}
+				Log.warnf("Request to '%s' returned %d, retrying in %d ms", host, response.getStatusLine().getStatusCode(), delay);
+				EntityUtils.consumeQuietly(response.getEntity());
+				scheduleAsync(request, future, attempt + 1, resigned, delay);
+			}
+			
+			public void failed(Exception e) {
+				long delay = -1;
+				if ( e instanceof IOException ) {
+					delay = scheduler.getRetryDelay(host, request, null, (IOException)e, attempt);
+				}
+				if ( delay < 0 ) {
+					future.failed(e);
+					return;
+				}
+				Log.warnf("Request to '%s' failed, retrying in %d ms - %s", host, delay, e.getMessage());
+				scheduleAsync(request, future, attempt + 1, resigned, delay);
+			}
+			
+			public void cancelled() {
+				future.cancel();
+			}
+		});
+	}
+	
+	private void scheduleAsync(final HttpUriRequest request, final BasicFuture<HttpResponse> future, final int attempt, final boolean resigned, long delay) {
+		connectionPool.getRetryScheduler().schedule(new Runnable() {
+			public void run() {
+				if ( future.isDone() ) {
+					return;
+				}
+				try {
+					executeAsync(request, future, attempt, resigned);
+				} catch (Exception e) {
+					future.failed(e);
+				}
+			}
+		}, delay);
+	}
+	
+	/**
+	 * prepareRequest()
+	 * 
+	 * Add user agent and auth headers. The auth header is regenerated for each attempt,
+	 * i.e. fresh Hawk nonce and timestamp.
+	 * 
+	 * @return clock skew used to sign request
+	 */
+	private long prepareRequest(HttpUriRequest request) throws GeneralSecurityException {
+		if ( !request.containsHeader(HTTP.USER_AGENT) ) {
+			request.addHeader(HTTP.USER_AGENT, userAgent);
+		}
+		
+		long skew = 0;
+		AuthHeaderProvider provider = authHeaderProvider;
+		if ( hawkCredentials != null ) {
+			skew     = connectionPool.getClockSkewTracker().getSkew(request.getURI().getHost());
+			provider = hawkCredentials.getAuthHeaderProvider(skew);
+		}
+		if ( provider != null ) {
+			request.removeHeaders(AUTH.WWW_AUTH_RESP);
+			request.addHeader(provider.getAuthHeader(request, null, null));
+		}
+		return skew;
+	}
+	
+	/**
+	 * isSkewError()
+	 * 
+	 * Update clock skew estimate for host and determine whether request should be re-signed
+	 */
+	private boolean isSkewError(String host, HttpResponse response, long signedSkew) {
+		ClockSkewTracker tracker = connectionPool.getClockSkewTracker();
+		tracker.recordResponse(host, response);
+		return hawkCredentials != null && tracker.isSkewError(host, response, signedSkew);
+	}
+	
+	private void checkOpen() {
+		if ( closed ) {
+			throw new IllegalStateException("HttpClient closed");
+		}
+	}
+	
+	private void awaitBackoff(String host) throws IOException {
+		RetryScheduler scheduler = connectionPool.getRetryScheduler();
+		long wait = scheduler.getRequiredDelay(host);
+		if ( wait > scheduler.getMaxDelay() ) {
+			throw new BackoffException(host, System.currentTimeMillis() + wait);
+		}
+		if ( wait > 0 ) {
+			Log.infof("Backing off from '%s' for %d ms", host, wait);
+			sleep(wait);
+		}
+	}
+	
+	private static void sleep(long delay) throws IOException {
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry request");
+		}
+	}
+	
+	/**
+	 * createEntity()
+	 * 
+	 * Create request entity, optionally gzip compressed. Compressed entities are only sent if smaller,
+	 * and are buffered so that requests remain repeatable for retries.
+	 */
+	public HttpEntity createEntity(String body, String contentType, boolean compress) throws IOException {
+		byte[] bytes = body.getBytes(Constants.UTF8);
+		
+		if ( compress ) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 2);
+			GZIPOutputStream gzip = new GZIPOutputStream(buffer);
+			gzip.write(bytes);
+			gzip.close();
+			
+			if ( buffer.size() < bytes.length ) {
+				connectionPool.getCompressionStats().recordRequest(bytes.length, buffer.size());
+				ByteArrayEntity entity = new ByteArrayEntity(buffer.toByteArray());
+				entity.setContentType(contentType);
+				entity.setContentEncoding("gzip");
+				return entity;
+			}
 		}
+		
+		ByteArrayEntity entity = new ByteArrayEntity(bytes);
+		entity.setContentType(contentType);
+		return entity;
+	}
+	
+	public CompressionStats getCompressionStats() {
+		return connectionPool.getCompressionStats();
+	}
+	
+	/**
+	 * isBackingOff()
+	 * 
+	 * Whether host has asked clients to back off, via X-Weave-Backoff or Retry-After. Callers
+	 * should defer non-essential requests, e.g. scheduled syncs, until getBackoffUntil().
+	 */
+	public boolean isBackingOff(String host) {
+		return connectionPool.getRetryScheduler().isBackingOff(host);
+	}
+	
+	public long getBackoffUntil(String host) {
+		return connectionPool.getRetryScheduler().getBackoffUntil(host);
+	}
+	
+	/**
+	 * close()
+	 * 
+	 * Release this client. Pooled connections remain open for other clients until
+	 * the HttpConnectionPool itself is closed. Requests made after close() fail with
+	 * IllegalStateException.
+	 */
+	public void close() throws IOException {
+		closed = true;
+	}
+	
+	public boolean isClosed() {
+		return closed;
 	}
 
 }
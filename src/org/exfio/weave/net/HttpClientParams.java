@@ -0,0 +1,46 @@
+package org.exfio.weave.net;
+
+/**
+ * HttpClientParams
+ *
+ * Connection pool, timeout and retry settings for HttpConnectionPool. All times are in milliseconds.
+ *
+ */
+public class HttpClientParams {
+	public static final int DEFAULT_MAX_TOTAL                  = 100;
+	public static final int DEFAULT_MAX_PER_ROUTE              = 20;
+	public static final int DEFAULT_CONNECT_TIMEOUT            = 30000;
+	public static final int DEFAULT_SOCKET_TIMEOUT             = 60000;
+	public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 30000;
+	public static final long DEFAULT_KEEP_ALIVE                = 30000;
+	public static final long DEFAULT_IDLE_TIMEOUT              = 60000;
+	public static final long DEFAULT_EVICTION_INTERVAL         = 15000;
+	public static final int DEFAULT_MAX_RETRIES                = 3;
+	public static final long DEFAULT_RETRY_BASE_DELAY          = 500;
+	public static final long DEFAULT_RETRY_MAX_DELAY           = 30000;
+	public static final int DEFAULT_RETRY_BUDGET               = 10;
+	public static final long DEFAULT_RETRY_BUDGET_INTERVAL     = 60000;
+
+	public int maxTotal                 = DEFAULT_MAX_TOTAL;
+	public int maxPerRoute              = DEFAULT_MAX_PER_ROUTE;
+	public int connectTimeout           = DEFAULT_CONNECT_TIMEOUT;
+	public int socketTimeout            = DEFAULT_SOCKET_TIMEOUT;
+	public int connectionRequestTimeout = DEFAULT_CONNECTION_REQUEST_TIMEOUT;
+
+	//Used when server does not send a Keep-Alive header
+	public long keepAlive               = DEFAULT_KEEP_ALIVE;
+
+	//Connections idle for longer than idleTimeout are closed every evictionInterval
+	public long idleTimeout             = DEFAULT_IDLE_TIMEOUT;
+	public long evictionInterval        = DEFAULT_EVICTION_INTERVAL;
+
+	//Retries are delayed by a random interval up to retryBaseDelay * 2^attempt, capped at retryMaxDelay.
+	//Server requested delays longer than retryMaxDelay are not waited for
+	public int maxRetries               = DEFAULT_MAX_RETRIES;
+	public long retryBaseDelay          = DEFAULT_RETRY_BASE_DELAY;
+	public long retryMaxDelay           = DEFAULT_RETRY_MAX_DELAY;
+
+	//Each host may be retried at most retryBudget times per retryBudgetInterval
+	public int retryBudget              = DEFAULT_RETRY_BUDGET;
+	public long retryBudgetInterval     = DEFAULT_RETRY_BUDGET_INTERVAL;
+}
@@ -0,0 +1,232 @@
+package org.exfio.weave.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.exfio.weave.util.Log;
+
+/**
+ * HttpConnectionPool
+ *
+ * Pooled connection manager shared by any number of HttpClient instances, so that warm (TLS)
+ * connections are reused across storage and account clients. Idle and expired connections are
+ * evicted by a background thread.
+ *
+ * Retries are performed by HttpClient rather than the underlying client, so that backoff requested
+ * by a server is shared by all clients of the pool, see RetryScheduler. Likewise clock skew is
+ * tracked per host for the pool, see ClockSkewTracker.
+ *
+ * Responses are transparently decompressed, with savings reported by getCompressionStats().
+ *
+ * A non-blocking client backed by its own I/O reactor is created on first use of getHttpAsyncClient().
+ *
+ * By default all HttpClient instances in the JVM share the default pool. Call setDefaultInstance()
+ * before creating clients to use custom settings.
+ *
+ */
+public class HttpConnectionPool implements Closeable {
+
+	private static HttpConnectionPool defaultInstance = null;
+
+	private PoolingHttpClientConnectionManager connectionManager;
+	private PoolingNHttpClientConnectionManager asyncConnectionManager = null;
+	private CloseableHttpAsyncClient httpAsyncClient = null;
+	private RequestConfig requestConfig;
+	private ScheduledExecutorService evictor;
+	private volatile boolean closed = false;
+
+	@Getter private HttpClientParams params;
+	@Getter private CloseableHttpClient httpClient;
+	@Getter private RetryScheduler retryScheduler;
+	@Getter private ClockSkewTracker clockSkewTracker = new ClockSkewTracker();
+	@Getter private CompressionStats compressionStats = new CompressionStats();
+	@Getter private ContentEncodingInterceptor contentEncoding = new ContentEncodingInterceptor(compressionStats);
+
+	public static synchronized HttpConnectionPool getDefaultInstance() {
+		if ( defaultInstance == null ) {
+			defaultInstance = new HttpConnectionPool();
+		}
+		return defaultInstance;
+	}
+
+	public static synchronized void setDefaultInstance(HttpConnectionPool pool) {
+		defaultInstance = pool;
+	}
+
+	public HttpConnectionPool() {
+		this(new HttpClientParams());
+	}
+
+	public HttpConnectionPool(HttpClientParams params) {
+		this.params = params;
+
+		connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(params.maxTotal);
+		connectionManager.setDefaultMaxPerRoute(params.maxPerRoute);
+		connectionManager.setDefaultSocketConfig(
+			SocketConfig.custom()
+				.setSoTimeout(params.socketTimeout)
+				.setSoKeepAlive(true)
+				.setTcpNoDelay(true)
+				.build()
+		);
+
+		requestConfig = RequestConfig.custom()
+			.setConnectTimeout(params.connectTimeout)
+			.setSocketTimeout(params.socketTimeout)
+			.setConnectionRequestTimeout(params.connectionRequestTimeout)
+			//Pooled connections closed by server are detected before reuse
+			.setStaleConnectionCheckEnabled(true)
+			.build();
+
+		httpClient = HttpClients.custom()
+			.setConnectionManager(connectionManager)
+			.setDefaultRequestConfig(requestConfig)
+			.setKeepAliveStrategy(new KeepAliveStrategy(params.keepAlive))
+			.disableAutomaticRetries()
+			.disableContentCompression()
+			.addInterceptorLast((HttpRequestInterceptor)contentEncoding)
+			.addInterceptorLast((HttpResponseInterceptor)contentEncoding)
+			.setUserAgent(HttpClient.DEFAULT_USER_AGENT)
+			.build();
+
+		BasicThreadFactory factory = new BasicThreadFactory.Builder()
+			.namingPattern("weaveclient-scheduler-%d")
+			.daemon(true)
+			.build();
+		evictor = Executors.newSingleThreadScheduledExecutor(factory);
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evictConnections();
+			}
+		}, params.evictionInterval, params.evictionInterval, TimeUnit.MILLISECONDS);
+
+		//Async retries are also scheduled on the eviction thread
+		retryScheduler = new RetryScheduler(params, evictor);
+	}
+
+	/**
+	 * getHttpAsyncClient()
+	 * 
+	 * Get non-blocking client sharing this pool's settings, starting I/O reactor if required
+	 */
+	public synchronized CloseableHttpAsyncClient getHttpAsyncClient() throws IOException {
+		if ( closed ) {
+			throw new IllegalStateException("Connection pool closed");
+		}
+		if ( httpAsyncClient == null ) {
+			IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+				.setConnectTimeout(params.connectTimeout)
+				.setSoTimeout(params.socketTimeout)
+				.setSoKeepAlive(true)
+				.setTcpNoDelay(true)
+				.build();
+
+			asyncConnectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig));
+			asyncConnectionManager.setMaxTotal(params.maxTotal);
+			asyncConnectionManager.setDefaultMaxPerRoute(params.maxPerRoute);
+
+			httpAsyncClient = HttpAsyncClients.custom()
+				.setConnectionManager(asyncConnectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(new KeepAliveStrategy(params.keepAlive))
+				.setUserAgent(HttpClient.DEFAULT_USER_AGENT)
+				.addInterceptorLast((HttpRequestInterceptor)contentEncoding)
+				.build();
+			httpAsyncClient.start();
+		}
+		return httpAsyncClient;
+	}
+
+	private synchronized void evictConnections() {
+		connectionManager.closeExpiredConnections();
+		connectionManager.closeIdleConnections(params.idleTimeout, TimeUnit.MILLISECONDS);
+		if ( asyncConnectionManager != null ) {
+			asyncConnectionManager.closeExpiredConnections();
+			asyncConnectionManager.closeIdleConnections(params.idleTimeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public PoolStats getTotalStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * close()
+	 * 
+	 * Close pooled connections. Clients using the pool fail with IllegalStateException once it is closed,
+	 * hence the default instance, which is shared by every HttpClient created without a pool, is never
+	 * closed. Its threads are daemons and its connections are released when the JVM exits.
+	 */
+	public void close() throws IOException {
+		synchronized (HttpConnectionPool.class) {
+			if ( defaultInstance == this ) {
+				Log.getInstance().debug("Not closing default connection pool");
+				return;
+			}
+		}
+		synchronized (this) {
+			if ( closed ) {
+				return;
+			}
+			closed = true;
+		}
+		evictor.shutdownNow();
+		httpClient.close();
+		synchronized (this) {
+			if ( httpAsyncClient != null ) {
+				httpAsyncClient.close();
+				httpAsyncClient = null;
+			}
+		}
+	}
+
+	/**
+	 * KeepAliveStrategy
+	 *
+	 * Honour Keep-Alive header if present otherwise keep connection for default duration rather than indefinitely
+	 */
+	private static class KeepAliveStrategy implements ConnectionKeepAliveStrategy {
+		private ConnectionKeepAliveStrategy serverStrategy = DefaultConnectionKeepAliveStrategy.INSTANCE;
+		private long keepAlive;
+
+		public KeepAliveStrategy(long keepAlive) {
+			this.keepAlive = keepAlive;
+		}
+
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+			long duration = serverStrategy.getKeepAliveDuration(response, context);
+			if ( duration <= 0 ) {
+				duration = keepAlive;
+			}
+			return duration;
+		}
+	}
+}
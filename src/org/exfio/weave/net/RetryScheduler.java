@@ -0,0 +1,268 @@
+package org.exfio.weave.net;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.protocol.HttpContext;
+import org.exfio.weave.util.Log;
+
+/**
+ * RetryScheduler
+ *
+ * Decides whether and when failed requests are retried and tracks server requested backoff per host.
+ *
+ * Requests are retried after I/O errors (idempotent methods, or any method not yet sent), 503 and 429
+ * responses, with a jittered exponential delay. Retry-After is honoured on 503 and 429, and
+ * X-Weave-Backoff on any response. Each host has a retry budget, hence a struggling node is not hit by
+ * a retry storm.
+ *
+ * While a host is backing off, isBackingOff() returns true so that schedulers can defer whole syncs
+ * rather than failing part way through.
+ *
+ */
+public class RetryScheduler {
+
+	public static final String HEADER_BACKOFF     = "X-Weave-Backoff";
+	public static final String HEADER_RETRY_AFTER = "Retry-After";
+
+	public static final int SC_TOO_MANY_REQUESTS  = 429;
+
+	// see http://www.iana.org/assignments/http-methods/http-methods.xhtml
+	private final static String idempotentMethods[] = {
+		"DELETE", "GET", "HEAD", "MKCALENDAR", "MKCOL", "OPTIONS", "PROPFIND", "PROPPATCH",
+		"PUT", "REPORT", "SEARCH", "TRACE"
+	};
+
+	//Hosts tracked, least recently used are dropped beyond this, e.g. as storage nodes are reassigned
+	public static final int MAX_HOSTS = 256;
+
+	private HttpClientParams params;
+	private ScheduledExecutorService timer;
+
+	//Access ordered map provides LRU order
+	private Map<String, HostState> hosts = new LinkedHashMap<String, HostState>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, HostState> eldest) {
+			return size() > MAX_HOSTS;
+		}
+	};
+
+	//Jitter only, does not need to be secure
+	private Random random = new Random();
+
+	public RetryScheduler(HttpClientParams params, ScheduledExecutorService timer) {
+		this.params = params;
+		this.timer  = timer;
+	}
+
+	/**
+	 * getBackoffUntil()
+	 *
+	 * @return time in milliseconds since epoch until which host has asked clients to back off, or 0 if none
+	 */
+	public long getBackoffUntil(String host) {
+		HostState state = getState(host);
+		synchronized (state) {
+			return Math.max(state.backoffUntil, state.retryAfterUntil);
+		}
+	}
+
+	public boolean isBackingOff(String host) {
+		return getBackoffUntil(host) > System.currentTimeMillis();
+	}
+
+	/**
+	 * getRequiredDelay()
+	 *
+	 * @return milliseconds to wait before sending a request to host as required by Retry-After
+	 */
+	public long getRequiredDelay(String host) {
+		HostState state = getState(host);
+		synchronized (state) {
+			return Math.max(0, state.retryAfterUntil - System.currentTimeMillis());
+		}
+	}
+
+	public long getMaxDelay() {
+		return params.retryMaxDelay;
+	}
+
+	/**
+	 * recordResponse()
+	 *
+	 * Update backoff state for host from response headers
+	 */
+	public void recordResponse(String host, HttpResponse response) {
+		long now = System.currentTimeMillis();
+		int code = response.getStatusLine().getStatusCode();
+
+		long backoff = parseDelay(response.getFirstHeader(HEADER_BACKOFF), now);
+		long retryAfter = -1;
+		if ( code == HttpStatus.SC_SERVICE_UNAVAILABLE || code == SC_TOO_MANY_REQUESTS ) {
+			retryAfter = parseDelay(response.getFirstHeader(HEADER_RETRY_AFTER), now);
+		}
+		if ( backoff < 0 && retryAfter < 0 ) {
+			return;
+		}
+
+		HostState state = getState(host);
+		synchronized (state) {
+			if ( backoff >= 0 ) {
+				state.backoffUntil = Math.max(state.backoffUntil, now + backoff);
+			}
+			if ( retryAfter >= 0 ) {
+				state.retryAfterUntil = Math.max(state.retryAfterUntil, now + retryAfter);
+			}
+		}
+		Log.warnf("Server '%s' requested backoff of %d ms", host, Math.max(backoff, retryAfter));
+	}
+
+	/**
+	 * getRetryDelay()
+	 *
+	 * Determine whether request should be retried after response or exception
+	 *
+	 * @return milliseconds to wait before retrying or -1 if request should not be retried
+	 */
+	public long getRetryDelay(String host, HttpRequest request, HttpResponse response, IOException exception, int attempt) {
+		return getRetryDelay(host, request, null, response, exception, attempt);
+	}
+
+	/**
+	 * getRetryDelay()
+	 *
+	 * Non-idempotent requests are also retried after I/O errors if context shows the request was not sent,
+	 * e.g. connect failure. If context is null the request is assumed to have been sent.
+	 *
+	 * @return milliseconds to wait before retrying or -1 if request should not be retried
+	 */
+	public long getRetryDelay(String host, HttpRequest request, HttpContext context, HttpResponse response, IOException exception, int attempt) {
+		if ( attempt >= params.maxRetries || !isRepeatable(request) ) {
+			return -1;
+		}
+
+		if ( exception != null ) {
+			String method = request.getRequestLine().getMethod().toUpperCase(Locale.ROOT);
+			if ( !ArrayUtils.contains(idempotentMethods, method) && isRequestSent(context) ) {
+				return -1;
+			}
+		} else {
+			int code = response.getStatusLine().getStatusCode();
+			if ( code != HttpStatus.SC_SERVICE_UNAVAILABLE && code != SC_TOO_MANY_REQUESTS ) {
+				return -1;
+			}
+			if ( getRequiredDelay(host) > params.retryMaxDelay ) {
+				return -1;
+			}
+		}
+
+		if ( !getState(host).acquireRetry(params) ) {
+			Log.warnf("Retry budget for '%s' exhausted", host);
+			return -1;
+		}
+
+		//Full jitter, i.e. random delay between 0 and exponential cap
+		long cap = Math.min(params.retryMaxDelay, params.retryBaseDelay << Math.min(attempt, 20));
+		long delay = (long)(random.nextDouble() * cap);
+
+		return Math.max(delay, getRequiredDelay(host));
+	}
+
+	/**
+	 * schedule()
+	 *
+	 * Run task after delay, used to retry asynchronous requests without blocking
+	 */
+	public void schedule(Runnable task, long delay) {
+		timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private static boolean isRequestSent(HttpContext context) {
+		return context == null || HttpClientContext.adapt(context).isRequestSent();
+	}
+
+	private static boolean isRepeatable(HttpRequest request) {
+		if ( request instanceof HttpEntityEnclosingRequest ) {
+			HttpEntity entity = ((HttpEntityEnclosingRequest)request).getEntity();
+			return entity == null || entity.isRepeatable();
+		}
+		return true;
+	}
+
+	/**
+	 * parseDelay()
+	 *
+	 * Parse delay in seconds or HTTP date, as permitted by Retry-After
+	 *
+	 * @return delay in milliseconds or -1 if not present or invalid
+	 */
+	private static long parseDelay(Header header, long now) {
+		if ( header == null ) {
+			return -1;
+		}
+		String value = header.getValue().trim();
+		try {
+			return Math.max(0, Long.parseLong(value) * 1000);
+		} catch (NumberFormatException e) {
+			Date date = DateUtils.parseDate(value);
+			if ( date == null ) {
+				Log.warnf("Invalid %s header '%s'", header.getName(), value);
+				return -1;
+			}
+			return Math.max(0, date.getTime() - now);
+		}
+	}
+
+	private synchronized HostState getState(String host) {
+		HostState state = hosts.get(host);
+		if ( state == null ) {
+			state = new HostState();
+			hosts.put(host, state);
+		}
+		return state;
+	}
+
+	private static class HostState {
+		long backoffUntil    = 0;
+		long retryAfterUntil = 0;
+		double retryTokens   = -1;
+		long lastRefill      = 0;
+
+		/**
+		 * acquireRetry()
+		 *
+		 * Token bucket refilled at retryBudget tokens per retryBudgetInterval
+		 */
+		synchronized boolean acquireRetry(HttpClientParams params) {
+			long now = System.currentTimeMillis();
+			if ( retryTokens < 0 ) {
+				retryTokens = params.retryBudget;
+			} else if ( params.retryBudgetInterval > 0 ) {
+				retryTokens = Math.min(params.retryBudget, retryTokens + (double)(now - lastRefill) * params.retryBudget / params.retryBudgetInterval);
+			}
+			lastRefill = now;
+
+			if ( retryTokens < 1 ) {
+				return false;
+			}
+			retryTokens -= 1;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,354 @@
+package org.exfio.weave.outbox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.client.PreconditionFailedException;
+import org.exfio.weave.client.WeaveClient;
+import org.exfio.weave.outbox.OutboxStorage.QueuedRecord;
+import org.exfio.weave.storage.StorageContext;
+import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.storage.WeavePostResult;
+import org.exfio.weave.util.Log;
+
+/**
+ * Outbox
+ *
+ * Durable write-ahead queue for put(). Records are encrypted and journaled to SQLite, collapsed by
+ * collection and id so that only the latest version is sent, then uploaded in batches by flush(),
+ * either on demand or periodically once start() is called.
+ *
+ * If a base modified time has been set for a collection uploads carry X-If-Unmodified-Since, hence
+ * are rejected if another client has modified the collection since. Queued records are then kept
+ * until the caller has merged remote changes and set a new base. Otherwise uploads are unconditional.
+ *
+ * Records are encrypted with the bulk keys current when queued. If keys are replaced before a flush
+ * and uploads are unconditional, queued records will not be readable by other clients.
+ *
+ */
+public class Outbox implements Closeable {
+
+	public static final int  DEFAULT_BATCH_SIZE     = StorageContext.DEFAULT_MAX_POST_RECORDS;
+	public static final int  DEFAULT_MAX_ATTEMPTS   = 5;
+	public static final long DEFAULT_FLUSH_INTERVAL = 30000;
+
+	public interface Listener {
+		void flushed(String collection, WeavePostResult result);
+		void conflict(String collection, Double base);
+	}
+
+	private WeaveClient weaveClient;
+	private Connection db;
+	private boolean ownConnection;
+
+	private final Object flushLock = new Object();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private ScheduledExecutorService scheduler = null;
+
+	@Getter @Setter private int batchSize = DEFAULT_BATCH_SIZE;
+	@Getter @Setter private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	@Getter @Setter private boolean encrypt = true;
+	@Getter @Setter private Listener listener = null;
+
+	public Outbox(WeaveClient weaveClient, String database) throws WeaveException {
+		try {
+			init(weaveClient, DriverManager.getConnection("jdbc:sqlite:" + database), true);
+		} catch (SQLException e) {
+			throw new WeaveException("Couldn't initialise outbox database - " + e.getMessage());
+		}
+	}
+
+	public Outbox(WeaveClient weaveClient, Connection db) throws WeaveException {
+		init(weaveClient, db, false);
+	}
+
+	private void init(WeaveClient weaveClient, Connection db, boolean ownConnection) throws WeaveException {
+		this.weaveClient   = weaveClient;
+		this.db            = db;
+		this.ownConnection = ownConnection;
+		try {
+			OutboxStorage.initDB(db);
+		} catch (SQLException e) {
+			throw new WeaveException("Couldn't initialise outbox database - " + e.getMessage());
+		}
+	}
+
+	/**
+	 * put()
+	 *
+	 * Queue record for upload. Returns once the record has been written to the journal.
+	 */
+	public void put(String collection, String id, WeaveBasicObject wbo) throws WeaveException {
+		if ( !id.equals(wbo.getId()) ) {
+			wbo = new WeaveBasicObject(id, wbo.getModified(), wbo.getSortindex(), wbo.getTtl(), wbo.getPayload());
+		}
+		if ( encrypt ) {
+			wbo = weaveClient.encryptWeaveBasicObject(wbo, collection);
+		}
+
+		int pending = 0;
+		try {
+			synchronized(db) {
+				OutboxStorage.addRecord(db, collection, wbo);
+				pending = OutboxStorage.getRecordCount(db);
+			}
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't queue record '%s' in collection '%s' - %s", id, collection, e.getMessage()));
+		}
+
+		//Don't wait for next scheduled flush if a full batch is queued
+		if ( pending >= batchSize ) {
+			scheduleFlush(0);
+		}
+	}
+
+	public int getPendingCount() throws WeaveException {
+		try {
+			synchronized(db) {
+				return OutboxStorage.getRecordCount(db);
+			}
+		} catch (SQLException e) {
+			throw new WeaveException("Couldn't read outbox - " + e.getMessage());
+		}
+	}
+
+	/**
+	 * setBase()
+	 *
+	 * Make uploads to collection conditional on it not having been modified since base, i.e. the
+	 * collection modified time when the caller last merged remote changes. Null for unconditional uploads.
+	 */
+	public void setBase(String collection, Double base) throws WeaveException {
+		try {
+			synchronized(db) {
+				OutboxStorage.setBase(db, collection, base);
+			}
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't update outbox for collection '%s' - %s", collection, e.getMessage()));
+		}
+	}
+
+	public Double getBase(String collection) throws WeaveException {
+		try {
+			synchronized(db) {
+				return OutboxStorage.getBase(db, collection);
+			}
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't read outbox for collection '%s' - %s", collection, e.getMessage()));
+		}
+	}
+
+	/**
+	 * flush()
+	 *
+	 * Upload all queued records. Collections with conflicting changes on server are skipped.
+	 *
+	 * @return upload result per collection
+	 */
+	public Map<String, WeavePostResult> flush() throws WeaveException {
+		List<String> collections = null;
+		try {
+			synchronized(db) {
+				collections = OutboxStorage.getCollections(db);
+			}
+		} catch (SQLException e) {
+			throw new WeaveException("Couldn't read outbox - " + e.getMessage());
+		}
+
+		Map<String, WeavePostResult> results = new LinkedHashMap<String, WeavePostResult>();
+		for (String collection: collections) {
+			results.put(collection, flush(collection));
+		}
+		return results;
+	}
+
+	/**
+	 * flush()
+	 *
+	 * Upload queued records of collection in batches of batchSize. Records rejected by the server are
+	 * retried on subsequent flushes and dropped after maxAttempts.
+	 *
+	 * @return upload result, or null if server has conflicting changes
+	 */
+	public WeavePostResult flush(String collection) throws WeaveException {
+		synchronized(flushLock) {
+			WeavePostResult total = null;
+
+			//Each record is sent at most once per flush
+			long afterSeq = 0;
+			while ( true ) {
+				List<QueuedRecord> records = null;
+				Double base = null;
+				try {
+					synchronized(db) {
+						records = OutboxStorage.getRecords(db, collection, afterSeq, batchSize);
+						base    = OutboxStorage.getBase(db, collection);
+					}
+				} catch (SQLException e) {
+					throw new WeaveException(String.format("Couldn't read outbox for collection '%s' - %s", collection, e.getMessage()));
+				}
+
+				if ( records.isEmpty() ) {
+					break;
+				}
+
+				Map<String, QueuedRecord> queued = new HashMap<String, QueuedRecord>();
+				List<WeaveBasicObject> wbos = new ArrayList<WeaveBasicObject>(records.size());
+				for (QueuedRecord record: records) {
+					queued.put(record.getWbo().getId(), record);
+					wbos.add(record.getWbo());
+					afterSeq = record.getSeq();
+				}
+
+				WeavePostResult result = null;
+				try {
+					result = weaveClient.postCollection(collection, wbos, false, base);
+				} catch (PreconditionFailedException e) {
+					Log.infof("Collection '%s' modified since %s, outbox not flushed", collection, base);
+					if ( listener != null ) {
+						listener.conflict(collection, base);
+					}
+					return null;
+				}
+
+				applyResult(collection, queued, base, result);
+
+				if ( total == null ) {
+					total = result;
+				} else {
+					total.merge(result);
+				}
+				if ( listener != null ) {
+					listener.flushed(collection, result);
+				}
+			}
+
+			return total == null ? new WeavePostResult() : total;
+		}
+	}
+
+	private void applyResult(String collection, Map<String, QueuedRecord> queued, Double base, WeavePostResult result) throws WeaveException {
+		try {
+			synchronized(db) {
+				db.setAutoCommit(false);
+				try {
+					for (String id: result.getSuccess()) {
+						QueuedRecord record = queued.get(id);
+						if ( record != null ) {
+							OutboxStorage.deleteRecord(db, record.getSeq());
+						}
+					}
+					for (Map.Entry<String, String> failed: result.getFailed().entrySet()) {
+						QueuedRecord record = queued.get(failed.getKey());
+						if ( record == null ) {
+							continue;
+						}
+						if ( record.getAttempts() + 1 >= maxAttempts ) {
+							Log.warnf("Dropping record '%s' in collection '%s' after %s attempts - %s", failed.getKey(), collection, maxAttempts, failed.getValue());
+							OutboxStorage.deleteRecord(db, record.getSeq());
+						} else {
+							OutboxStorage.failRecord(db, record.getSeq(), failed.getValue());
+						}
+					}
+					//Subsequent uploads are based on our own changes
+					if ( base != null && result.getModified() != null ) {
+						OutboxStorage.setBase(db, collection, result.getModified());
+					}
+					db.commit();
+				} catch (SQLException e) {
+					db.rollback();
+					throw e;
+				} finally {
+					db.setAutoCommit(true);
+				}
+			}
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't update outbox for collection '%s' - %s", collection, e.getMessage()));
+		}
+	}
+
+	/**
+	 * start()
+	 *
+	 * Flush queued records in background every interval milliseconds
+	 */
+	public synchronized void start(long interval) {
+		if ( scheduler != null ) {
+			return;
+		}
+		BasicThreadFactory factory = new BasicThreadFactory.Builder()
+			.namingPattern("weaveclient-outbox-%d")
+			.daemon(true)
+			.build();
+		scheduler = Executors.newSingleThreadScheduledExecutor(factory);
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				flushQuietly();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	public void start() {
+		start(DEFAULT_FLUSH_INTERVAL);
+	}
+
+	public synchronized void stop() {
+		if ( scheduler != null ) {
+			scheduler.shutdown();
+			scheduler = null;
+		}
+	}
+
+	private synchronized void scheduleFlush(long delay) {
+		if ( scheduler != null && flushScheduled.compareAndSet(false, true) ) {
+			scheduler.schedule(new Runnable() {
+				public void run() {
+					flushQuietly();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void flushQuietly() {
+		flushScheduled.set(false);
+		try {
+			flush();
+		} catch (WeaveException e) {
+			//Records stay queued until next flush
+			Log.warnf("Couldn't flush outbox - %s", e.getMessage());
+		} catch (RuntimeException e) {
+			Log.errorf("Couldn't flush outbox - %s", e.getMessage());
+		}
+	}
+
+	public void close() throws IOException {
+		stop();
+		if ( ownConnection ) {
+			try {
+				synchronized(db) {
+					db.close();
+				}
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+}
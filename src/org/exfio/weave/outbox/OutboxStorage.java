@@ -0,0 +1,278 @@
+package org.exfio.weave.outbox;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.LinkedList;
+import java.util.List;
+
+import lombok.Getter;
+
+import org.exfio.weave.storage.WeaveBasicObject;
+
+/**
+ * OutboxStorage
+ *
+ * SQLite journal for Outbox. Queued records are unique by collection and id, replacing a record
+ * assigns it a new sequence number, hence a flush only removes the version it sent.
+ *
+ */
+public class OutboxStorage {
+
+	public static final int QUERY_TIMEOUT = 10;
+
+	public static class QueuedRecord {
+		@Getter private long seq;
+		@Getter private String collection;
+		@Getter private WeaveBasicObject wbo;
+		@Getter private int attempts;
+
+		public QueuedRecord(long seq, String collection, WeaveBasicObject wbo, int attempts) {
+			this.seq        = seq;
+			this.collection = collection;
+			this.wbo        = wbo;
+			this.attempts   = attempts;
+		}
+	}
+
+	public static void initDB(Connection db) throws SQLException {
+		initDB(db, false);
+	}
+
+	public static void initDB(Connection db, boolean force) throws SQLException {
+
+		String SQL = null;
+
+		Statement st = db.createStatement();
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		//Create OutboxRecord table
+		if ( force ) st.executeUpdate("DROP TABLE IF EXISTS OutboxRecord");
+
+		SQL = "CREATE TABLE IF NOT EXISTS OutboxRecord"
+			+ "\n"
+			+ "("
+			+ " Seq INTEGER PRIMARY KEY AUTOINCREMENT"
+			+ " ,Collection TEXT NOT NULL"
+			+ " ,ID TEXT NOT NULL"
+			+ " ,SortIndex INTEGER"
+			+ " ,TTL INTEGER"
+			+ " ,Payload TEXT NOT NULL"
+			+ " ,Attempts INTEGER NOT NULL DEFAULT 0"
+			+ " ,LastError TEXT"
+			+ " ,QueuedDate TEXT NOT NULL DEFAULT CURRENT_TIMESTAMP"
+			+ " ,UNIQUE (Collection, ID)"
+			+ ")";
+		st.executeUpdate(SQL);
+
+		//Create OutboxCollection table
+		if ( force ) st.executeUpdate("DROP TABLE IF EXISTS OutboxCollection");
+
+		SQL = "CREATE TABLE IF NOT EXISTS OutboxCollection"
+			+ "\n"
+			+ "("
+			+ " Collection TEXT PRIMARY KEY NOT NULL"
+			+ " ,Base REAL"
+			+ " ,ModifiedDate TEXT NOT NULL DEFAULT CURRENT_TIMESTAMP"
+			+ ")";
+		st.executeUpdate(SQL);
+	}
+
+	/**
+	 * addRecord()
+	 *
+	 * Queue record, replacing any queued version with the same collection and id
+	 */
+	public static void addRecord(Connection db, String collection, WeaveBasicObject wbo) throws SQLException {
+
+		String SQL = null;
+
+		SQL = "REPLACE INTO OutboxRecord"
+			+ "\n"
+			+ "("
+			+ " Collection"
+			+ " ,ID"
+			+ " ,SortIndex"
+			+ " ,TTL"
+			+ " ,Payload"
+			+ " ,QueuedDate"
+			+ ")"
+			+ "\n"
+			+ "VALUES(?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		int col = 1;
+		st.setString(col++, collection);
+		st.setString(col++, wbo.getId());
+		if ( wbo.getSortindex() == null ) {
+			st.setNull(col++, Types.INTEGER);
+		} else {
+			st.setLong(col++, wbo.getSortindex());
+		}
+		if ( wbo.getTtl() == null ) {
+			st.setNull(col++, Types.INTEGER);
+		} else {
+			st.setLong(col++, wbo.getTtl());
+		}
+		st.setString(col++, wbo.getPayload());
+
+		st.executeUpdate();
+	}
+
+	/**
+	 * getCollections()
+	 *
+	 * @return collections with queued records
+	 */
+	public static List<String> getCollections(Connection db) throws SQLException {
+
+		String SQL = "SELECT DISTINCT Collection FROM OutboxRecord ORDER BY Collection";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		List<String> collections = new LinkedList<String>();
+
+		ResultSet rs = st.executeQuery();
+		while ( rs.next() ) {
+			collections.add(rs.getString("Collection"));
+		}
+
+		return collections;
+	}
+
+	/**
+	 * getRecords()
+	 *
+	 * @return up to limit queued records of collection queued after afterSeq, oldest first
+	 */
+	public static List<QueuedRecord> getRecords(Connection db, String collection, long afterSeq, int limit) throws SQLException {
+
+		String SQL = "SELECT Seq, ID, SortIndex, TTL, Payload, Attempts"
+			+ "\n"
+			+ "FROM OutboxRecord"
+			+ "\n"
+			+ "WHERE Collection = ?"
+			+ " AND Seq > ?"
+			+ "\n"
+			+ "ORDER BY Seq"
+			+ "\n"
+			+ "LIMIT ?";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		int col = 1;
+		st.setString(col++, collection);
+		st.setLong(col++, afterSeq);
+		st.setInt(col++, limit);
+
+		List<QueuedRecord> records = new LinkedList<QueuedRecord>();
+
+		ResultSet rs = st.executeQuery();
+		while ( rs.next() ) {
+			Long sortindex = rs.getLong("SortIndex");
+			if ( rs.wasNull() ) {
+				sortindex = null;
+			}
+			Long ttl = rs.getLong("TTL");
+			if ( rs.wasNull() ) {
+				ttl = null;
+			}
+			WeaveBasicObject wbo = new WeaveBasicObject(rs.getString("ID"), null, sortindex, ttl, rs.getString("Payload"));
+			records.add(new QueuedRecord(rs.getLong("Seq"), collection, wbo, rs.getInt("Attempts")));
+		}
+
+		return records;
+	}
+
+	public static int getRecordCount(Connection db) throws SQLException {
+
+		PreparedStatement st = db.prepareStatement("SELECT COUNT(*) AS RecordCount FROM OutboxRecord");
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		ResultSet rs = st.executeQuery();
+		rs.next();
+		return rs.getInt("RecordCount");
+	}
+
+	/**
+	 * deleteRecord()
+	 *
+	 * Remove record by sequence number, i.e. a version queued since it was read is retained
+	 */
+	public static void deleteRecord(Connection db, long seq) throws SQLException {
+
+		PreparedStatement st = db.prepareStatement("DELETE FROM OutboxRecord WHERE Seq = ?");
+		st.setQueryTimeout(QUERY_TIMEOUT);
+		st.setLong(1, seq);
+		st.executeUpdate();
+	}
+
+	public static void failRecord(Connection db, long seq, String error) throws SQLException {
+
+		String SQL = "UPDATE OutboxRecord SET Attempts = Attempts + 1, LastError = ? WHERE Seq = ?";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		int col = 1;
+		st.setString(col++, error);
+		st.setLong(col++, seq);
+
+		st.executeUpdate();
+	}
+
+	/**
+	 * getBase()
+	 *
+	 * @return collection modified time queued records are based on, or null if uploads are unconditional
+	 */
+	public static Double getBase(Connection db, String collection) throws SQLException {
+
+		PreparedStatement st = db.prepareStatement("SELECT Base FROM OutboxCollection WHERE Collection = ?");
+		st.setQueryTimeout(QUERY_TIMEOUT);
+		st.setString(1, collection);
+
+		ResultSet rs = st.executeQuery();
+		if ( !rs.next() ) {
+			return null;
+		}
+
+		double base = rs.getDouble("Base");
+		return rs.wasNull() ? null : base;
+	}
+
+	public static void setBase(Connection db, String collection, Double base) throws SQLException {
+
+		String SQL = null;
+
+		SQL = "REPLACE INTO OutboxCollection"
+			+ "\n"
+			+ "("
+			+ " Collection"
+			+ " ,Base"
+			+ " ,ModifiedDate"
+			+ ")"
+			+ "\n"
+			+ "VALUES(?, ?, CURRENT_TIMESTAMP)";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		int col = 1;
+		st.setString(col++, collection);
+		if ( base == null ) {
+			st.setNull(col++, Types.REAL);
+		} else {
+			st.setDouble(col++, base);
+		}
+
+		st.executeUpdate();
+	}
+}
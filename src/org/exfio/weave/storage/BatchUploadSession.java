@@ -0,0 +1,227 @@
+package org.exfio.weave.storage;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.apache.http.client.utils.URIBuilder;
+import org.exfio.weave.Constants;
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.util.Log;
+
+/**
+ * BatchUploadSession
+ *
+ * Stages records in a server side batch using the Sync 1.5 batch upload API and commits them atomically,
+ * i.e. other clients never see a partially written collection. The first POST creates the batch, after
+ * which up to maxInFlight POSTs are sent concurrently. Records are not visible until commit() returns.
+ *
+ * If any record fails, i.e. it is too large to send or is rejected by the server, the batch is abandoned
+ * without being committed and WeaveException is thrown.
+ *
+ * If the server does not support batch uploads WeaveException is thrown before any records are sent,
+ * unless allowNonAtomic is set in which case each POST is committed as it is received and failed records
+ * are only reported in the result.
+ *
+ */
+public class BatchUploadSession implements Closeable {
+
+	public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+
+	@Getter @Setter private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+	@Getter @Setter private boolean allowNonAtomic = false;
+
+	private StorageV1_5 storage;
+	private URI location;
+	private PostBatchEncoder encoder;
+	private WeavePostResult result;
+	private LinkedList<Future<WeavePostResult>> inFlight;
+
+	@Getter private String batchId = null;
+	private boolean atomic         = false;
+	private boolean started        = false;
+	private boolean closed         = false;
+	private long totalRecords      = 0;
+	private long totalBytes        = 0;
+
+	public BatchUploadSession(StorageV1_5 storage, URI location) throws WeaveException {
+		this.storage  = storage;
+		this.location = location;
+		this.result   = new WeavePostResult();
+		this.inFlight = new LinkedList<Future<WeavePostResult>>();
+
+		storage.loadLimits();
+		this.encoder = new PostBatchEncoder(storage.getMaxPostRecords(), storage.getMaxPostBytes());
+		this.atomic  = storage.isBatchUploadSupported();
+	}
+
+	/**
+	 * isAtomic()
+	 *
+	 * Whether records are staged in a server side batch, i.e. false if the server does not support batch uploads
+	 */
+	public boolean isAtomic() {
+		return atomic;
+	}
+
+	public void add(WeaveBasicObject wbo) throws WeaveException {
+		if ( closed ) {
+			throw new WeaveException("Batch upload session closed");
+		}
+
+		String record = storage.encodeWeaveBasicObject(wbo);
+
+		//Batch must be committed in a single session to be atomic, so fail rather than split
+		totalRecords += 1;
+		totalBytes   += record.getBytes(Constants.UTF8).length;
+		if ( totalRecords > storage.getMaxTotalRecords() || totalBytes > storage.getMaxTotalBytes() ) {
+			close();
+			throw new WeaveException(String.format("Batch upload exceeds server limit of %d records or %d bytes", storage.getMaxTotalRecords(), storage.getMaxTotalBytes()));
+		}
+
+		String body = encoder.add(wbo.getId(), record, result);
+		checkFailures();
+		if ( body != null ) {
+			send(body);
+		}
+	}
+
+	public void addAll(List<WeaveBasicObject> wbos) throws WeaveException {
+		for (WeaveBasicObject wbo: wbos) {
+			add(wbo);
+		}
+	}
+
+	/**
+	 * commit()
+	 *
+	 * Send any remaining records, wait for outstanding requests and commit batch
+	 */
+	public WeavePostResult commit() throws WeaveException {
+		Log.getInstance().debug("BatchUploadSession.commit()");
+
+		if ( closed ) {
+			throw new WeaveException("Batch upload session closed");
+		}
+
+		try {
+			String body = encoder.flush();
+			if ( body != null ) {
+				send(body);
+			}
+			waitForInFlight(0);
+
+			//Records are only committed once all have been stored in batch
+			checkFailures();
+			if ( batchId != null ) {
+				result.merge(storage.post(buildBatchUri(batchId, true), "[]"));
+			}
+		} finally {
+			close();
+		}
+
+		return result;
+	}
+
+	/**
+	 * close()
+	 *
+	 * Abandon session. Uncommitted batches are discarded by the server when they expire.
+	 */
+	public void close() {
+		closed = true;
+		for (Future<WeavePostResult> future: inFlight) {
+			future.cancel(true);
+		}
+		inFlight.clear();
+	}
+
+	private void send(final String body) throws WeaveException {
+		if ( !started ) {
+			if ( !atomic && !allowNonAtomic ) {
+				close();
+				throw new WeaveException("Server does not support batch uploads, set allowNonAtomic to commit each request as it is sent");
+			}
+			started = true;
+
+			if ( atomic ) {
+				//Batch id is required for subsequent requests so first request is synchronous
+				WeavePostResult first = storage.post(buildBatchUri("true", false), body);
+				batchId = first.getBatch();
+				result.merge(first);
+
+				if ( batchId == null ) {
+					atomic = false;
+					if ( !allowNonAtomic ) {
+						close();
+						throw new WeaveException("Server did not start batch upload, records of first request have been committed");
+					}
+					Log.getInstance().warn("Server did not start batch upload, records will be committed immediately");
+				}
+				checkFailures();
+				return;
+			}
+		}
+
+		waitForInFlight(maxInFlight - 1);
+		checkFailures();
+
+		final URI uri = ( batchId == null ? location : buildBatchUri(batchId, false) );
+		inFlight.add(storage.getExecutor().submit(new Callable<WeavePostResult>() {
+			public WeavePostResult call() throws Exception {
+				return storage.post(uri, body);
+			}
+		}));
+	}
+
+	/**
+	 * checkFailures()
+	 *
+	 * Abandon atomic batch as soon as any record has failed
+	 */
+	private void checkFailures() throws WeaveException {
+		if ( atomic && result.hasFailures() ) {
+			close();
+			throw new WeaveException(String.format("Batch upload abandoned, %d records failed - %s", result.getFailed().size(), result.getFailed()));
+		}
+	}
+
+	private void waitForInFlight(int maxPending) throws WeaveException {
+		while ( inFlight.size() > Math.max(maxPending, 0) ) {
+			try {
+				result.merge(inFlight.removeFirst().get());
+			} catch (InterruptedException e) {
+				close();
+				Thread.currentThread().interrupt();
+				throw new WeaveException(e);
+			} catch (ExecutionException e) {
+				close();
+				if ( e.getCause() instanceof WeaveException ) {
+					throw (WeaveException)e.getCause();
+				}
+				throw new WeaveException(e.getCause());
+			}
+		}
+	}
+
+	private URI buildBatchUri(String batch, boolean commit) throws WeaveException {
+		try {
+			URIBuilder uri = new URIBuilder(location);
+			uri.setParameter("batch", batch);
+			if ( commit ) {
+				uri.setParameter("commit", "true");
+			}
+			return new URI(uri.toString());
+		} catch (URISyntaxException e) {
+			throw new WeaveException(e);
+		}
+	}
+}
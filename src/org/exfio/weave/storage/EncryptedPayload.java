@@ -0,0 +1,62 @@
+package org.exfio.weave.storage;
+
+import lombok.Getter;
+
+import org.json.simple.JSONObject;
+
+/**
+ * EncryptedPayload
+ * 
+ * Typed form of an encrypted WBO payload, i.e. {"ciphertext": "...", "IV": "...", "hmac": "..."}.
+ * Extracted once when the WBO is decoded so that decryption does not need to parse the payload again.
+ *
+ */
+public class EncryptedPayload {
+
+	public static final String KEY_CIPHERTEXT = "ciphertext";
+	public static final String KEY_IV         = "IV";
+	public static final String KEY_HMAC       = "hmac";
+
+	//Base64 encoded ciphertext and IV, hex encoded HMAC of base64 encoded ciphertext
+	@Getter private String ciphertext;
+	@Getter private String iv;
+	@Getter private String hmac;
+
+	public EncryptedPayload(String ciphertext, String iv, String hmac) {
+		this.ciphertext = ciphertext;
+		this.iv         = iv;
+		this.hmac       = hmac;
+	}
+
+	/**
+	 * fromJSONObject()
+	 * 
+	 * @return EncryptedPayload or null if payload is not encrypted
+	 */
+	public static EncryptedPayload fromJSONObject(JSONObject jsonObject) {
+		Object ciphertext = jsonObject.get(KEY_CIPHERTEXT);
+		Object iv         = jsonObject.get(KEY_IV);
+		Object hmac       = jsonObject.get(KEY_HMAC);
+		if ( ciphertext instanceof String && iv instanceof String && hmac instanceof String ) {
+			return new EncryptedPayload((String)ciphertext, (String)iv, (String)hmac);
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public JSONObject toJSONObject() {
+		JSONObject jsonObject = new JSONObject();
+		jsonObject.put(KEY_CIPHERTEXT, ciphertext);
+		jsonObject.put(KEY_IV, iv);
+		jsonObject.put(KEY_HMAC, hmac);
+		return jsonObject;
+	}
+
+	public String toJSONString() {
+		return toJSONObject().toJSONString();
+	}
+
+	public String toString() {
+		return toJSONString();
+	}
+}
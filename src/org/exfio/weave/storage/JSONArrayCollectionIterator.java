@@ -0,0 +1,174 @@
+package org.exfio.weave.storage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.LinkedList;
+
+import org.apache.http.HttpResponse;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import org.exfio.weave.Constants;
+import org.exfio.weave.WeaveException;
+
+/**
+ * JSONArrayCollectionIterator
+ *
+ * Incrementally parses a collection returned in the default (JSON array) format. The parser is paused
+ * as soon as each element of the top level array is complete, hence only one record is held in memory
+ * at a time regardless of collection size.
+ *
+ */
+public class JSONArrayCollectionIterator extends WeaveCollectionIterator {
+
+	private Reader reader         = null;
+	private JSONParser parser     = null;
+	private RecordHandler handler = null;
+	private boolean resume        = false;
+
+	public JSONArrayCollectionIterator(HttpResponse response) throws WeaveException {
+		super(response);
+		try {
+			reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent(), Constants.UTF8));
+		} catch (IOException e) {
+			close();
+			throw new WeaveException(e);
+		}
+		parser  = new JSONParser();
+		handler = new RecordHandler();
+	}
+
+	/**
+	 * readRecord()
+	 *
+	 * Read next element of top level array
+	 *
+	 * @return JSON value or null if end of array reached
+	 */
+	protected Object readRecord() throws WeaveException {
+		if ( handler.finished ) {
+			return null;
+		}
+
+		handler.record = null;
+		try {
+			parser.parse(reader, handler, resume);
+			resume = true;
+		} catch (IOException e) {
+			throw new WeaveException(e);
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		}
+
+		if ( handler.record == null && !handler.finished ) {
+			throw new WeaveException("Unexpected end of collection");
+		}
+		return handler.record;
+	}
+
+	@Override
+	protected WeaveBasicObject readNext() throws WeaveException {
+		Object record = readRecord();
+		if ( record == null ) {
+			return null;
+		}
+		if ( !(record instanceof JSONObject) ) {
+			throw new WeaveException(String.format("Invalid collection record type '%s' expected object", record.getClass()));
+		}
+		return StorageContext.decodeWeaveBasicObject((JSONObject)record);
+	}
+
+	/**
+	 * RecordHandler
+	 *
+	 * SAX style handler that builds each array element and pauses the parser once it is complete
+	 */
+	private static class RecordHandler implements ContentHandler {
+		private LinkedList<Object> containers = new LinkedList<Object>();
+		private LinkedList<String> keys       = new LinkedList<String>();
+		private boolean inArray               = false;
+
+		Object record    = null;
+		boolean finished = false;
+
+		@SuppressWarnings("unchecked")
+		private boolean addValue(Object value) throws ParseException {
+			if ( containers.isEmpty() ) {
+				if ( !inArray ) {
+					throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN);
+				}
+				//Top level element complete, pause parser
+				record = value;
+				return false;
+			}
+
+			Object container = containers.getFirst();
+			if ( container instanceof JSONObject ) {
+				((JSONObject)container).put(keys.getFirst(), value);
+			} else {
+				((JSONArray)container).add(value);
+			}
+			return true;
+		}
+
+		public void startJSON() throws ParseException, IOException {
+			containers.clear();
+			keys.clear();
+			inArray  = false;
+			finished = false;
+		}
+
+		public void endJSON() throws ParseException, IOException {
+			finished = true;
+		}
+
+		public boolean startObject() throws ParseException, IOException {
+			if ( !inArray ) {
+				throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN);
+			}
+			containers.addFirst(new JSONObject());
+			return true;
+		}
+
+		public boolean endObject() throws ParseException, IOException {
+			return addValue(containers.removeFirst());
+		}
+
+		public boolean startObjectEntry(String key) throws ParseException, IOException {
+			keys.addFirst(key);
+			return true;
+		}
+
+		public boolean endObjectEntry() throws ParseException, IOException {
+			keys.removeFirst();
+			return true;
+		}
+
+		public boolean startArray() throws ParseException, IOException {
+			if ( !inArray ) {
+				inArray = true;
+			} else {
+				containers.addFirst(new JSONArray());
+			}
+			return true;
+		}
+
+		public boolean endArray() throws ParseException, IOException {
+			if ( containers.isEmpty() ) {
+				//End of top level array
+				finished = true;
+				return false;
+			}
+			return addValue(containers.removeFirst());
+		}
+
+		public boolean primitive(Object value) throws ParseException, IOException {
+			return addValue(value);
+		}
+	}
+}
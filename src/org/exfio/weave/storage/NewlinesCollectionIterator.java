@@ -0,0 +1,66 @@
+package org.exfio.weave.storage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.apache.http.HttpResponse;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import org.exfio.weave.Constants;
+import org.exfio.weave.WeaveException;
+
+/**
+ * NewlinesCollectionIterator
+ *
+ * Parses a collection returned in the application/newlines format, i.e. one JSON encoded record per line.
+ * Each line is decoded independently so nothing beyond the current record is buffered.
+ *
+ */
+public class NewlinesCollectionIterator extends WeaveCollectionIterator {
+
+	private BufferedReader reader = null;
+	private JSONParser parser     = null;
+
+	public NewlinesCollectionIterator(HttpResponse response) throws WeaveException {
+		super(response);
+		try {
+			reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent(), Constants.UTF8));
+		} catch (IOException e) {
+			close();
+			throw new WeaveException(e);
+		}
+		parser = new JSONParser();
+	}
+
+	@Override
+	protected WeaveBasicObject readNext() throws WeaveException {
+		String line = null;
+		try {
+			//Skip blank lines, i.e. trailing newline
+			do {
+				line = reader.readLine();
+			} while ( line != null && line.trim().isEmpty() );
+		} catch (IOException e) {
+			throw new WeaveException(e);
+		}
+
+		if ( line == null ) {
+			return null;
+		}
+
+		Object record = null;
+		try {
+			record = parser.parse(line);
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		}
+
+		if ( !(record instanceof JSONObject) ) {
+			throw new WeaveException(String.format("Invalid collection record '%s' expected object", line));
+		}
+		return StorageContext.decodeWeaveBasicObject((JSONObject)record);
+	}
+}
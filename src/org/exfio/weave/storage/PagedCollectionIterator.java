@@ -0,0 +1,100 @@
+package org.exfio.weave.storage;
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.client.PreconditionFailedException;
+
+/**
+ * PagedCollectionIterator
+ *
+ * Lazily walks a collection one page at a time following the next offset token returned by the server.
+ * As soon as a page is received the following page is requested in the background, so the network
+ * round trip overlaps with the caller decoding and decrypting the current page. At most two pages
+ * are held in memory.
+ *
+ * Pages after the first are conditional on the first page's X-Last-Modified value, hence records from
+ * different versions of the collection are never mixed. If the collection is modified part way through
+ * the iterator fails with a WeaveException caused by PreconditionFailedException, and the caller should
+ * start again.
+ *
+ */
+public class PagedCollectionIterator extends WeaveCollectionIterator {
+
+	private StorageContext storage;
+	private ExecutorService executor;
+	private URI location;
+	private int pageSize;
+	private String format;
+	private String lastModified;
+
+	private Iterator<WeaveBasicObject> page    = null;
+	private Future<WeaveCollectionPage> prefetch = null;
+
+	public PagedCollectionIterator(StorageContext storage, ExecutorService executor, URI location, int pageSize, String format, WeaveCollectionPage firstPage) {
+		super();
+		this.storage      = storage;
+		this.executor     = executor;
+		this.location     = location;
+		this.pageSize     = pageSize;
+		this.format       = format;
+		this.lastModified = firstPage.getLastModified();
+		setPage(firstPage);
+	}
+
+	private void setPage(WeaveCollectionPage current) {
+		page = current.getRecords().iterator();
+
+		if ( current.isLastPage() ) {
+			prefetch = null;
+		} else {
+			final String offset = current.getNextOffset();
+			prefetch = executor.submit(new Callable<WeaveCollectionPage>() {
+				public WeaveCollectionPage call() throws Exception {
+					return storage.getCollectionPage(location, pageSize, offset, format, lastModified);
+				}
+			});
+		}
+	}
+
+	@Override
+	protected WeaveBasicObject readNext() throws WeaveException {
+		while ( !page.hasNext() ) {
+			if ( prefetch == null ) {
+				return null;
+			}
+			setPage(waitForPage(prefetch));
+		}
+		return page.next();
+	}
+
+	private static WeaveCollectionPage waitForPage(Future<WeaveCollectionPage> future) throws WeaveException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new WeaveException(e);
+		} catch (ExecutionException e) {
+			if ( e.getCause() instanceof WeaveException ) {
+				throw (WeaveException)e.getCause();
+			} else if ( e.getCause() instanceof PreconditionFailedException ) {
+				throw new WeaveException("Collection modified during paged fetch", e.getCause());
+			}
+			throw new WeaveException(e.getCause());
+		}
+	}
+
+	@Override
+	public void close() {
+		if ( prefetch != null ) {
+			prefetch.cancel(true);
+			prefetch = null;
+		}
+		super.close();
+	}
+}
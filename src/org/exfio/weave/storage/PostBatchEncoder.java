@@ -0,0 +1,83 @@
+package org.exfio.weave.storage;
+
+import org.exfio.weave.Constants;
+import org.exfio.weave.util.Log;
+
+/**
+ * PostBatchEncoder
+ *
+ * Incrementally packs encoded records into JSON array request bodies of at most maxRecords records
+ * and maxBytes bytes.
+ *
+ */
+public class PostBatchEncoder {
+
+	private int maxRecords;
+	private int maxBytes;
+
+	private StringBuilder batch = new StringBuilder();
+	private int batchRecords    = 0;
+	private int batchBytes      = 0;
+
+	public PostBatchEncoder(int maxRecords, int maxBytes) {
+		this.maxRecords = maxRecords;
+		this.maxBytes   = maxBytes;
+	}
+
+	/**
+	 * add()
+	 *
+	 * Add encoded record to current batch. Records too large to be sent on their own are added to
+	 * failures in result.
+	 *
+	 * @return completed batch if record did not fit in current batch, otherwise null
+	 */
+	public String add(String id, String record, WeavePostResult result) {
+		int recordBytes = record.getBytes(Constants.UTF8).length;
+
+		//Allow for array delimiters
+		if ( recordBytes + 2 > maxBytes ) {
+			Log.warnf("Record '%s' size %d exceeds max post bytes %d", id, recordBytes, maxBytes);
+			result.addFailure(id, "record exceeds max post bytes");
+			return null;
+		}
+
+		String completed = null;
+		if ( batchRecords > 0 && ( batchRecords >= maxRecords || batchBytes + recordBytes + 1 > maxBytes ) ) {
+			completed = flush();
+		}
+
+		if ( batchRecords == 0 ) {
+			batch.append("[");
+			batchBytes = 2;
+		} else {
+			batch.append(",");
+			batchBytes += 1;
+		}
+		batch.append(record);
+		batchBytes += recordBytes;
+		batchRecords++;
+
+		return completed;
+	}
+
+	/**
+	 * flush()
+	 *
+	 * @return current batch or null if empty
+	 */
+	public String flush() {
+		if ( batchRecords == 0 ) {
+			return null;
+		}
+		String completed = batch.append("]").toString();
+		batch.setLength(0);
+		batchRecords = 0;
+		batchBytes   = 0;
+		return completed;
+	}
+
+	public boolean isEmpty() {
+		return batchRecords == 0;
+	}
+}
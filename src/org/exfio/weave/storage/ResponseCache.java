@@ -0,0 +1,79 @@
+package org.exfio.weave.storage;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * ResponseCache
+ *
+ * In-process cache of decoded storage responses keyed by URI. Each entry records the X-Last-Modified
+ * value returned by the server so that it can be revalidated with a conditional request. When the
+ * server responds 304 Not Modified the cached value is returned without transferring or parsing
+ * the response again.
+ *
+ * A hit is a successful revalidation. A miss is a lookup with no usable entry, or an entry that failed
+ * revalidation, hence each cacheable request counts as one or the other.
+ *
+ */
+public class ResponseCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 128;
+
+	public static class CachedResponse {
+		@Getter private String lastModified;
+		@Getter private Object value;
+
+		public CachedResponse(String lastModified, Object value) {
+			this.lastModified = lastModified;
+			this.value        = value;
+		}
+	}
+
+	private Map<String, CachedResponse> entries;
+
+	@Getter private long hits   = 0;
+	@Getter private long misses = 0;
+
+	public ResponseCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	public ResponseCache(final int maxEntries) {
+		//Access ordered map provides LRU eviction
+		entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+			private static final long serialVersionUID = 4172829071650923316L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	public synchronized CachedResponse get(URI location) {
+		return entries.get(location.toString());
+	}
+
+	public synchronized void put(URI location, String lastModified, Object value) {
+		entries.put(location.toString(), new CachedResponse(lastModified, value));
+	}
+
+	public synchronized void invalidate(URI location) {
+		entries.remove(location.toString());
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	protected synchronized void recordHit() {
+		hits++;
+	}
+
+	protected synchronized void recordMiss() {
+		misses++;
+	}
+}
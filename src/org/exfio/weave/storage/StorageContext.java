@@ -13,16 +13,30 @@ package org.exfio.weave.storage;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URLEncoder;
 import java.security.GeneralSecurityException;
-import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import lombok.Getter;
+import lombok.Setter;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
@@ -30,18 +44,25 @@ import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
+import org.exfio.weave.Constants;
 import org.exfio.weave.WeaveException;
+import org.exfio.weave.net.CompressionStats;
 import org.exfio.weave.net.HttpClient;
 import org.exfio.weave.net.HttpException;
 import org.exfio.weave.util.Base64;
 import org.exfio.weave.util.JSONUtils;
 import org.exfio.weave.util.Log;
+import org.exfio.weave.util.RandomSource;
 import org.exfio.weave.util.URIUtils;
+import org.exfio.weave.util.WeaveFuture;
 import org.exfio.weave.client.PreconditionFailedException;
 import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
 import org.json.simple.JSONArray;
@@ -51,9 +72,51 @@ import org.json.simple.parser.ParseException;
 
 public abstract class StorageContext {
 	
+	public static final String FORMAT_JSON               = "json";
+	public static final String FORMAT_NEWLINES           = "newlines";
+	public static final String DEFAULT_COLLECTION_FORMAT = FORMAT_NEWLINES;
+
+	public static final String MEDIA_TYPE_JSON           = "application/json";
+	public static final String MEDIA_TYPE_NEWLINES       = "application/newlines";
+
+	public static final String HEADER_NEXT_OFFSET        = "X-Weave-Next-Offset";
+	public static final String HEADER_LAST_MODIFIED      = "X-Last-Modified";
+	public static final String HEADER_IF_MODIFIED_SINCE  = "X-If-Modified-Since";
+	public static final String HEADER_IF_UNMODIFIED_SINCE = "X-If-Unmodified-Since";
+
+	public static final int DEFAULT_MAX_CACHED_RECORDS   = 1000;
+
+	public static final int DEFAULT_MAX_POST_RECORDS     = 100;
+	public static final int DEFAULT_MAX_POST_BYTES       = 1024 * 1024;
+
+	//Servers commonly cap ids at 100 per request, keep encoded list well below typical URL limits
+	public static final int DEFAULT_MAX_IDS_PER_REQUEST  = 100;
+	public static final int DEFAULT_MAX_IDS_LENGTH       = 4096;
+	public static final int DEFAULT_MAX_PARALLEL_REQUESTS = 4;
+
+	//Paged fetches are restarted if the collection is modified part way through
+	public static final int MAX_PAGED_ATTEMPTS = 3;
+	
 	protected HttpClient httpClient = null;
 	protected ApiVersion version    = null;
 	protected URI storageURL;
+
+	@Getter @Setter protected int maxPostRecords = DEFAULT_MAX_POST_RECORDS;
+	@Getter @Setter protected int maxPostBytes   = DEFAULT_MAX_POST_BYTES;
+
+	@Getter @Setter protected int maxIdsPerRequest    = DEFAULT_MAX_IDS_PER_REQUEST;
+	@Getter @Setter protected int maxIdsLength        = DEFAULT_MAX_IDS_LENGTH;
+	@Getter @Setter protected int maxParallelRequests = DEFAULT_MAX_PARALLEL_REQUESTS;
+
+	//Gzip bulk uploads, not sent once server has responded 415 Unsupported Media Type
+	@Getter @Setter protected boolean compressRequests = false;
+	private final AtomicBoolean compressionRejected    = new AtomicBoolean(false);
+
+	//Set responseCache to null to disable conditional requests
+	@Getter @Setter protected ResponseCache responseCache = new ResponseCache();
+	@Getter @Setter protected int maxCachedRecords        = DEFAULT_MAX_CACHED_RECORDS;
+	
+	private ExecutorService executor = null;
 	
 	public StorageContext() throws WeaveException {
 		httpClient = new HttpClient();
@@ -64,10 +127,27 @@ public abstract class StorageContext {
 	public ApiVersion getApiVersion() {
 		return this.version;
 	}
+
+	/**
+	 * isBackingOff()
+	 * 
+	 * Whether the storage node has asked clients to back off. Schedulers should defer syncs
+	 * until getBackoffUntil() rather than start a sync that is likely to fail part way through.
+	 */
+	public boolean isBackingOff() {
+		return storageURL != null && httpClient.isBackingOff(storageURL.getHost());
+	}
+
+	public long getBackoffUntil() {
+		return storageURL == null ? 0 : httpClient.getBackoffUntil(storageURL.getHost());
+	}
+
+	public CompressionStats getCompressionStats() {
+		return httpClient.getCompressionStats();
+	}
 	
 	public String generateWeaveID() {
-		SecureRandom rnd = new SecureRandom();
-		byte[] weaveID = rnd.generateSeed(9);
+		byte[] weaveID = RandomSource.nextBytes(9);
 		return Base64.encodeToString(weaveID, Base64.NO_PADDING | Base64.NO_WRAP | Base64.URL_SAFE);
 	}
 			
@@ -76,7 +156,7 @@ public abstract class StorageContext {
 	public Map<String, WeaveCollectionInfo> getInfoCollections(boolean getcount, boolean getusage) throws WeaveException {
 		Log.getInstance().debug( "getInfoCollections()");
 		
-		Map<String, WeaveCollectionInfo> wcols = new HashMap<String, WeaveCollectionInfo>();
+		Map<String, WeaveCollectionInfo> wcols = null;
 		URI location = null;
 		JSONObject jsonObject = null;
 		
@@ -87,15 +167,8 @@ public abstract class StorageContext {
 		} catch (NotFoundException e) {
 			throw new WeaveException("info/collections record not found - " + e.getMessage());
 		}
-			
-		@SuppressWarnings("unchecked")
-		Iterator<String> itCol = jsonObject.keySet().iterator();
-		while ( itCol.hasNext() ) {
-			String collection = itCol.next();
-			WeaveCollectionInfo wcolInfo = new WeaveCollectionInfo(collection);
-			wcolInfo.modified = JSONUtils.toDouble(jsonObject.get(collection));
-			wcols.put(collection, wcolInfo);
-		}
+		
+		wcols = parseInfoCollections(jsonObject);
 
 		//Optionally get info/collection_counts
 		if ( getcount ) {
@@ -144,6 +217,21 @@ public abstract class StorageContext {
 		return wcols;
 	}
 	
+	private static Map<String, WeaveCollectionInfo> parseInfoCollections(JSONObject jsonObject) {
+		Map<String, WeaveCollectionInfo> wcols = new HashMap<String, WeaveCollectionInfo>();
+		
+		@SuppressWarnings("unchecked")
+		Iterator<String> itCol = jsonObject.keySet().iterator();
+		while ( itCol.hasNext() ) {
+			String collection = itCol.next();
+			WeaveCollectionInfo wcolInfo = new WeaveCollectionInfo(collection);
+			wcolInfo.modified = JSONUtils.toDouble(jsonObject.get(collection));
+			wcols.put(collection, wcolInfo);
+		}
+		
+		return wcols;
+	}
+	
 	public WeaveBasicObject get(String collection, String id) throws WeaveException, NotFoundException {
 		URI location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s/%s", collection, id)));			
 		return this.get(location);
@@ -156,11 +244,15 @@ public abstract class StorageContext {
 
 	public WeaveBasicObject get(URI location) throws WeaveException, NotFoundException {
 		Log.getInstance().debug( "get()");
-		Log.getInstance().debug("StorageURL: " + this.storageURL.toString());
+		Log.debugf("StorageURL: %s", this.storageURL);
 
 		JSONObject jsonObject = getJSONPayload(location);
 
 		//parse request content to extract JSONUtils encoded WeaveBasicObject
+		return decodeWeaveBasicObject(jsonObject);
+	}
+
+	protected static WeaveBasicObject decodeWeaveBasicObject(JSONObject jsonObject) throws WeaveException {
 		try {
 			String id         = (String)jsonObject.get("id");
 			Double modified   = JSONUtils.toDouble(jsonObject.get("modified"));
@@ -168,7 +260,18 @@ public abstract class StorageContext {
 			String payload    = (String)jsonObject.get("payload");
 			Long ttl          = (Long)jsonObject.get("ttl");
 			
-			return new WeaveBasicObject(id, modified, sortindex, ttl, payload);
+			WeaveBasicObject wbo = new WeaveBasicObject(id, modified, sortindex, ttl, payload);
+			
+			//Extract encrypted envelope while decoding so that payload is only parsed once
+			if ( payload != null ) {
+				try {
+					wbo.getEncryptedPayload();
+				} catch (ParseException e) {
+					Log.debugf("Payload of WBO '%s' is not JSON", id);
+				}
+			}
+			
+			return wbo;
 			
 		} catch (ClassCastException e) {
 			throw new WeaveException(e);
@@ -188,8 +291,17 @@ public abstract class StorageContext {
 		HttpGet get = new HttpGet(location);
 		CloseableHttpResponse response = null;
 
+		ResponseCache.CachedResponse cached = getCacheEntry(location, JSONObject.class);
+		if ( cached != null ) {
+			get.addHeader(HEADER_IF_MODIFIED_SINCE, cached.getLastModified());
+		}
+
 		try {
 			response = httpClient.execute(get);
+			if ( cached != null && isNotModified(response) ) {
+				Log.debugf("%s not modified since %s", location, cached.getLastModified());
+				return (JSONObject)cached.getValue();
+			}
 			checkResponse(response);
 			
 			//parse request content to extract JSONUtils encoded WeaveBasicObject
@@ -203,6 +315,8 @@ public abstract class StorageContext {
 				jsonObject = (JSONObject)parser.parse(br);
 			}
 
+			putCacheEntry(location, response, jsonObject);
+
 		} catch (IOException e) {
 			throw new WeaveException(e);
 		} catch (NotFoundException e) {
@@ -229,13 +343,7 @@ public abstract class StorageContext {
 		List<NameValuePair> params = new LinkedList<NameValuePair>();
 		
 		if ( ids != null && ids.length > 0 ) {
-			String value = "";
-			String delim = "";
-			for (int i = 0; i < ids.length; i++) {
-				value = value + delim + ids[i];
-				delim = ",";
-			}
-			params.add(new BasicNameValuePair("ids", value));
+			params.add(new BasicNameValuePair("ids", StringUtils.join(ids, ",")));
 		}
 		if (older != null) {
 			params.add(new BasicNameValuePair("older", String.format("%.2f", older.doubleValue())));
@@ -264,8 +372,8 @@ public abstract class StorageContext {
 			}
 		}
 		if (format != null) {
-			//Only default format supported
-			throw new WeaveException(String.format("getCollection() format parameter value of '%s' not supported", format));
+			//Format is negotiated via Accept header, see getCollectionIterator()
+			formatToMediaType(format);
 		}
 		if ( full ) {
 			//returns entire WBO
@@ -288,6 +396,44 @@ public abstract class StorageContext {
 		return location;
 	}
 
+	/**
+	 * chunkIds()
+	 * 
+	 * Split ids into chunks that fit in a single collection request, limited by both
+	 * maxIdsPerRequest and the URL encoded length of the ids parameter
+	 *
+	 */
+	public List<String[]> chunkIds(Collection<String> ids) throws WeaveException {
+		List<String[]> chunks = new ArrayList<String[]>();
+		List<String> chunk    = new ArrayList<String>();
+		int length = 0;
+		
+		for (String id: ids) {
+			int idLength = 0;
+			try {
+				//Allow for encoded comma delimiter
+				idLength = URLEncoder.encode(id, Constants.UTF8.name()).length() + 3;
+			} catch (UnsupportedEncodingException e) {
+				throw new WeaveException(e);
+			}
+			if ( idLength > maxIdsLength ) {
+				throw new WeaveException(String.format("Id '%s' exceeds max ids length", id));
+			}
+			if ( chunk.size() >= maxIdsPerRequest || length + idLength > maxIdsLength ) {
+				chunks.add(chunk.toArray(new String[chunk.size()]));
+				chunk  = new ArrayList<String>();
+				length = 0;
+			}
+			chunk.add(id);
+			length += idLength;
+		}
+		if ( !chunk.isEmpty() ) {
+			chunks.add(chunk.toArray(new String[chunk.size()]));
+		}
+		
+		return chunks;
+	}
+
 	public String[] getCollectionIds(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort) throws WeaveException, NotFoundException {
 		URI location = buildCollectionUri(collection, ids, older, newer, index_above, index_below, limit, offset, sort, null, false);
 		return getCollectionIds(location);	
@@ -318,42 +464,389 @@ public abstract class StorageContext {
 
 	public WeaveBasicObject[] getCollection(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format) throws WeaveException, NotFoundException {
 		URI location = buildCollectionUri(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format, true);
-		return getCollection(location);	
+		return getCollection(location, format);	
 	}
 		
 	public WeaveBasicObject[] getCollection(URI location) throws WeaveException, NotFoundException {
+		return getCollection(location, null);
+	}
+
+	public WeaveBasicObject[] getCollection(URI location, String format) throws WeaveException, NotFoundException {
 		Log.getInstance().debug( "getCollection()");
 		
-		List<WeaveBasicObject> listWbo = new LinkedList<WeaveBasicObject>();
+		List<WeaveBasicObject> listWbo = new ArrayList<WeaveBasicObject>();
 
-		//Get JSONUtils payload and extract JSONUtils array
-		JSONObject jsonTmp = getJSONPayload(location, true);
-		JSONArray jsonArray = (JSONArray)jsonTmp.get(null);
+		ResponseCache.CachedResponse cached = getCacheEntry(location, WeaveBasicObject[].class);
+		CloseableHttpResponse response = executeCollectionRequest(location, format, ( cached == null ? null : cached.getLastModified() ));
+		if ( cached != null && isNotModified(response) ) {
+			closeResponse(response);
+			Log.debugf("%s not modified since %s", location, cached.getLastModified());
 
-		//Iterate through jsonArray and build WBOs
+			//Callers may replace elements, i.e. with decrypted WBOs, so return a copy
+			WeaveBasicObject[] colWbo = (WeaveBasicObject[])cached.getValue();
+			return Arrays.copyOf(colWbo, colWbo.length);
+		}
+
+		//Build WBOs as they are parsed rather than buffering the entire JSON array
+		WeaveCollectionIterator iterator = newCollectionIterator(response);
 		try {
-			@SuppressWarnings("unchecked")
-			Iterator<JSONObject> iterator = jsonArray.iterator();
 			while ( iterator.hasNext() ) {
-				JSONObject jsonObject = (JSONObject)iterator.next();
-				
-				String id         = (String)jsonObject.get("id");
-				Double modified   = JSONUtils.toDouble(jsonObject.get("modified"));
-				Long sortindex    = (Long)jsonObject.get("sortindex");
-				String payload    = (String)jsonObject.get("payload");
-				Long ttl          = (Long)jsonObject.get("ttl");
-				
-				listWbo.add(new WeaveBasicObject(id, modified, sortindex, ttl, payload));
-			}	
-		} catch (ClassCastException e) {
+				listWbo.add(iterator.next());
+			}
+		} finally {
+			iterator.close();
+		}
+		
+		WeaveBasicObject[] colWbo = listWbo.toArray(new WeaveBasicObject[listWbo.size()]);
+		if ( colWbo.length <= maxCachedRecords ) {
+			putCacheEntry(location, response, Arrays.copyOf(colWbo, colWbo.length));
+		}
+		
+		return colWbo;
+	}
+
+	public WeaveCollectionIterator getCollectionIterator(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format) throws WeaveException, NotFoundException {
+		URI location = buildCollectionUri(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format, true);
+		return getCollectionIterator(location, format);
+	}
+
+	public WeaveCollectionIterator getCollectionIterator(URI location) throws WeaveException, NotFoundException {
+		return getCollectionIterator(location, null);
+	}
+
+	/**
+	 * getCollectionIterator()
+	 * 
+	 * Stream collection, parsing each WBO as it is read from the response entity.
+	 * The iterator holds the connection open until it is exhausted or closed.
+	 * 
+	 * If format is null the newlines format is requested, however the response is
+	 * decoded according to its Content-Type in case the server ignores the Accept header.
+	 *
+	 */
+	public WeaveCollectionIterator getCollectionIterator(URI location, String format) throws WeaveException, NotFoundException {
+		Log.getInstance().debug( "getCollectionIterator()");
+		
+		CloseableHttpResponse response = executeCollectionRequest(location, format, null);
+		return newCollectionIterator(response);
+	}
+
+	/**
+	 * getCollectionPaged()
+	 * 
+	 * Lazily fetch collection in pages of pageSize records, following the next offset token
+	 * returned by the server. The next page is prefetched while the current page is consumed.
+	 *
+	 */
+	public WeaveCollectionIterator getCollectionPaged(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, String sort, String format, int pageSize) throws WeaveException, NotFoundException {
+		URI location = buildCollectionUri(collection, ids, older, newer, index_above, index_below, null, null, sort, format, true);
+		return getCollectionPaged(location, format, pageSize);
+	}
+
+	public WeaveCollectionIterator getCollectionPaged(URI location, String format, int pageSize) throws WeaveException, NotFoundException {
+		Log.getInstance().debug( "getCollectionPaged()");
+		
+		if ( pageSize <= 0 ) {
+			throw new WeaveException(String.format("Invalid page size %d", pageSize));
+		}
+		
+		//Fetch first page synchronously so that errors, i.e. NotFoundException, are reported to the caller
+		WeaveCollectionPage firstPage = getCollectionPage(location, pageSize, null, format);
+		return new PagedCollectionIterator(this, getExecutor(), location, pageSize, format, firstPage);
+	}
+
+	public WeaveCollectionPage getCollectionPage(URI location, Integer limit, String offset, String format) throws WeaveException, NotFoundException {
+		try {
+			return getCollectionPage(location, limit, offset, format, null);
+		} catch (PreconditionFailedException e) {
+			//Not conditional
+			throw new WeaveException(e);
+		}
+	}
+
+	/**
+	 * getCollectionPage()
+	 * 
+	 * Fetch page of collection. If ifUnmodifiedSince is given, i.e. the X-Last-Modified value of the first
+	 * page, the request fails with PreconditionFailedException if the collection has since been modified.
+	 *
+	 */
+	public WeaveCollectionPage getCollectionPage(URI location, Integer limit, String offset, String format, String ifUnmodifiedSince) throws WeaveException, NotFoundException, PreconditionFailedException {
+		Log.getInstance().debug( "getCollectionPage()");
+		
+		List<WeaveBasicObject> listWbo = new ArrayList<WeaveBasicObject>();
+
+		CloseableHttpResponse response = executeCollectionRequest(buildPageUri(location, limit, offset), format, null, ifUnmodifiedSince);
+		WeaveCollectionIterator iterator = newCollectionIterator(response);
+		try {
+			while ( iterator.hasNext() ) {
+				listWbo.add(iterator.next());
+			}
+		} finally {
+			iterator.close();
+		}
+		
+		return new WeaveCollectionPage(listWbo, getNextOffset(response, limit, offset, listWbo.size()), getLastModified(response));
+	}
+
+	/**
+	 * getCollectionIdsPaged()
+	 * 
+	 * Fetch collection ids in pages of pageSize records, following the next offset token
+	 * returned by the server. Subsequent pages are conditional on the X-Last-Modified value of
+	 * the first page, hence if the collection is modified part way through the fetch is restarted.
+	 *
+	 */
+	public String[] getCollectionIdsPaged(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, String sort, int pageSize) throws WeaveException, NotFoundException {
+		Log.getInstance().debug( "getCollectionIdsPaged()");
+
+		if ( pageSize <= 0 ) {
+			throw new WeaveException(String.format("Invalid page size %d", pageSize));
+		}
+
+		URI location = buildCollectionUri(collection, ids, older, newer, index_above, index_below, null, null, sort, null, false);
+		
+		for (int attempt = 0; ; attempt++) {
+			try {
+				return getCollectionIdsPaged(location, pageSize);
+			} catch (PreconditionFailedException e) {
+				if ( attempt + 1 >= MAX_PAGED_ATTEMPTS ) {
+					throw new WeaveException(String.format("Collection '%s' modified during paged fetch", collection), e);
+				}
+				Log.infof("Collection '%s' modified during paged fetch, restarting", collection);
+			}
+		}
+	}
+
+	private String[] getCollectionIdsPaged(URI location, int pageSize) throws WeaveException, NotFoundException, PreconditionFailedException {
+		List<String> listIds = new ArrayList<String>();
+		String offset = null;
+		String lastModified = null;
+		
+		do {
+			HttpGet get = new HttpGet(buildPageUri(location, pageSize, offset));
+			get.addHeader("Accept", MEDIA_TYPE_JSON);
+			if ( lastModified != null ) {
+				get.addHeader(HEADER_IF_UNMODIFIED_SINCE, lastModified);
+			}
+			CloseableHttpResponse response = null;
+			
+			try {
+				response = httpClient.execute(get);
+				checkResponse(response);
+
+				JSONParser parser = new JSONParser();
+				BufferedReader br = new BufferedReader(new InputStreamReader(response.getEntity().getContent(), Constants.UTF8));
+				JSONArray jsonArray = (JSONArray)parser.parse(br);
+
+				for (Object id: jsonArray) {
+					if ( !(id instanceof String) ) {
+						throw new WeaveException(String.format("Invalid collection id '%s' expected string", id));
+					}
+					listIds.add((String)id);
+				}
+
+				if ( offset == null ) {
+					lastModified = getLastModified(response);
+				}
+				offset = getNextOffset(response, pageSize, offset, jsonArray.size());
+
+			} catch (IOException e) {
+				throw new WeaveException(e);
+			} catch (NotFoundException e) {
+				//NotFoundException extends HttpException so we need to catch and re-throw
+				throw e;
+			} catch (PreconditionFailedException e) {
+				throw e;
+			} catch (HttpException e) {
+				throw new WeaveException(e);
+			} catch (ParseException e) {  
+				throw new WeaveException(e);  
+			} catch (ClassCastException e) {
+				throw new WeaveException(e);
+			} catch (GeneralSecurityException e) {
+				throw new WeaveException(e);
+			} finally {
+				closeResponse(response);
+			}
+		} while ( offset != null );
+
+		return listIds.toArray(new String[listIds.size()]);
+	}
+
+	private CloseableHttpResponse executeCollectionRequest(URI location, String format, String ifModifiedSince) throws WeaveException, NotFoundException {
+		try {
+			return executeCollectionRequest(location, format, ifModifiedSince, null);
+		} catch (PreconditionFailedException e) {
+			//Not conditional
 			throw new WeaveException(e);
 		}
+	}
+
+	private CloseableHttpResponse executeCollectionRequest(URI location, String format, String ifModifiedSince, String ifUnmodifiedSince) throws WeaveException, NotFoundException, PreconditionFailedException {
+		if ( format == null ) {
+			format = DEFAULT_COLLECTION_FORMAT;
+		}
+
+		HttpGet get = new HttpGet(location);
+		get.addHeader("Accept", formatToMediaType(format));
+		if ( ifModifiedSince != null ) {
+			get.addHeader(HEADER_IF_MODIFIED_SINCE, ifModifiedSince);
+		}
+		if ( ifUnmodifiedSince != null ) {
+			get.addHeader(HEADER_IF_UNMODIFIED_SINCE, ifUnmodifiedSince);
+		}
+		CloseableHttpResponse response = null;
+		boolean success = false;
+
+		try {
+			response = httpClient.execute(get);
+			if ( !( ifModifiedSince != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED ) ) {
+				checkResponse(response);
+			}
+			success = true;
+		} catch (IOException e) {
+			throw new WeaveException(e);
+		} catch (NotFoundException e) {
+			//NotFoundException extends HttpException so we need to catch and re-throw
+			throw e;
+		} catch (PreconditionFailedException e) {
+			throw e;
+		} catch (HttpException e) {
+			throw new WeaveException(e);
+		} catch (GeneralSecurityException e) {
+			throw new WeaveException(e);
+		} finally {
+			if ( !success ) {
+				closeResponse(response);
+			}
+		}
+		
+		return response;
+	}
+
+	private static WeaveCollectionIterator newCollectionIterator(HttpResponse response) throws WeaveException {
+		//Response is owned by iterator once created
+		if ( isMediaType(response, MEDIA_TYPE_NEWLINES) ) {
+			return new NewlinesCollectionIterator(response);
+		} else {
+			return new JSONArrayCollectionIterator(response);
+		}
+	}
+
+	private ResponseCache.CachedResponse getCacheEntry(URI location, Class<?> type) {
+		if ( responseCache == null ) {
+			return null;
+		}
+		ResponseCache.CachedResponse cached = responseCache.get(location);
+		if ( cached == null || !type.isInstance(cached.getValue()) ) {
+			responseCache.recordMiss();
+			return null;
+		}
+		return cached;
+	}
+
+	private void putCacheEntry(URI location, HttpResponse response, Object value) {
+		if ( responseCache == null ) {
+			return;
+		}
 		
-		return listWbo.toArray(new WeaveBasicObject[0]);
+		//Only responses with a last modified time can be revalidated
+		Header header = response.getFirstHeader(HEADER_LAST_MODIFIED);
+		if ( header != null ) {
+			responseCache.put(location, header.getValue(), value);
+		} else {
+			responseCache.invalidate(location);
+		}
+	}
+
+	private boolean isNotModified(HttpResponse response) {
+		boolean notModified = ( response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED );
+		if ( responseCache != null ) {
+			//Cached entry has been revalidated or found to be stale
+			if ( notModified ) {
+				responseCache.recordHit();
+			} else {
+				responseCache.recordMiss();
+			}
+		}
+		return notModified;
+	}
+
+	private static URI buildPageUri(URI location, Integer limit, String offset) throws WeaveException {
+		if ( limit == null && offset == null ) {
+			return location;
+		}
+		try {
+			URIBuilder uri = new URIBuilder(location);
+			if ( limit != null ) {
+				uri.setParameter("limit", limit.toString());
+			}
+			if ( offset != null ) {
+				uri.setParameter("offset", offset);
+			}
+			return new URI(uri.toString());
+		} catch (URISyntaxException e) {
+			throw new WeaveException(e);
+		}
+	}
+
+	private static String getLastModified(HttpResponse response) {
+		Header header = response.getFirstHeader(HEADER_LAST_MODIFIED);
+		return header == null ? null : header.getValue();
+	}
+
+	private String getNextOffset(HttpResponse response, Integer limit, String offset, int count) throws WeaveException {
+		Header header = response.getFirstHeader(HEADER_NEXT_OFFSET);
+		if ( header != null ) {
+			return header.getValue();
+		}
+
+		//Storage API v1.1 does not return next offset token hence fall back to numeric offset
+		if ( version == ApiVersion.v1_1 && limit != null && count >= limit ) {
+			try {
+				int current = ( offset == null ? 0 : Integer.parseInt(offset) );
+				return Integer.toString(current + count);
+			} catch (NumberFormatException e) {
+				throw new WeaveException(String.format("Invalid offset '%s'", offset));
+			}
+		}
+		
+		return null;
+	}
+
+	public synchronized ExecutorService getExecutor() {
+		if ( executor == null ) {
+			BasicThreadFactory factory = new BasicThreadFactory.Builder()
+		    	.namingPattern("weaveclient-storage-%d")
+		    	.daemon(true)
+		    	.build();
+			executor = Executors.newCachedThreadPool(factory);
+		}
+		return executor;
+	}
+
+	private static String formatToMediaType(String format) throws WeaveException {
+		format = format.toLowerCase();
+		if ( format.equals(FORMAT_JSON) ) {
+			return MEDIA_TYPE_JSON;
+		} else if ( format.equals(FORMAT_NEWLINES) ) {
+			return MEDIA_TYPE_NEWLINES;
+		} else {
+			throw new WeaveException(String.format("getCollection() format parameter value of '%s' not supported", format));
+		}
+	}
+
+	private static boolean isMediaType(HttpResponse response, String mediaType) {
+		if ( response.getEntity() == null || response.getEntity().getContentType() == null ) {
+			return false;
+		}
+		String contentType = response.getEntity().getContentType().getValue();
+		return contentType != null && contentType.toLowerCase().startsWith(mediaType);
 	}
 
 	@SuppressWarnings("unchecked")
-	private String encodeWeaveBasicObject(WeaveBasicObject wbo) {
+	protected String encodeWeaveBasicObject(WeaveBasicObject wbo) {
 		JSONObject jobj = new JSONObject();
 		
 		jobj.put("id", wbo.id);
@@ -371,6 +864,14 @@ public abstract class StorageContext {
 		return jobj.toJSONString();
 	}
 
+	private StringEntity createWeaveBasicObjectEntity(WeaveBasicObject wbo) throws IOException {
+		//Backwards compatible with android version of org.apache.http
+		StringEntity entityPut = new StringEntity(encodeWeaveBasicObject(wbo));
+		entityPut.setContentType("text/plain");
+		entityPut.setContentEncoding("UTF-8");
+		return entityPut;
+	}
+
 	private Double parseModifiedResponse(String response) throws WeaveException {
 		
 		//Assume that modified response is JSON encoded
@@ -401,6 +902,24 @@ public abstract class StorageContext {
 	}
 
 	public Double put(URI location, WeaveBasicObject wbo) throws WeaveException {
+		try {
+			return put(location, createWeaveBasicObjectEntity(wbo));
+		} catch (IOException e) {
+			throw new WeaveException(e);
+		}
+	}
+
+	public Double put(String collection, String id, HttpEntity entity) throws WeaveException {
+		URI location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s/%s", collection, id)));
+		return put(location, entity);
+	}
+
+	/**
+	 * put()
+	 * 
+	 * Upload pre-encoded WBO, e.g. EncryptingEntity which encodes WBO as it is sent
+	 */
+	public Double put(URI location, HttpEntity entity) throws WeaveException {
 		Log.getInstance().debug("put()");
 
 		Double modified = null;
@@ -409,12 +928,7 @@ public abstract class StorageContext {
 		CloseableHttpResponse response = null;
 
 		try {
-			//Backwards compatible with android version of org.apache.http
-			StringEntity entityPut = new StringEntity(encodeWeaveBasicObject(wbo));
-			entityPut.setContentType("text/plain");
-			entityPut.setContentEncoding("UTF-8");
-			
-			put.setEntity(entityPut);
+			put.setEntity(entity);
 
 			response = httpClient.execute(put);
 			checkResponse(response);
@@ -435,6 +949,189 @@ public abstract class StorageContext {
 		return modified;
 	}
 
+	/**
+	 * postCollection()
+	 * 
+	 * Upload records to collection in as few requests as possible. Records are split into
+	 * batches that respect the server's maximum record count and size per request.
+	 * Records that could not be stored are reported per id in the result.
+	 *
+	 */
+	public WeavePostResult postCollection(String collection, List<WeaveBasicObject> wbos) throws WeaveException {
+		URI location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s", collection)));
+		return postCollection(location, wbos);
+	}
+
+	public WeavePostResult postCollection(URI location, List<WeaveBasicObject> wbos) throws WeaveException {
+		Log.getInstance().debug("postCollection()");
+
+		WeavePostResult result = new WeavePostResult();
+		
+		List<String> batches = encodeBatches(wbos, result);
+		for (String batch: batches) {
+			result.merge(post(location, batch));
+		}
+		
+		return result;
+	}
+
+	/**
+	 * postCollection()
+	 * 
+	 * Upload records only if collection has not been modified since ifUnmodifiedSince. Each request
+	 * is conditional on the modified time returned by the previous one, hence if a conflict is
+	 * detected part way through records sent in earlier requests have already been stored.
+	 *
+	 */
+	public WeavePostResult postCollection(String collection, List<WeaveBasicObject> wbos, Double ifUnmodifiedSince) throws WeaveException, PreconditionFailedException {
+		Log.getInstance().debug("postCollection()");
+
+		URI location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s", collection)));
+
+		WeavePostResult result = new WeavePostResult();
+		
+		List<String> batches = encodeBatches(wbos, result);
+		for (String batch: batches) {
+			WeavePostResult batchResult = post(location, batch, ifUnmodifiedSince);
+			if ( ifUnmodifiedSince != null && batchResult.getModified() != null ) {
+				ifUnmodifiedSince = batchResult.getModified();
+			}
+			result.merge(batchResult);
+		}
+		
+		return result;
+	}
+
+	/**
+	 * loadLimits()
+	 * 
+	 * Hook for storage versions that can discover upload limits from the server
+	 *
+	 */
+	protected void loadLimits() throws WeaveException {
+		//Use defaults
+	}
+
+	/**
+	 * encodeBatches()
+	 * 
+	 * Encode records as JSON arrays no larger than maxPostRecords and maxPostBytes.
+	 * Records too large to be sent on their own are added to failures in result.
+	 *
+	 */
+	protected List<String> encodeBatches(List<WeaveBasicObject> wbos, WeavePostResult result) throws WeaveException {
+		loadLimits();
+		
+		List<String> batches    = new ArrayList<String>();
+		PostBatchEncoder encoder = new PostBatchEncoder(maxPostRecords, maxPostBytes);
+		
+		for (WeaveBasicObject wbo: wbos) {
+			String batch = encoder.add(wbo.getId(), encodeWeaveBasicObject(wbo), result);
+			if ( batch != null ) {
+				batches.add(batch);
+			}
+		}
+		
+		if ( !encoder.isEmpty() ) {
+			batches.add(encoder.flush());
+		}
+		
+		return batches;
+	}
+
+	protected WeavePostResult post(URI location, String body) throws WeaveException {
+		try {
+			return post(location, body, null);
+		} catch (PreconditionFailedException e) {
+			//Not conditional
+			throw new WeaveException(e);
+		}
+	}
+
+	protected WeavePostResult post(URI location, String body, Double ifUnmodifiedSince) throws WeaveException, PreconditionFailedException {
+		Log.getInstance().debug("post()");
+
+		HttpPost post = new HttpPost(location);
+		CloseableHttpResponse response = null;
+
+		if ( ifUnmodifiedSince != null ) {
+			post.addHeader(HEADER_IF_UNMODIFIED_SINCE, String.format("%.2f", ifUnmodifiedSince.doubleValue()));
+		}
+
+		try {
+			post.setEntity(httpClient.createEntity(body, MEDIA_TYPE_JSON, compressRequests && !compressionRejected.get()));
+
+			response = httpClient.execute(post);
+			
+			if ( response.getStatusLine().getStatusCode() == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE && post.getEntity().getContentEncoding() != null ) {
+				//Server does not accept compressed requests
+				if ( compressionRejected.compareAndSet(false, true) ) {
+					Log.getInstance().warn("Compressed request rejected, disabling request compression");
+				}
+				closeResponse(response);
+				
+				post.setEntity(httpClient.createEntity(body, MEDIA_TYPE_JSON, false));
+				response = httpClient.execute(post);
+			}
+			checkResponse(response);
+
+			return parsePostResponse(EntityUtils.toString(response.getEntity(), Constants.UTF8));
+
+		} catch (IOException e) {
+			throw new WeaveException(e);
+		} catch (PreconditionFailedException e) {
+			//PreconditionFailedException extends HttpException so we need to catch and re-throw
+			throw e;
+		} catch (HttpException e) {
+			throw new WeaveException(e);
+		} catch (GeneralSecurityException e) {
+			throw new WeaveException(e);
+		} finally {
+			closeResponse(response);
+		} 
+	}
+
+	private static WeavePostResult parsePostResponse(String response) throws WeaveException {
+		WeavePostResult result = new WeavePostResult();
+		
+		try {
+			JSONParser parser = new JSONParser();
+			JSONObject jsonObject = (JSONObject)parser.parse(response);
+			
+			if ( jsonObject.containsKey("modified") ) {
+				result.modified = JSONUtils.toDouble(jsonObject.get("modified"));
+			}
+			if ( jsonObject.containsKey("batch") ) {
+				result.batch = String.valueOf(jsonObject.get("batch"));
+			}
+			
+			JSONArray success = (JSONArray)jsonObject.get("success");
+			if ( success != null ) {
+				for (Object id: success) {
+					result.addSuccess(String.valueOf(id));
+				}
+			}
+			
+			JSONObject failed = (JSONObject)jsonObject.get("failed");
+			if ( failed != null ) {
+				for (Object id: failed.keySet()) {
+					Object reason = failed.get(id);
+					if ( reason instanceof JSONArray ) {
+						result.addFailure(String.valueOf(id), StringUtils.join((JSONArray)reason, "; "));
+					} else {
+						result.addFailure(String.valueOf(id), String.valueOf(reason));
+					}
+				}
+			}
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		} catch (ClassCastException e) {
+			throw new WeaveException(e);
+		}
+		
+		return result;
+	}
+
 	public Double delete(String collection, String id) throws WeaveException {
 		URI location = null;
 		if (id == null) {
@@ -483,6 +1180,165 @@ public abstract class StorageContext {
 		return delete(location);
 	}
 
+	//-------------------------------------------
+	// Asynchronous storage API
+	//-------------------------------------------
+
+	/**
+	 * getInfoCollectionsAsync()
+	 * 
+	 * Asynchronous variants of the storage API use the non-blocking client shared by the
+	 * connection pool, hence a small number of threads can drive many concurrent requests.
+	 * Responses are decoded on the I/O dispatch thread, chain CPU bound work with an executor.
+	 *
+	 */
+	public WeaveFuture<Map<String, WeaveCollectionInfo>> getInfoCollectionsAsync() {
+		Log.getInstance().debug( "getInfoCollectionsAsync()");
+		
+		URI location = this.storageURL.resolve("info/collections");
+		return executeAsync(new HttpGet(location), new WeaveFuture.Transform<HttpResponse, Map<String, WeaveCollectionInfo>>() {
+			public Map<String, WeaveCollectionInfo> apply(HttpResponse response) throws Exception {
+				return parseInfoCollections(parseJSONObject(response));
+			}
+		});
+	}
+
+	public WeaveFuture<WeaveBasicObject> getAsync(String collection, String id) {
+		URI location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s/%s", collection, id)));
+		return getAsync(location);
+	}
+
+	public WeaveFuture<WeaveBasicObject> getAsync(URI location) {
+		Log.getInstance().debug( "getAsync()");
+
+		return executeAsync(new HttpGet(location), new WeaveFuture.Transform<HttpResponse, WeaveBasicObject>() {
+			public WeaveBasicObject apply(HttpResponse response) throws Exception {
+				return decodeWeaveBasicObject(parseJSONObject(response));
+			}
+		});
+	}
+
+	public WeaveFuture<WeaveBasicObject[]> getCollectionAsync(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format) {
+		try {
+			URI location = buildCollectionUri(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format, true);
+			return getCollectionAsync(location, format);
+		} catch (WeaveException e) {
+			return WeaveFuture.failed(e);
+		}
+	}
+
+	public WeaveFuture<WeaveBasicObject[]> getCollectionAsync(URI location, String format) {
+		Log.getInstance().debug( "getCollectionAsync()");
+		
+		HttpGet get = new HttpGet(location);
+		try {
+			get.addHeader("Accept", formatToMediaType(format == null ? DEFAULT_COLLECTION_FORMAT : format));
+		} catch (WeaveException e) {
+			return WeaveFuture.failed(e);
+		}
+		
+		return executeAsync(get, new WeaveFuture.Transform<HttpResponse, WeaveBasicObject[]>() {
+			public WeaveBasicObject[] apply(HttpResponse response) throws Exception {
+				List<WeaveBasicObject> listWbo = new ArrayList<WeaveBasicObject>();
+				WeaveCollectionIterator iterator = newCollectionIterator(response);
+				try {
+					while ( iterator.hasNext() ) {
+						listWbo.add(iterator.next());
+					}
+				} finally {
+					iterator.close();
+				}
+				return listWbo.toArray(new WeaveBasicObject[listWbo.size()]);
+			}
+		});
+	}
+
+	public WeaveFuture<Double> putAsync(String collection, String id, WeaveBasicObject wbo) {
+		URI location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s/%s", collection, id)));
+		return putAsync(location, wbo);
+	}
+
+	public WeaveFuture<Double> putAsync(URI location, WeaveBasicObject wbo) {
+		Log.getInstance().debug( "putAsync()");
+		
+		HttpPut put = new HttpPut(location);
+		try {
+			put.setEntity(createWeaveBasicObjectEntity(wbo));
+		} catch (IOException e) {
+			return WeaveFuture.failed(e);
+		}
+		
+		return executeAsync(put, new WeaveFuture.Transform<HttpResponse, Double>() {
+			public Double apply(HttpResponse response) throws Exception {
+				return parseModifiedResponse(EntityUtils.toString(response.getEntity()));
+			}
+		});
+	}
+
+	public WeaveFuture<Double> deleteAsync(String collection, String id) {
+		URI location = null;
+		if (id == null) {
+			location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s", collection)));
+		} else {
+			location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s/%s", collection, id)));			
+		}
+		return deleteAsync(location);
+	}
+
+	public WeaveFuture<Double> deleteAsync(URI location) {
+		Log.getInstance().debug( "deleteAsync()");
+
+		return executeAsync(new HttpDelete(location), new WeaveFuture.Transform<HttpResponse, Double>() {
+			public Double apply(HttpResponse response) throws Exception {
+				return parseModifiedResponse(EntityUtils.toString(response.getEntity()));
+			}
+		});
+	}
+
+	protected <T> WeaveFuture<T> executeAsync(HttpUriRequest request, final WeaveFuture.Transform<HttpResponse, T> handler) {
+		final WeaveFuture<T> future = new WeaveFuture<T>();
+		
+		try {
+			httpClient.executeAsync(request, new FutureCallback<HttpResponse>() {
+				public void completed(HttpResponse response) {
+					try {
+						checkResponse(response);
+						future.complete(handler.apply(response));
+					} catch (Exception e) {
+						future.fail(e);
+					}
+				}
+				
+				public void failed(Exception e) {
+					future.fail(e);
+				}
+				
+				public void cancelled() {
+					future.cancel(false);
+				}
+			});
+		} catch (IOException e) {
+			future.fail(e);
+		} catch (GeneralSecurityException e) {
+			future.fail(e);
+		}
+		
+		return future;
+	}
+
+	private static JSONObject parseJSONObject(HttpResponse response) throws WeaveException {
+		try {
+			JSONParser parser = new JSONParser();
+			return (JSONObject)parser.parse(EntityUtils.toString(response.getEntity(), Constants.UTF8));
+		} catch (IOException e) {
+			throw new WeaveException(e);
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		} catch (ClassCastException e) {
+			throw new WeaveException(e);
+		}
+	}
+
 	private static void closeResponse(CloseableHttpResponse response) {
 		if ( response == null ) {
 			return;
@@ -492,7 +1348,7 @@ public abstract class StorageContext {
 			response.close();
 		} catch (Exception e) {
 			//fail quietly
-			Log.getInstance().error("Couldn't close HttpResponse - " + e.getMessage());
+			Log.errorf("Couldn't close HttpResponse - %s", e.getMessage());
 		}
 	}
 	
@@ -518,6 +1374,12 @@ public abstract class StorageContext {
 	}
 
 	public void close() throws IOException {
+		synchronized (this) {
+			if ( executor != null ) {
+				executor.shutdownNow();
+				executor = null;
+			}
+		}
 		httpClient.close();
 	}
 }
@@ -3,18 +3,30 @@ package org.exfio.weave.storage;
 import java.net.URI;
 import java.net.URISyntaxException;
 
-import org.mozilla.gecko.sync.net.AuthHeaderProvider;
-import org.mozilla.gecko.sync.net.HawkAuthHeaderProvider;
+import lombok.Getter;
+
+import org.json.simple.JSONObject;
 import org.exfio.weave.WeaveException;
+import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
+import org.exfio.weave.net.HawkCredentials;
 import org.exfio.weave.util.Log;
+import org.exfio.weave.util.URIUtils;
 
 public class StorageV1_5 extends StorageContext {
 
 	private String hawkid;
 	private byte[] hawkkey;
+	private boolean limitsLoaded = false;
+
+	//Servers that publish info/configuration support the batch upload API
+	@Getter protected boolean batchUploadSupported = false;
+
+	@Getter protected long maxTotalRecords = Long.MAX_VALUE;
+	@Getter protected long maxTotalBytes   = Long.MAX_VALUE;
 	
 	public StorageV1_5() throws WeaveException {
 		super();
+		version = ApiVersion.v1_5;
 		hawkid  = null;
 		hawkkey = null;
 	}
@@ -41,13 +53,14 @@ public class StorageV1_5 extends StorageContext {
 		this.storageURL = storageURL;
 		this.hawkid     = hawkid;
 		this.hawkkey    = hawkkey;
+		this.limitsLoaded = false;
+		this.batchUploadSupported = false;
 		
-		Log.getInstance().debug("Storage URL: " + this.storageURL.toString());
+		Log.debugf("Storage URL: %s", this.storageURL);
 		
 		
-		//TODO - calculate skew
-		AuthHeaderProvider provider = new HawkAuthHeaderProvider(this.hawkid, this.hawkkey, false, 0);
-		httpClient.setAuthHeaderProvider(provider);
+		//Hawk signatures are corrected for clock skew learnt from responses of this storage node
+		httpClient.setHawkCredentials(new HawkCredentials(this.hawkid, this.hawkkey));
 		
 		/*
 		//initialise pre-emptive authentication
@@ -69,4 +82,61 @@ public class StorageV1_5 extends StorageContext {
 		httpClient.setContext(context);
 		*/
 	}
+
+	/**
+	 * startBatchUpload()
+	 * 
+	 * Start atomic upload session for collection
+	 *
+	 */
+	public BatchUploadSession startBatchUpload(String collection) throws WeaveException {
+		URI location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s", collection)));
+		return new BatchUploadSession(this, location);
+	}
+
+	/**
+	 * loadLimits()
+	 * 
+	 * Read upload limits from info/configuration. Server limits only ever lower limits set by
+	 * the caller. Older servers do not publish this resource in which case the defaults are used.
+	 *
+	 */
+	@Override
+	protected void loadLimits() throws WeaveException {
+		if ( limitsLoaded ) {
+			return;
+		}
+
+		URI location = this.storageURL.resolve("info/configuration");
+		try {
+			JSONObject jsonObject = getJSONPayload(location);
+			maxPostRecords  = (int)getLimit(jsonObject, "max_post_records", maxPostRecords);
+			maxPostBytes    = (int)getLimit(jsonObject, "max_post_bytes", maxPostBytes);
+			maxTotalRecords = getLimit(jsonObject, "max_total_records", maxTotalRecords);
+			maxTotalBytes   = getLimit(jsonObject, "max_total_bytes", maxTotalBytes);
+			batchUploadSupported = true;
+			Log.debugf("max_post_records: %d, max_post_bytes: %d, max_total_records: %d, max_total_bytes: %d", maxPostRecords, maxPostBytes, maxTotalRecords, maxTotalBytes);
+		} catch (NotFoundException e) {
+			Log.getInstance().info("info/configuration not found, using default limits");
+		}
+		limitsLoaded = true;
+	}
+
+	/**
+	 * getLimit()
+	 * 
+	 * @return lesser of configured and server limit, or configured if server limit is missing or invalid
+	 */
+	private static long getLimit(JSONObject jsonObject, String key, long configured) {
+		Object value = jsonObject.get(key);
+		if ( value == null ) {
+			return configured;
+		}
+		if ( !(value instanceof Number) || ((Number)value).longValue() < 1 ) {
+			Log.warnf("Ignoring invalid %s '%s' in info/configuration", key, value);
+			return configured;
+		}
+		//Configured limit fits its field, hence so does the result
+		return Math.min(configured, ((Number)value).longValue());
+	}
 }
@@ -3,6 +3,7 @@ package org.exfio.weave.storage;
 import lombok.Data;
 import lombok.Getter;
 import lombok.Setter;
+import lombok.ToString;
 import lombok.AccessLevel;
 
 import org.json.simple.JSONArray;
@@ -12,6 +13,7 @@ import org.json.simple.parser.ParseException;
 
 
 @Data
+@ToString(exclude = {"envelope", "envelopeParsed"})
 public class WeaveBasicObject {
 	protected String id;
 	protected Double modified;
@@ -23,6 +25,15 @@ public class WeaveBasicObject {
 	@Setter(AccessLevel.NONE)
 	protected JSONObject jsonPayload;
 	
+	//Encrypted envelope, if any, extracted once from payload
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	protected transient EncryptedPayload envelope;
+	
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	protected transient boolean envelopeParsed;
+	
 	public WeaveBasicObject(String id) {
 		this.id = id;
 	}
@@ -34,6 +45,53 @@ public class WeaveBasicObject {
 		this.ttl         = ttl;
 		this.payload     = payload;
 		this.jsonPayload = null;
+		this.envelope = null;
+		this.envelopeParsed = false;
+	}
+	
+	public void setPayload(String payload) {
+		this.payload = payload;
+		this.jsonPayload = null;
+		this.envelope = null;
+		this.envelopeParsed = false;
+	}
+	
+	public void setEncryptedPayload(EncryptedPayload encryptedPayload) {
+		this.payload = encryptedPayload.toJSONString();
+		this.jsonPayload = null;
+		this.envelope = encryptedPayload;
+		this.envelopeParsed = true;
+	}
+	
+	/**
+	 * getEncryptedPayload()
+	 * 
+	 * Payloads that are null or valid JSON but not an object, e.g. "abc" or 123, are not encrypted
+	 * 
+	 * @return encrypted envelope or null if payload is not encrypted
+	 */
+	public EncryptedPayload getEncryptedPayload() throws ParseException {
+		if ( !envelopeParsed ) {
+			JSONObject jsonObject = null;
+			if ( payload != null ) {
+				try {
+					jsonObject = getPayloadAsJSONObject();
+				} catch (ClassCastException e) {
+					//Not an object
+				}
+			}
+			envelope = ( jsonObject == null ? null : EncryptedPayload.fromJSONObject(jsonObject) );
+			envelopeParsed = true;
+			if ( envelope != null ) {
+				//Envelope holds all that is needed, release parsed payload
+				jsonPayload = null;
+			}
+		}
+		return envelope;
+	}
+	
+	public boolean isEncrypted() throws ParseException {
+		return getEncryptedPayload() != null;
 	}
 	
 	@SuppressWarnings("unchecked")
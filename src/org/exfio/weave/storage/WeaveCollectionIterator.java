@@ -0,0 +1,76 @@
+package org.exfio.weave.storage;
+
+import java.io.Closeable;
+import java.util.NoSuchElementException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.net.HttpClient;
+
+/**
+ * WeaveCollectionIterator
+ *
+ * Hands out WeaveBasicObjects one at a time as they are read from the underlying source, typically the
+ * entity of a storage collection response. Callers MUST close the iterator if it is not read to the end,
+ * otherwise the connection is not released.
+ *
+ */
+public abstract class WeaveCollectionIterator implements Closeable {
+
+	private HttpResponse response    = null;
+	private WeaveBasicObject nextWbo = null;
+	private boolean finished         = false;
+
+	protected WeaveCollectionIterator() {
+		this(null);
+	}
+
+	protected WeaveCollectionIterator(HttpResponse response) {
+		this.response = response;
+	}
+
+	/**
+	 * readNext()
+	 *
+	 * Read next WBO from source
+	 *
+	 * @return WeaveBasicObject or null if there are no more records
+	 */
+	protected abstract WeaveBasicObject readNext() throws WeaveException;
+
+	public boolean hasNext() throws WeaveException {
+		if ( nextWbo == null && !finished ) {
+			try {
+				nextWbo = readNext();
+			} catch (WeaveException e) {
+				finished = true;
+				close();
+				throw e;
+			}
+			if ( nextWbo == null ) {
+				finished = true;
+				close();
+			}
+		}
+		return nextWbo != null;
+	}
+
+	public WeaveBasicObject next() throws WeaveException {
+		if ( !hasNext() ) {
+			throw new NoSuchElementException();
+		}
+		WeaveBasicObject wbo = nextWbo;
+		nextWbo = null;
+		return wbo;
+	}
+
+	public void close() {
+		finished = true;
+		nextWbo  = null;
+		if ( response instanceof CloseableHttpResponse ) {
+			HttpClient.closeResponse((CloseableHttpResponse)response);
+		}
+		response = null;
+	}
+}
@@ -0,0 +1,34 @@
+package org.exfio.weave.storage;
+
+import java.util.List;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * WeaveCollectionPage
+ *
+ * One page of a collection query together with the offset token for the next page, if any, and the
+ * collection's X-Last-Modified value when the page was read.
+ *
+ */
+@ToString
+public class WeaveCollectionPage {
+	@Getter protected List<WeaveBasicObject> records;
+	@Getter protected String nextOffset;
+	@Getter protected String lastModified;
+
+	public WeaveCollectionPage(List<WeaveBasicObject> records, String nextOffset) {
+		this(records, nextOffset, null);
+	}
+
+	public WeaveCollectionPage(List<WeaveBasicObject> records, String nextOffset, String lastModified) {
+		this.records      = records;
+		this.nextOffset   = nextOffset;
+		this.lastModified = lastModified;
+	}
+
+	public boolean isLastPage() {
+		return nextOffset == null;
+	}
+}
@@ -0,0 +1,54 @@
+package org.exfio.weave.storage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * WeavePostResult
+ *
+ * Outcome of posting records to a collection. Ids that were not stored are reported in failed together
+ * with the reason given by the server, or by the client if the record was never sent.
+ *
+ */
+@ToString
+public class WeavePostResult {
+	@Getter protected Double modified;
+	@Getter protected List<String> success;
+	@Getter protected Map<String, String> failed;
+	@Getter protected String batch;
+
+	public WeavePostResult() {
+		this.modified = null;
+		this.batch    = null;
+		this.success  = new ArrayList<String>();
+		this.failed   = new LinkedHashMap<String, String>();
+	}
+
+	public boolean hasFailures() {
+		return !failed.isEmpty();
+	}
+
+	protected void addSuccess(String id) {
+		success.add(id);
+	}
+
+	protected void addFailure(String id, String reason) {
+		failed.put(id, reason);
+	}
+
+	public void merge(WeavePostResult result) {
+		if ( result.modified != null ) {
+			modified = result.modified;
+		}
+		if ( result.batch != null ) {
+			batch = result.batch;
+		}
+		success.addAll(result.success);
+		failed.putAll(result.failed);
+	}
+}
@@ -0,0 +1,235 @@
+package org.exfio.weave.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import lombok.Getter;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.client.WeaveClient;
+import org.exfio.weave.crypto.WeaveSyncV5Crypto;
+import org.exfio.weave.storage.StorageContext;
+import org.exfio.weave.storage.WeaveCollectionInfo;
+import org.exfio.weave.sync.SyncReport.CollectionResult;
+import org.exfio.weave.util.Log;
+
+/**
+ * SyncEngine
+ *
+ * Bring a SyncTarget up to date with the server. Each cycle fetches info/collections once, which also
+ * revalidates cached bulk keys, then syncs only collections whose modified time differs from the
+ * target's on a pool of at most maxParallel workers.
+ *
+ * The largest changed collection is started first, as it bounds the cycle's wall clock time, while
+ * the remaining collections are synced smallest first on the other workers, hence small collections
+ * are never queued behind large ones. Size is taken from info/collection_usage, or failing that
+ * info/collection_counts.
+ *
+ */
+public class SyncEngine implements Closeable {
+
+	public static final int DEFAULT_MAX_PARALLEL = StorageContext.DEFAULT_MAX_PARALLEL_REQUESTS;
+
+	//Not encrypted with bulk keys, hence not synced unless requested
+	public static final List<String> DEFAULT_EXCLUDED = Arrays.asList(WeaveSyncV5Crypto.KEY_CRYPTO_COLLECTION, WeaveSyncV5Crypto.KEY_META_COLLECTION);
+
+	private WeaveClient weaveClient;
+	private SyncTarget target;
+	private Set<String> collections = null;
+	private ExecutorService pool = null;
+
+	@Getter private int maxParallel = DEFAULT_MAX_PARALLEL;
+
+	public SyncEngine(WeaveClient weaveClient, SyncTarget target) {
+		this.weaveClient = weaveClient;
+		this.target      = target;
+	}
+
+	/**
+	 * setCollections()
+	 *
+	 * Restrict sync to given collections. If null all collections on server are synced, other than crypto and meta.
+	 */
+	public synchronized void setCollections(Collection<String> collections) {
+		this.collections = ( collections == null ? null : new LinkedHashSet<String>(collections) );
+	}
+
+	public synchronized Set<String> getCollections() {
+		return collections == null ? null : new LinkedHashSet<String>(collections);
+	}
+
+	public synchronized void setMaxParallel(int maxParallel) {
+		if ( maxParallel < 1 ) {
+			throw new IllegalArgumentException("maxParallel must be at least 1");
+		}
+		this.maxParallel = maxParallel;
+		shutdownPool();
+	}
+
+	/**
+	 * sync()
+	 *
+	 * Run one sync cycle. Failure of a collection does not prevent others being synced, errors are
+	 * reported per collection.
+	 */
+	public SyncReport sync() throws WeaveException {
+		long start = System.currentTimeMillis();
+
+		Map<String, WeaveCollectionInfo> info = weaveClient.getInfoCollections(true, true);
+		long infoMillis = System.currentTimeMillis() - start;
+
+		target.begin(info);
+
+		Set<String> names = null;
+		synchronized(this) {
+			if ( collections != null ) {
+				names = new LinkedHashSet<String>(collections);
+			} else {
+				names = new LinkedHashSet<String>(info.keySet());
+				names.removeAll(DEFAULT_EXCLUDED);
+			}
+		}
+
+		List<String> changed   = new ArrayList<String>();
+		List<String> unchanged = new ArrayList<String>();
+		for (String collection: names) {
+			WeaveCollectionInfo colInfo = info.get(collection);
+			Double local = target.getModified(collection);
+			if ( colInfo == null || colInfo.getModified() == null ) {
+				//Deleted on server
+				if ( local != null ) {
+					changed.add(collection);
+				} else {
+					unchanged.add(collection);
+				}
+			} else if ( local == null || !colInfo.getModified().equals(local) ) {
+				changed.add(collection);
+			} else {
+				unchanged.add(collection);
+			}
+		}
+
+		final SyncReport report = new SyncReport(infoMillis, unchanged);
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(changed.size());
+		try {
+			//Pool is only shut down by setMaxParallel() under the same lock, hence every collection is queued
+			//before it can be replaced. Queued collections still complete on the old pool.
+			synchronized(this) {
+				schedule(changed, info);
+				ExecutorService pool = getPool();
+				for (String collection: changed) {
+					futures.add(pool.submit(newTask(collection, info.get(collection), report)));
+				}
+			}
+			for (Future<?> future: futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new WeaveException(e);
+		} catch (ExecutionException e) {
+			throw new WeaveException(e.getCause());
+		} finally {
+			for (Future<?> future: futures) {
+				future.cancel(true);
+			}
+		}
+
+		report.setElapsedMillis(System.currentTimeMillis() - start);
+
+		Log.infof("Synced %s of %s collections in %sms", changed.size(), names.size(), report.getElapsedMillis());
+
+		return report;
+	}
+
+	private Runnable newTask(final String collection, final WeaveCollectionInfo info, final SyncReport report) {
+		final long submitted = System.currentTimeMillis();
+		return new Runnable() {
+			public void run() {
+				long started = System.currentTimeMillis();
+				int records = 0;
+				Exception error = null;
+				try {
+					records = target.sync(collection, info);
+				} catch (WeaveException e) {
+					error = e;
+				} catch (RuntimeException e) {
+					error = e;
+				}
+				long finished = System.currentTimeMillis();
+
+				if ( error == null ) {
+					Log.debugf("Synced collection '%s', %s records in %sms", collection, records, finished - started);
+				} else {
+					Log.warnf("Couldn't sync collection '%s' - %s", collection, error.getMessage());
+				}
+				report.addResult(new CollectionResult(collection, records, started - submitted, finished - started, error));
+			}
+		};
+	}
+
+	/**
+	 * schedule()
+	 *
+	 * Order collections smallest first, with the largest moved to the front if it can run alongside others
+	 */
+	protected void schedule(List<String> changed, final Map<String, WeaveCollectionInfo> info) {
+		Collections.sort(changed, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return Double.compare(size(info.get(a)), size(info.get(b)));
+			}
+		});
+		if ( maxParallel > 1 && changed.size() > maxParallel ) {
+			changed.add(0, changed.remove(changed.size() - 1));
+		}
+	}
+
+	private static double size(WeaveCollectionInfo info) {
+		if ( info == null ) {
+			return 0;
+		} else if ( info.getUsage() != null ) {
+			return info.getUsage();
+		} else if ( info.getCount() != null ) {
+			return info.getCount();
+		}
+		return 0;
+	}
+
+	private synchronized ExecutorService getPool() {
+		if ( pool == null ) {
+			BasicThreadFactory factory = new BasicThreadFactory.Builder()
+				.namingPattern("weaveclient-sync-%d")
+				.daemon(true)
+				.build();
+			pool = Executors.newFixedThreadPool(maxParallel, factory);
+		}
+		return pool;
+	}
+
+	private synchronized void shutdownPool() {
+		if ( pool != null ) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	public void close() throws IOException {
+		shutdownPool();
+	}
+}
@@ -0,0 +1,71 @@
+package org.exfio.weave.sync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * SyncReport
+ *
+ * Outcome of a SyncEngine cycle. Collections are listed in the order they completed.
+ *
+ */
+@ToString
+public class SyncReport {
+
+	@ToString
+	public static class CollectionResult {
+		@Getter private String collection;
+		@Getter private int records;
+		@Getter private long queuedMillis;
+		@Getter private long elapsedMillis;
+		@Getter private Exception error;
+
+		public CollectionResult(String collection, int records, long queuedMillis, long elapsedMillis, Exception error) {
+			this.collection    = collection;
+			this.records       = records;
+			this.queuedMillis  = queuedMillis;
+			this.elapsedMillis = elapsedMillis;
+			this.error         = error;
+		}
+
+		public boolean isSuccess() {
+			return error == null;
+		}
+	}
+
+	@Getter private long infoMillis;
+	@Getter private long elapsedMillis;
+	@Getter private List<String> unchanged;
+	private List<CollectionResult> results;
+
+	public SyncReport(long infoMillis, List<String> unchanged) {
+		this.infoMillis = infoMillis;
+		this.unchanged  = unchanged;
+		this.results    = new ArrayList<CollectionResult>();
+	}
+
+	protected synchronized void addResult(CollectionResult result) {
+		results.add(result);
+	}
+
+	protected void setElapsedMillis(long elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public synchronized List<CollectionResult> getResults() {
+		return Collections.unmodifiableList(new ArrayList<CollectionResult>(results));
+	}
+
+	public synchronized boolean hasErrors() {
+		for (CollectionResult result: results) {
+			if ( !result.isSuccess() ) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,38 @@
+package org.exfio.weave.sync;
+
+import java.util.Map;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.storage.WeaveCollectionInfo;
+
+/**
+ * SyncTarget
+ *
+ * Local copy of collections brought up to date by SyncEngine, e.g. CollectionMirror or RecordStore.
+ * sync() may be called concurrently for different collections.
+ *
+ */
+public interface SyncTarget {
+
+	/**
+	 * begin()
+	 *
+	 * Called once per cycle with info/collections before any collection is synced
+	 */
+	void begin(Map<String, WeaveCollectionInfo> info) throws WeaveException;
+
+	/**
+	 * getModified()
+	 *
+	 * @return server modified time of collection at last sync, or null if collection is not held
+	 */
+	Double getModified(String collection) throws WeaveException;
+
+	/**
+	 * sync()
+	 *
+	 * @param info collection info from info/collections, or null if collection does not exist on server
+	 * @return number of records fetched
+	 */
+	int sync(String collection, WeaveCollectionInfo info) throws WeaveException;
+}
@@ -1,12 +1,19 @@
 package org.exfio.weave.util;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.commons.logging.LogFactory;
 import org.mozilla.gecko.background.common.log.Logger;
 
 public class Log {
 
 	protected static final String logtag = "weaveclient";
-	private static boolean initLog = false;
+	private static volatile boolean initLog = false;
+
+	//LogFactory lookups are synchronised, hence loggers are cached
+	private static volatile org.apache.commons.logging.Log defaultLog = null;
+	private static final ConcurrentMap<String, org.apache.commons.logging.Log> loggers = new ConcurrentHashMap<String, org.apache.commons.logging.Log>();
 	
 	public static void init(String level) {
 		initLog = true;
@@ -28,18 +35,32 @@ public class Log {
 		
 		//Enable mozilla logging
 		Logger.init(level);
+
+		clearCache();
 	}
 
 	public static org.apache.commons.logging.Log getInstance() {
-		return getInstance(logtag);
+		org.apache.commons.logging.Log log = defaultLog;
+		if ( log == null ) {
+			log = getInstance(logtag);
+			defaultLog = log;
+		}
+		return log;
 	}
 
 	public static org.apache.commons.logging.Log getInstance(String context) {
+		org.apache.commons.logging.Log log = loggers.get(context);
+		if ( log != null ) {
+			return log;
+		}
+
 		if ( !initLog ) {
 			System.err.println("Log not initialised, setting default log level to warn");
 			init("warn");
 		}	
-		return LogFactory.getLog(context);
+		log = LogFactory.getLog(context);
+		loggers.putIfAbsent(context, log);
+		return log;
 	}
 
 	public static void setLogLevel(String level) {
@@ -53,6 +74,12 @@ public class Log {
 			init("warn");
 		}
 		System.setProperty("org.apache.commons.logging.simplelog.log." + logger, level);
+		clearCache();
+	}
+
+	private static void clearCache() {
+		defaultLog = null;
+		loggers.clear();
 	}
 	
 	public static void trace(String tag, String message) { getInstance(tag).trace(message); }
@@ -67,4 +94,78 @@ public class Log {
 	public static void w(String tag, String message)     { getInstance(tag).warn(message); }
 	public static void e(String tag, String message)     { getInstance(tag).error(message); }
 	public static void wtf(String tag, String message)   { getInstance(tag).fatal(message); }	
+
+	/*
+	 * Level guarded logging to default logger
+	 *
+	 * Message is only formatted if level is enabled, i.e. String.format() syntax with byte[] arguments
+	 * rendered as hex. Fixed arity variants do not allocate when level is disabled, provided arguments
+	 * are not boxed primitives, hence are preferred in crypto and storage hot paths.
+	 */
+
+	private static final int TRACE = 0;
+	private static final int DEBUG = 1;
+	private static final int INFO  = 2;
+	private static final int WARN  = 3;
+	private static final int ERROR = 4;
+
+	public static boolean isTraceEnabled() { return getInstance().isTraceEnabled(); }
+	public static boolean isDebugEnabled() { return getInstance().isDebugEnabled(); }
+	public static boolean isInfoEnabled()  { return getInstance().isInfoEnabled(); }
+
+	public static void tracef(String format, Object arg1)                          { if ( isEnabled(TRACE) ) { log(TRACE, format(format, arg1)); } }
+	public static void tracef(String format, Object arg1, Object arg2)             { if ( isEnabled(TRACE) ) { log(TRACE, format(format, arg1, arg2)); } }
+	public static void tracef(String format, Object arg1, Object arg2, Object arg3) { if ( isEnabled(TRACE) ) { log(TRACE, format(format, arg1, arg2, arg3)); } }
+	public static void tracef(String format, Object... args)                       { if ( isEnabled(TRACE) ) { log(TRACE, format(format, args)); } }
+
+	public static void debugf(String format, Object arg1)                          { if ( isEnabled(DEBUG) ) { log(DEBUG, format(format, arg1)); } }
+	public static void debugf(String format, Object arg1, Object arg2)             { if ( isEnabled(DEBUG) ) { log(DEBUG, format(format, arg1, arg2)); } }
+	public static void debugf(String format, Object arg1, Object arg2, Object arg3) { if ( isEnabled(DEBUG) ) { log(DEBUG, format(format, arg1, arg2, arg3)); } }
+	public static void debugf(String format, Object... args)                       { if ( isEnabled(DEBUG) ) { log(DEBUG, format(format, args)); } }
+
+	public static void infof(String format, Object arg1)                           { if ( isEnabled(INFO) ) { log(INFO, format(format, arg1)); } }
+	public static void infof(String format, Object arg1, Object arg2)              { if ( isEnabled(INFO) ) { log(INFO, format(format, arg1, arg2)); } }
+	public static void infof(String format, Object arg1, Object arg2, Object arg3)  { if ( isEnabled(INFO) ) { log(INFO, format(format, arg1, arg2, arg3)); } }
+	public static void infof(String format, Object... args)                        { if ( isEnabled(INFO) ) { log(INFO, format(format, args)); } }
+
+	public static void warnf(String format, Object arg1)                           { if ( isEnabled(WARN) ) { log(WARN, format(format, arg1)); } }
+	public static void warnf(String format, Object arg1, Object arg2)              { if ( isEnabled(WARN) ) { log(WARN, format(format, arg1, arg2)); } }
+	public static void warnf(String format, Object arg1, Object arg2, Object arg3)  { if ( isEnabled(WARN) ) { log(WARN, format(format, arg1, arg2, arg3)); } }
+	public static void warnf(String format, Object... args)                        { if ( isEnabled(WARN) ) { log(WARN, format(format, args)); } }
+
+	public static void errorf(String format, Object arg1)                          { if ( isEnabled(ERROR) ) { log(ERROR, format(format, arg1)); } }
+	public static void errorf(String format, Object arg1, Object arg2)             { if ( isEnabled(ERROR) ) { log(ERROR, format(format, arg1, arg2)); } }
+	public static void errorf(String format, Object arg1, Object arg2, Object arg3) { if ( isEnabled(ERROR) ) { log(ERROR, format(format, arg1, arg2, arg3)); } }
+	public static void errorf(String format, Object... args)                       { if ( isEnabled(ERROR) ) { log(ERROR, format(format, args)); } }
+
+	private static boolean isEnabled(int level) {
+		org.apache.commons.logging.Log log = getInstance();
+		switch (level) {
+		case TRACE: return log.isTraceEnabled();
+		case DEBUG: return log.isDebugEnabled();
+		case INFO:  return log.isInfoEnabled();
+		case WARN:  return log.isWarnEnabled();
+		default:    return log.isErrorEnabled();
+		}
+	}
+
+	private static void log(int level, String message) {
+		org.apache.commons.logging.Log log = getInstance();
+		switch (level) {
+		case TRACE: log.trace(message); break;
+		case DEBUG: log.debug(message); break;
+		case INFO:  log.info(message);  break;
+		case WARN:  log.warn(message);  break;
+		default:    log.error(message); break;
+		}
+	}
+
+	private static String format(String format, Object... args) {
+		for (int i = 0; i < args.length; i++) {
+			if ( args[i] instanceof byte[] ) {
+				args[i] = Hex.encodeHexString((byte[])args[i]);
+			}
+		}
+		return String.format(format, args);
+	}
 }
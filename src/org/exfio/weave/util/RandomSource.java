@@ -0,0 +1,35 @@
+package org.exfio.weave.util;
+
+import java.security.SecureRandom;
+
+/**
+ * RandomSource
+ * 
+ * Shared source of cryptographically strong random bytes for IVs, keys and IDs.
+ * 
+ * SecureRandom.generateSeed() reads the system entropy source directly and can block for long
+ * periods on entropy starved hosts. A single SecureRandom seeded once by the platform and then
+ * read with nextBytes() never blocks and is thread safe.
+ */
+public final class RandomSource {
+
+	private static final SecureRandom random = new SecureRandom();
+
+	static {
+		//Force seeding up front rather than on first use in a hot path
+		random.nextBytes(new byte[1]);
+	}
+
+	private RandomSource() {
+	}
+
+	public static SecureRandom getInstance() {
+		return random;
+	}
+
+	public static byte[] nextBytes(int size) {
+		byte[] bytes = new byte[size];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,215 @@
+package org.exfio.weave.util;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.exfio.weave.WeaveException;
+
+/**
+ * WeaveFuture
+ *
+ * Minimal composable future for asynchronous storage operations. Callbacks are run on the thread that
+ * completes the future, typically an I/O dispatch thread, unless chained with an executor.
+ *
+ * Failures are always reported as WeaveException or a subclass of HttpException, e.g. NotFoundException.
+ *
+ */
+public class WeaveFuture<T> implements Future<T> {
+
+	public static interface Transform<T, U> {
+		public U apply(T value) throws Exception;
+	}
+
+	private T result             = null;
+	private Exception exception  = null;
+	private boolean completed    = false;
+	private boolean cancelled    = false;
+	private List<FutureCallback<T>> callbacks = new LinkedList<FutureCallback<T>>();
+
+	public static <T> WeaveFuture<T> completed(T value) {
+		WeaveFuture<T> future = new WeaveFuture<T>();
+		future.complete(value);
+		return future;
+	}
+
+	public static <T> WeaveFuture<T> failed(Exception e) {
+		WeaveFuture<T> future = new WeaveFuture<T>();
+		future.fail(e);
+		return future;
+	}
+
+	public boolean complete(T value) {
+		synchronized (this) {
+			if ( completed ) {
+				return false;
+			}
+			completed = true;
+			result    = value;
+			notifyAll();
+		}
+		runCallbacks();
+		return true;
+	}
+
+	public boolean fail(Exception e) {
+		synchronized (this) {
+			if ( completed ) {
+				return false;
+			}
+			completed = true;
+			exception = ( e instanceof WeaveException || e instanceof org.apache.http.HttpException ) ? e : new WeaveException(e);
+			notifyAll();
+		}
+		runCallbacks();
+		return true;
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if ( completed ) {
+				return false;
+			}
+			completed = true;
+			cancelled = true;
+			notifyAll();
+		}
+		runCallbacks();
+		return true;
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	public synchronized boolean isDone() {
+		return completed;
+	}
+
+	public synchronized T get() throws InterruptedException, ExecutionException {
+		while ( !completed ) {
+			wait();
+		}
+		return getResult();
+	}
+
+	public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while ( !completed ) {
+			long remaining = deadline - System.nanoTime();
+			if ( remaining <= 0 ) {
+				throw new TimeoutException();
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return getResult();
+	}
+
+	private T getResult() throws ExecutionException {
+		if ( cancelled ) {
+			throw new CancellationException();
+		}
+		if ( exception != null ) {
+			throw new ExecutionException(exception);
+		}
+		return result;
+	}
+
+	/**
+	 * addCallback()
+	 *
+	 * Register callback, which is run immediately if future has already completed
+	 */
+	public WeaveFuture<T> addCallback(FutureCallback<T> callback) {
+		synchronized (this) {
+			if ( !completed ) {
+				callbacks.add(callback);
+				return this;
+			}
+		}
+		runCallback(callback);
+		return this;
+	}
+
+	/**
+	 * then()
+	 *
+	 * Chain transform to be applied to result on the completing thread
+	 */
+	public <U> WeaveFuture<U> then(Transform<T, U> transform) {
+		return then(transform, null);
+	}
+
+	/**
+	 * then()
+	 *
+	 * Chain transform to be applied to result using executor, i.e. for CPU bound work such as decryption
+	 */
+	public <U> WeaveFuture<U> then(final Transform<T, U> transform, final Executor executor) {
+		final WeaveFuture<U> next = new WeaveFuture<U>();
+
+		addCallback(new FutureCallback<T>() {
+			public void completed(final T value) {
+				Runnable task = new Runnable() {
+					public void run() {
+						try {
+							next.complete(transform.apply(value));
+						} catch (Exception e) {
+							next.fail(e);
+						}
+					}
+				};
+				if ( executor == null ) {
+					task.run();
+				} else {
+					try {
+						executor.execute(task);
+					} catch (RuntimeException e) {
+						next.fail(e);
+					}
+				}
+			}
+
+			public void failed(Exception e) {
+				next.fail(e);
+			}
+
+			public void cancelled() {
+				next.cancel(false);
+			}
+		});
+
+		return next;
+	}
+
+	private void runCallbacks() {
+		List<FutureCallback<T>> pending = null;
+		synchronized (this) {
+			pending   = callbacks;
+			callbacks = new LinkedList<FutureCallback<T>>();
+		}
+		for (FutureCallback<T> callback: pending) {
+			runCallback(callback);
+		}
+	}
+
+	private void runCallback(FutureCallback<T> callback) {
+		try {
+			if ( cancelled ) {
+				callback.cancelled();
+			} else if ( exception != null ) {
+				callback.failed(exception);
+			} else {
+				callback.completed(result);
+			}
+		} catch (RuntimeException e) {
+			Log.getInstance().error("Future callback failed - " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package org.exfio.weave.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.storage.WeaveCollectionInfo;
+
+public class RecordCacheTest {
+
+	private static WeaveBasicObject wbo(String id, String payload) {
+		return new WeaveBasicObject(id, 1400000000.0, null, null, payload);
+	}
+
+	private static Map<String, WeaveCollectionInfo> info(Object... modified) {
+		Map<String, WeaveCollectionInfo> info = new HashMap<String, WeaveCollectionInfo>();
+		for (int i = 0; i < modified.length; i += 2) {
+			info.put((String)modified[i], new WeaveCollectionInfo((String)modified[i], (Double)modified[i + 1], null, null));
+		}
+		return info;
+	}
+
+	private static void put(RecordCache cache, String collection, WeaveBasicObject wbo) {
+		cache.put(collection, wbo, cache.getGeneration(collection));
+	}
+
+	@Test
+	public void testGetPut() {
+		RecordCache cache = new RecordCache();
+		assertNull(cache.get("bookmarks", "a"));
+		assertEquals(1, cache.getMisses());
+
+		WeaveBasicObject wbo = wbo("a", "{}");
+		put(cache, "bookmarks", wbo);
+
+		//Copies are handed out, hence callers can't modify cached records
+		WeaveBasicObject cached = cache.get("bookmarks", "a");
+		assertNotSame(wbo, cached);
+		cached.setPayload("modified");
+		assertEquals("{}", cache.get("bookmarks", "a").getPayload());
+		assertEquals(2, cache.getHits());
+
+		assertNull(cache.get("history", "a"));
+	}
+
+	@Test
+	public void testEviction() {
+		//Payloads weigh two bytes per char
+		RecordCache cache = new RecordCache(100);
+		put(cache, "bookmarks", wbo("a", "0123456789"));
+		put(cache, "bookmarks", wbo("b", "0123456789"));
+		assertEquals(40, cache.getBytes());
+
+		//Least recently used is evicted first
+		cache.get("bookmarks", "a");
+		put(cache, "bookmarks", wbo("c", "0123456789012345678901234567890"));
+		assertNotNull(cache.get("bookmarks", "a"));
+		assertNull(cache.get("bookmarks", "b"));
+		assertEquals(1, cache.getEvictions());
+		assertEquals(82, cache.getBytes());
+
+		//Larger than cache
+		put(cache, "bookmarks", wbo("d", new String(new char[51])));
+		assertNull(cache.get("bookmarks", "d"));
+		assertEquals(82, cache.getBytes());
+	}
+
+	@Test
+	public void testStalePutAfterInvalidate() {
+		RecordCache cache = new RecordCache();
+
+		//Fetch started, record then written by this client
+		long generation = cache.getGeneration("bookmarks");
+		cache.invalidate("bookmarks", "a");
+		cache.put("bookmarks", wbo("a", "stale"), generation);
+		assertNull(cache.get("bookmarks", "a"));
+
+		//Other collections unaffected
+		long other = cache.getGeneration("history");
+		cache.invalidateCollection("bookmarks");
+		cache.put("history", wbo("a", "{}"), other);
+		assertNotNull(cache.get("history", "a"));
+	}
+
+	@Test
+	public void testStalePutAfterInvalidateCollection() {
+		RecordCache cache = new RecordCache();
+		put(cache, "bookmarks", wbo("a", "{}"));
+
+		long generation = cache.getGeneration("bookmarks");
+		cache.invalidateCollection("bookmarks");
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getBytes());
+
+		cache.put("bookmarks", wbo("b", "stale"), generation);
+		assertNull(cache.get("bookmarks", "b"));
+
+		//Fetch started after invalidation is cached
+		put(cache, "bookmarks", wbo("b", "{}"));
+		assertNotNull(cache.get("bookmarks", "b"));
+	}
+
+	@Test
+	public void testStalePutAfterClear() {
+		RecordCache cache = new RecordCache();
+		cache.invalidate("bookmarks", "a");
+
+		//Generation held per collection and by default
+		long generation = cache.getGeneration("bookmarks");
+		long other      = cache.getGeneration("history");
+		cache.clear();
+
+		cache.put("bookmarks", wbo("a", "stale"), generation);
+		cache.put("history", wbo("a", "stale"), other);
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testRevalidate() {
+		RecordCache cache = new RecordCache();
+		put(cache, "bookmarks", wbo("a", "{}"));
+		put(cache, "history", wbo("a", "{}"));
+
+		//Modified times first seen, records may predate them
+		cache.revalidate(info("bookmarks", 100.0, "history", 100.0));
+		assertEquals(0, cache.size());
+
+		put(cache, "bookmarks", wbo("a", "{}"));
+		put(cache, "history", wbo("a", "{}"));
+		cache.revalidate(info("bookmarks", 100.0, "history", 101.0));
+		assertNotNull(cache.get("bookmarks", "a"));
+		assertNull(cache.get("history", "a"));
+
+		//Deleted on server
+		cache.revalidate(info("history", 101.0));
+		assertNull(cache.get("bookmarks", "a"));
+	}
+
+	@Test
+	public void testStalePutAfterRevalidate() {
+		RecordCache cache = new RecordCache();
+		cache.revalidate(info("bookmarks", 100.0));
+
+		//Fetch in progress when collection is modified on server, nothing cached yet
+		long generation = cache.getGeneration("bookmarks");
+		cache.revalidate(info("bookmarks", 101.0));
+		cache.put("bookmarks", wbo("a", "stale"), generation);
+		assertNull(cache.get("bookmarks", "a"));
+	}
+
+	@Test
+	public void testConcurrentInvalidation() throws InterruptedException {
+		final RecordCache cache = new RecordCache();
+		final int iterations = 10000;
+		final CountDownLatch start = new CountDownLatch(1);
+
+		//Writer replaces record and invalidates, readers fetch and cache what they read
+		final String[] server = {"v0"};
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 1; i <= iterations; i++) {
+					synchronized(server) {
+						server[0] = "v" + i;
+					}
+					cache.invalidate("bookmarks", "a");
+				}
+			}
+		});
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < iterations; i++) {
+					long generation = cache.getGeneration("bookmarks");
+					String payload;
+					synchronized(server) {
+						payload = server[0];
+					}
+					cache.put("bookmarks", wbo("a", payload), generation);
+				}
+			}
+		});
+		writer.start();
+		reader.start();
+		start.countDown();
+		writer.join();
+		reader.join();
+
+		//Once writes have finished any cached record must be current
+		WeaveBasicObject cached = cache.get("bookmarks", "a");
+		assertTrue(cached == null || cached.getPayload().equals(server[0]));
+		assertTrue(cache.size() <= 1);
+	}
+}
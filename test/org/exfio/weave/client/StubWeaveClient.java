@@ -0,0 +1,24 @@
+package org.exfio.weave.client;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.crypto.KeyPairs;
+import org.exfio.weave.crypto.WeaveSyncV5Crypto;
+import org.exfio.weave.storage.StorageContext;
+
+/**
+ * StubWeaveClient
+ *
+ * Client bound to a storage context, typically from StubStorageServer, with a random key pair so that
+ * getInfoCollections() can revalidate bulk keys.
+ *
+ */
+public class StubWeaveClient extends WeaveClientV1_5 {
+
+	public StubWeaveClient(StorageContext storageClient) throws WeaveException {
+		super();
+		WeaveSyncV5Crypto crypto = new WeaveSyncV5Crypto();
+		crypto.init(storageClient, KeyPairs.random());
+		this.storageClient = storageClient;
+		this.cryptoClient  = crypto;
+	}
+}
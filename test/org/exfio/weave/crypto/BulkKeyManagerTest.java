@@ -0,0 +1,192 @@
+package org.exfio.weave.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
+import org.exfio.weave.storage.EncryptedPayload;
+import org.exfio.weave.storage.StubStorageServer;
+import org.exfio.weave.util.Base64;
+
+public class BulkKeyManagerTest {
+
+	private static final String COLLECTION = "bookmarks";
+	private static final int THREADS = 8;
+
+	private PayloadCipher payloadCipher = new PayloadCipher();
+	private WeaveKeyPair privateKey = KeyPairs.random();
+
+	//Current crypto/keys on server
+	private volatile WeaveKeyPair bulkKey = KeyPairs.random();
+	private volatile double keysModified = 1400000000.0;
+	private AtomicInteger fetches = new AtomicInteger();
+
+	private StubStorageServer server;
+	private WeaveSyncV5Crypto crypto;
+
+	@SuppressWarnings("unchecked")
+	private String cryptoKeys() throws WeaveException {
+		JSONArray defaultKey = new JSONArray();
+		defaultKey.add(Base64.encodeBase64String(bulkKey.cryptKey));
+		defaultKey.add(Base64.encodeBase64String(bulkKey.hmacKey));
+
+		JSONObject keys = new JSONObject();
+		keys.put("default", defaultKey);
+		keys.put("collections", new JSONObject());
+
+		JSONObject wbo = new JSONObject();
+		wbo.put("id", WeaveSyncV5Crypto.KEY_CRYPTO_ID);
+		wbo.put("modified", keysModified);
+		wbo.put("payload", payloadCipher.encrypt(keys.toJSONString(), privateKey));
+		return wbo.toJSONString();
+	}
+
+	private void replaceKeys() {
+		bulkKey = KeyPairs.random();
+		keysModified += 1;
+	}
+
+	@Before
+	public void setUp() throws IOException, WeaveException {
+		server = new StubStorageServer(new StubStorageServer.Handler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if ( !exchange.getRequestURI().getPath().endsWith(WeaveSyncV5Crypto.KEY_CRYPTO_PATH) ) {
+					StubStorageServer.respond(exchange, 404, null, null);
+					return;
+				}
+				fetches.incrementAndGet();
+				try {
+					StubStorageServer.respond(exchange, 200, "application/json", cryptoKeys());
+				} catch (WeaveException e) {
+					throw new IOException(e);
+				}
+			}
+		});
+
+		crypto = new WeaveSyncV5Crypto();
+		crypto.init(server.createStorageContext(ApiVersion.v1_5), privateKey);
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	private List<String> decryptConcurrently(final EncryptedPayload envelope) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<String>> futures = new ArrayList<Future<String>>();
+			for (int i = 0; i < THREADS; i++) {
+				futures.add(pool.submit(new Callable<String>() {
+					public String call() throws Exception {
+						start.await();
+						return crypto.decrypt(envelope, COLLECTION);
+					}
+				}));
+			}
+			start.countDown();
+
+			//Wait for all threads before reporting the first failure
+			List<String> results = new ArrayList<String>();
+			ExecutionException failure = null;
+			for (Future<String> future: futures) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					failure = ( failure == null ? e : failure );
+				}
+			}
+			if ( failure != null ) {
+				throw failure;
+			}
+			return results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testConcurrentFailuresFetchOnce() throws Exception {
+		crypto.getKeyManager().getKeyPair(COLLECTION);
+		assertEquals(1, fetches.get());
+
+		//Another client replaces keys and re-uploads records
+		replaceKeys();
+		EncryptedPayload envelope = payloadCipher.encryptPayload("{\"id\":\"abc\"}", bulkKey);
+
+		for (String cleartext: decryptConcurrently(envelope)) {
+			assertEquals("{\"id\":\"abc\"}", cleartext);
+		}
+		assertEquals(2, fetches.get());
+		assertEquals(keysModified, crypto.getKeyManager().getKeysModified(), 0);
+	}
+
+	@Test
+	public void testRefreshSkippedIfKeysAlreadyReplaced() throws WeaveException {
+		BulkKeyManager keyManager = crypto.getKeyManager();
+		WeaveKeyPair stale = keyManager.getKeyPair(COLLECTION);
+
+		replaceKeys();
+		WeaveKeyPair fresh = keyManager.refresh(COLLECTION, stale);
+		assertEquals(2, fetches.get());
+
+		//Caller that failed with the stale key gets the current key without a fetch
+		assertSame(fresh, keyManager.refresh(COLLECTION, stale));
+		assertEquals(2, fetches.get());
+	}
+
+	@Test
+	public void testKeysUnchanged() throws Exception {
+		BulkKeyManager keyManager = crypto.getKeyManager();
+		WeaveKeyPair current = keyManager.getKeyPair(COLLECTION);
+		assertNull(keyManager.refresh(COLLECTION, current));
+		assertEquals(2, fetches.get());
+
+		//Corrupt record, HMAC failure stands
+		EncryptedPayload good = payloadCipher.encryptPayload("{\"id\":\"abc\"}", bulkKey);
+		EncryptedPayload bad  = new EncryptedPayload(good.getCiphertext(), good.getIv(), good.getHmac().replace(good.getHmac().charAt(0), good.getHmac().charAt(0) == '0' ? '1' : '0'));
+		try {
+			crypto.decrypt(bad, COLLECTION);
+			fail("Expected HmacVerificationException");
+		} catch (HmacVerificationException e) {
+			//expected
+		}
+		assertEquals(3, fetches.get());
+	}
+
+	@Test
+	public void testConcurrentFailuresUnchangedKeys() throws Exception {
+		crypto.getKeyManager().getKeyPair(COLLECTION);
+
+		EncryptedPayload good = payloadCipher.encryptPayload("{\"id\":\"abc\"}", KeyPairs.random());
+		try {
+			decryptConcurrently(good);
+			fail("Expected HmacVerificationException");
+		} catch (ExecutionException e) {
+			assertEquals(HmacVerificationException.class, e.getCause().getClass());
+		}
+	}
+}
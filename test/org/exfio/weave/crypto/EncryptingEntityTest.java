@@ -0,0 +1,100 @@
+package org.exfio.weave.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+import org.exfio.weave.Constants;
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.storage.WeaveBasicObject;
+
+public class EncryptingEntityTest {
+
+	private PayloadCipher payloadCipher = new PayloadCipher();
+	private WeaveKeyPair keyPair = KeyPairs.random();
+
+	private static String repeat(String s, int length) {
+		StringBuilder sb = new StringBuilder(length);
+		while ( sb.length() < length ) {
+			sb.append(s);
+		}
+		return sb.substring(0, length);
+	}
+
+	private static List<String> plaintexts() {
+		List<String> plaintexts = new ArrayList<String>();
+		plaintexts.add("");
+		plaintexts.add("{}");
+		plaintexts.add("{\"title\":\"quote \\\" backslash \\\\ newline \\n\"}");
+
+		//Either side of cipher block and encoder chunk boundaries
+		for (int length: new int[] {15, 16, 17, 4095, 4096, 4097, 100000}) {
+			plaintexts.add(repeat("a", length));
+		}
+
+		//Multi-byte characters, including surrogate pairs split across chunks
+		plaintexts.add(repeat("\u00e9\u4e2d\ud83d\ude00", 4097));
+		plaintexts.add("x" + repeat("\ud83d\ude00", 4096));
+		return plaintexts;
+	}
+
+	private static byte[] write(EncryptingEntity entity) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		entity.writeTo(out);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testContentLength() throws IOException, WeaveException {
+		for (String plaintext: plaintexts()) {
+			WeaveBasicObject wbo = new WeaveBasicObject("abc123", 1400000000.25, 100L, 3600L, plaintext);
+			EncryptingEntity entity = new EncryptingEntity(wbo, keyPair, payloadCipher);
+
+			byte[] bytes = write(entity);
+			assertEquals("Plaintext length " + plaintext.length(), entity.getContentLength(), bytes.length);
+
+			//Decrypts to plaintext, encoded as per encryptPayload()
+			JSONObject jsonObject = (JSONObject)JSONValue.parse(new String(bytes, Constants.UTF8));
+			assertEquals("abc123", jsonObject.get("id"));
+			assertEquals(new String(plaintext.getBytes(Constants.ASCII), Constants.ASCII), payloadCipher.decrypt((String)jsonObject.get("payload"), keyPair));
+		}
+	}
+
+	@Test
+	public void testOptionalFields() throws IOException {
+		WeaveBasicObject wbo = new WeaveBasicObject("abc123", null, null, null, "{\"title\":\"\u00e9\"}");
+		EncryptingEntity entity = new EncryptingEntity(wbo, keyPair, payloadCipher);
+		assertEquals(entity.getContentLength(), write(entity).length);
+
+		//Non-ASCII id is encoded as UTF-8
+		wbo = new WeaveBasicObject("\u00e9\u00e9\u00e9", 1400000000.0, null, null, "{}");
+		entity = new EncryptingEntity(wbo, keyPair, payloadCipher);
+		assertEquals(entity.getContentLength(), write(entity).length);
+	}
+
+	@Test
+	public void testRepeatable() throws IOException {
+		WeaveBasicObject wbo = new WeaveBasicObject("abc123", 1400000000.25, null, null, repeat("b", 5000));
+		EncryptingEntity entity = new EncryptingEntity(wbo, keyPair, payloadCipher);
+
+		byte[] first  = write(entity);
+		byte[] second = write(entity);
+		byte[] buffered = IOUtils.toByteArray(entity.getContent());
+
+		//Fresh IV per write, same length
+		assertEquals(entity.getContentLength(), second.length);
+		assertEquals(entity.getContentLength(), buffered.length);
+		assertFalse(new String(first, Constants.UTF8).equals(new String(second, Constants.UTF8)));
+		assertArrayEquals(new byte[] {first[0], first[1]}, new byte[] {second[0], second[1]});
+	}
+}
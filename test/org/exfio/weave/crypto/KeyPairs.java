@@ -0,0 +1,19 @@
+package org.exfio.weave.crypto;
+
+import org.exfio.weave.util.RandomSource;
+
+/**
+ * KeyPairs
+ *
+ * Key pair fixtures for crypto tests
+ *
+ */
+public class KeyPairs {
+
+	public static WeaveKeyPair random() {
+		WeaveKeyPair keyPair = new WeaveKeyPair();
+		keyPair.cryptKey = RandomSource.nextBytes(32);
+		keyPair.hmacKey  = RandomSource.nextBytes(32);
+		return keyPair;
+	}
+}
@@ -0,0 +1,193 @@
+package org.exfio.weave.mirror;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.client.StubWeaveClient;
+import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
+import org.exfio.weave.crypto.WeaveSyncV5Crypto;
+import org.exfio.weave.storage.CollectionResponses;
+import org.exfio.weave.storage.NotFoundException;
+import org.exfio.weave.storage.StorageContext;
+import org.exfio.weave.storage.StubStorageServer;
+import org.exfio.weave.storage.WeaveBasicObject;
+
+public class CollectionMirrorTest {
+
+	private static final String BOOKMARKS = "bookmarks";
+	private static final String HISTORY   = "history";
+
+	//Server state, collection modified time is that of its newest record unless set otherwise
+	private Map<String, Double> modified = new LinkedHashMap<String, Double>();
+	private Map<String, List<WeaveBasicObject>> stored = new LinkedHashMap<String, List<WeaveBasicObject>>();
+
+	//Collection fetches, as collection and newer parameter
+	private List<String> fetches = Collections.synchronizedList(new ArrayList<String>());
+
+	private StubStorageServer server;
+	private Connection db;
+	private CollectionMirror mirror;
+
+	@Before
+	public void setUp() throws IOException, SQLException, WeaveException {
+		server = new StubStorageServer(new StubStorageServer.Handler() {
+			@SuppressWarnings("unchecked")
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				Map<String, String> params = StubStorageServer.getParams(exchange);
+
+				synchronized(CollectionMirrorTest.this) {
+					if ( path.endsWith("/info/collections") ) {
+						JSONObject info = new JSONObject();
+						info.putAll(modified);
+						StubStorageServer.respond(exchange, 200, StorageContext.MEDIA_TYPE_JSON, info.toJSONString());
+						return;
+					}
+
+					String collection = path.substring(path.lastIndexOf('/') + 1);
+					String newer = params.get("newer");
+					fetches.add(newer == null ? collection : collection + "?newer=" + newer);
+
+					StringBuilder body = new StringBuilder();
+					for (WeaveBasicObject wbo: stored.get(collection)) {
+						if ( newer == null || wbo.getModified() > Double.parseDouble(newer) ) {
+							body.append(CollectionResponses.encode(wbo)).append("\n");
+						}
+					}
+					StubStorageServer.respond(exchange, 200, StorageContext.MEDIA_TYPE_NEWLINES, body.toString());
+				}
+			}
+		});
+
+		db = DriverManager.getConnection("jdbc:sqlite::memory:");
+		mirror = new CollectionMirror(new StubWeaveClient(server.createStorageContext(ApiVersion.v1_5)), db);
+	}
+
+	@After
+	public void tearDown() throws IOException, SQLException {
+		mirror.close();
+		db.close();
+		server.close();
+	}
+
+	private synchronized void put(String collection, String id, double modified) {
+		if ( !stored.containsKey(collection) ) {
+			stored.put(collection, new ArrayList<WeaveBasicObject>());
+		}
+		stored.get(collection).add(new WeaveBasicObject(id, modified, null, null, id + "@" + modified));
+		this.modified.put(collection, modified);
+	}
+
+	private static List<String> ids(WeaveBasicObject[] wbos) {
+		List<String> ids = new ArrayList<String>();
+		for (WeaveBasicObject wbo: wbos) {
+			ids.add(wbo.getId());
+		}
+		return ids;
+	}
+
+	@Test
+	public void testSyncAllExcludesCryptoAndMeta() throws WeaveException {
+		put(WeaveSyncV5Crypto.KEY_CRYPTO_COLLECTION, "keys", 10.0);
+		put(WeaveSyncV5Crypto.KEY_META_COLLECTION, "global", 10.0);
+		put(BOOKMARKS, "a", 100.0);
+
+		Map<String, Integer> fetched = mirror.syncAll();
+		assertEquals(Arrays.asList(BOOKMARKS), new ArrayList<String>(fetched.keySet()));
+		assertEquals(Integer.valueOf(1), fetched.get(BOOKMARKS));
+		assertEquals(Arrays.asList(BOOKMARKS), fetches);
+	}
+
+	@Test
+	public void testIncremental() throws WeaveException, NotFoundException {
+		put(BOOKMARKS, "a", 100.0);
+		put(BOOKMARKS, "b", 101.0);
+		assertEquals(2, mirror.sync(BOOKMARKS));
+		assertEquals(Double.valueOf(101.0), mirror.getModified(BOOKMARKS));
+
+		put(BOOKMARKS, "c", 102.0);
+		assertEquals(1, mirror.sync(BOOKMARKS));
+		assertEquals(Double.valueOf(102.0), mirror.getModified(BOOKMARKS));
+
+		//Unmodified collections aren't fetched
+		assertEquals(0, mirror.sync(BOOKMARKS));
+
+		assertEquals(Arrays.asList(BOOKMARKS, BOOKMARKS + "?newer=101.00"), fetches);
+		assertEquals(Arrays.asList("a", "b", "c"), ids(mirror.getCollection(BOOKMARKS, false)));
+		assertEquals(Arrays.asList("c"), ids(mirror.getCollection(BOOKMARKS, 101.0, false)));
+		assertEquals("b@101.0", mirror.get(BOOKMARKS, "b", false).getPayload());
+	}
+
+	@Test
+	public void testReset() throws WeaveException {
+		put(BOOKMARKS, "a", 100.0);
+		put(BOOKMARKS, "b", 101.0);
+		mirror.sync(BOOKMARKS);
+
+		//Collection deleted and re-uploaded with older modified time, e.g. restored from backup
+		synchronized(this) {
+			stored.remove(BOOKMARKS);
+		}
+		put(BOOKMARKS, "x", 50.0);
+
+		assertEquals(1, mirror.sync(BOOKMARKS));
+		assertEquals(Arrays.asList(BOOKMARKS, BOOKMARKS), fetches);
+		assertEquals(Arrays.asList("x"), ids(mirror.getCollection(BOOKMARKS, false)));
+		assertEquals(Double.valueOf(50.0), mirror.getModified(BOOKMARKS));
+	}
+
+	@Test
+	public void testDeletedOnServer() throws WeaveException {
+		put(BOOKMARKS, "a", 100.0);
+		mirror.sync(BOOKMARKS);
+
+		synchronized(this) {
+			stored.remove(BOOKMARKS);
+			modified.remove(BOOKMARKS);
+		}
+
+		assertEquals(0, mirror.sync(BOOKMARKS));
+		assertEquals(Arrays.asList(BOOKMARKS), fetches);
+		assertEquals(0, mirror.getCollection(BOOKMARKS, false).length);
+		assertNull(mirror.getModified(BOOKMARKS));
+	}
+
+	@Test
+	public void testKeyChange() throws WeaveException {
+		put(WeaveSyncV5Crypto.KEY_CRYPTO_COLLECTION, "keys", 10.0);
+		put(BOOKMARKS, "a", 100.0);
+		put(HISTORY, "h", 100.0);
+		mirror.sync(Arrays.asList(BOOKMARKS, HISTORY));
+
+		//Unchanged collections are skipped while keys are unchanged
+		assertEquals(Integer.valueOf(0), mirror.sync(Arrays.asList(BOOKMARKS)).get(BOOKMARKS));
+
+		//New keys clear every collection, including those not being synced
+		put(WeaveSyncV5Crypto.KEY_CRYPTO_COLLECTION, "keys", 20.0);
+		assertEquals(Integer.valueOf(1), mirror.sync(Arrays.asList(BOOKMARKS)).get(BOOKMARKS));
+
+		assertEquals(Arrays.asList(BOOKMARKS, HISTORY, BOOKMARKS), fetches);
+		assertEquals(Arrays.asList("a"), ids(mirror.getCollection(BOOKMARKS, false)));
+		assertEquals(0, mirror.getCollection(HISTORY, false).length);
+		assertNull(mirror.getModified(HISTORY));
+	}
+}
@@ -0,0 +1,253 @@
+package org.exfio.weave.mirror;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import org.exfio.weave.storage.WeaveBasicObject;
+
+public class RecordIndexTest {
+
+	private static final double NOW = 1000.0;
+
+	private static WeaveBasicObject record(String id, double modified, Long sortindex) {
+		return record(id, modified, sortindex, null);
+	}
+
+	private static WeaveBasicObject record(String id, double modified, Long sortindex, Long ttl) {
+		return new WeaveBasicObject(id, modified, sortindex, ttl, null);
+	}
+
+	private static RecordIndex index(WeaveBasicObject... wbos) {
+		RecordIndex index = new RecordIndex();
+		index.putAll(Arrays.asList(wbos));
+		return index;
+	}
+
+	private static List<String> ids(List<WeaveBasicObject> wbos) {
+		List<String> ids = new ArrayList<String>();
+		for (WeaveBasicObject wbo: wbos) {
+			ids.add(wbo.getId());
+		}
+		return ids;
+	}
+
+	private static List<String> query(RecordIndex index, Double older, Double newer, Integer index_above, Integer index_below, String sort) {
+		return ids(index.query(null, older, newer, index_above, index_below, null, null, sort, NOW));
+	}
+
+	@Test
+	public void testModifiedBoundsExclusive() {
+		//Several records share each bound, hence range sentinels must sort before all ids
+		RecordIndex index = index(
+			record("a", 10.0, null), record("b", 11.0, null), record("c", 11.0, null),
+			record("d", 12.0, null), record("e", 12.0, null), record("f", 13.0, null)
+		);
+
+		assertEquals(Arrays.asList("d", "e", "f"), query(index, null, 11.0, null, null, null));
+		assertEquals(Arrays.asList("a", "b", "c"), query(index, 12.0, null, null, null, "oldest"));
+		assertEquals(Arrays.asList("e", "d"), query(index, 13.0, 11.0, null, null, "newest"));
+		assertEquals(Arrays.asList("d", "e"), query(index, 13.0, 11.0, null, null, "oldest"));
+		assertEquals(Arrays.<String>asList(), query(index, 12.0, 11.5, null, null, null));
+		assertEquals(Arrays.<String>asList(), query(index, 12.0, 12.0, null, null, null));
+		assertEquals(Arrays.<String>asList(), query(index, 11.0, 12.0, null, null, null));
+	}
+
+	@Test
+	public void testIndexBoundsExclusive() {
+		RecordIndex index = index(
+			record("a", 10.0, 1L), record("b", 10.0, 2L), record("c", 10.0, 2L),
+			record("d", 10.0, 3L), record("e", 10.0, 3L), record("f", 10.0, 4L)
+		);
+
+		assertEquals(Arrays.asList("f", "e", "d"), query(index, null, null, 2, null, "index"));
+		assertEquals(Arrays.asList("c", "b", "a"), query(index, null, null, null, 3, "index"));
+		assertEquals(Arrays.asList("e", "d"), query(index, null, null, 2, 4, "index"));
+		assertEquals(Arrays.asList("d", "e"), query(index, null, null, 2, 4, "oldest"));
+		assertEquals(Arrays.<String>asList(), query(index, null, null, 2, 3, "index"));
+		assertEquals(Arrays.<String>asList(), query(index, null, null, 3, 3, "index"));
+		assertEquals(Arrays.<String>asList(), query(index, null, null, 4, 2, "index"));
+	}
+
+	@Test
+	public void testNullSortindex() {
+		RecordIndex index = index(
+			record("a", 10.0, null), record("b", 11.0, -5L), record("c", 12.0, null), record("d", 13.0, 0L)
+		);
+
+		//Records without sortindex sort lowest, i.e. last for sort=index
+		assertEquals(Arrays.asList("d", "b", "c", "a"), query(index, null, null, null, null, "index"));
+
+		//and never match index bounds
+		assertEquals(Arrays.asList("d", "b"), query(index, null, null, -10, null, "index"));
+		assertEquals(Arrays.asList("d", "b"), query(index, null, null, null, 10, "index"));
+		assertEquals(Arrays.asList("b", "d"), query(index, null, null, -10, null, "oldest"));
+	}
+
+	@Test
+	public void testTiesBrokenById() {
+		RecordIndex index = index(record("b", 10.0, 1L), record("c", 10.0, 1L), record("a", 10.0, 1L));
+
+		assertEquals(Arrays.asList("a", "b", "c"), query(index, null, null, null, null, null));
+		assertEquals(Arrays.asList("a", "b", "c"), query(index, null, null, null, null, "oldest"));
+		assertEquals(Arrays.asList("c", "b", "a"), query(index, null, null, null, null, "newest"));
+		assertEquals(Arrays.asList("c", "b", "a"), query(index, null, null, null, null, "index"));
+	}
+
+	@Test
+	public void testLimitOffset() {
+		RecordIndex index = new RecordIndex();
+		for (int i = 0; i < 10; i++) {
+			//Odd records expired, hence filtered out while ordered range is visited
+			index.put(record("id" + i, 100.0 + i, (long)i, i % 2 == 1 ? 1L : null));
+		}
+
+		assertEquals(Arrays.asList("id0", "id2"), ids(index.query(null, null, null, null, null, 2, null, null, NOW)));
+		assertEquals(Arrays.asList("id4", "id6"), ids(index.query(null, null, null, null, null, 2, 2, "oldest", NOW)));
+		assertEquals(Arrays.asList("id6", "id4", "id2"), ids(index.query(null, null, null, null, null, 3, 1, "newest", NOW)));
+		assertEquals(Arrays.asList("id2", "id0"), ids(index.query(null, null, null, null, null, 5, 3, "index", NOW)));
+		assertEquals(Arrays.asList("id6", "id8"), ids(index.query(null, null, 104.0, null, null, 2, null, null, NOW)));
+		assertEquals(Arrays.<String>asList(), ids(index.query(null, null, null, null, null, 0, null, null, NOW)));
+		assertEquals(Arrays.<String>asList(), ids(index.query(null, null, null, null, null, null, 5, null, NOW)));
+		assertEquals(Arrays.<String>asList(), ids(index.query(null, null, null, null, null, 2, 5, null, NOW)));
+	}
+
+	@Test
+	public void testIds() {
+		RecordIndex index = index(record("a", 12.0, 1L), record("b", 11.0, 3L), record("c", 10.0, 2L));
+		String[] ids = new String[] {"b", "c", "b", "missing", "c", "a"};
+
+		//Duplicate ids are returned once, in requested sort order
+		assertEquals(Arrays.asList("c", "b", "a"), ids(index.query(ids, null, null, null, null, null, null, null, NOW)));
+		assertEquals(Arrays.asList("b", "c", "a"), ids(index.query(ids, null, null, null, null, null, null, "index", NOW)));
+		assertEquals(Arrays.asList("a", "b"), ids(index.query(ids, null, null, null, null, 2, null, "newest", NOW)));
+		assertEquals(Arrays.asList("b"), ids(index.query(ids, 12.0, 10.0, null, null, null, null, null, NOW)));
+	}
+
+	@Test
+	public void testReplace() {
+		RecordIndex index = index(record("a", 10.0, 1L), record("b", 11.0, 2L));
+		index.put(record("a", 12.0, 3L));
+
+		assertEquals(2, index.size());
+		assertEquals(Arrays.asList("b", "a"), query(index, null, null, null, null, null));
+		assertEquals(Arrays.asList("a", "b"), query(index, null, null, null, null, "index"));
+		assertEquals(Arrays.asList("a"), query(index, null, 11.0, null, null, null));
+	}
+
+	@Test
+	public void testTtl() {
+		RecordIndex index = index(record("a", 990.0, null, 10L), record("b", 990.0, null, 11L), record("c", 990.0, null, null));
+
+		//Expires once modified + ttl is reached
+		assertEquals(Arrays.asList("b", "c"), query(index, null, null, null, null, null));
+		assertNull(index.get("a", NOW));
+		assertEquals("b", index.get("b", NOW).getId());
+		assertEquals(Arrays.asList("a", "b", "c"), ids(index.query(null, null, null, null, null, null, null, null, NOW - 0.5)));
+
+		assertEquals(1, index.purgeExpired(NOW));
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	public void testMatchesServerSemantics() {
+		Random random = new Random(1);
+		RecordIndex index = new RecordIndex();
+		List<WeaveBasicObject> all = new ArrayList<WeaveBasicObject>();
+		for (int i = 0; i < 200; i++) {
+			WeaveBasicObject wbo = record(
+				"id" + i,
+				900.0 + random.nextInt(50),
+				random.nextInt(4) == 0 ? null : Long.valueOf(random.nextInt(20)),
+				random.nextInt(5) == 0 ? Long.valueOf(random.nextInt(150)) : null
+			);
+			index.put(wbo);
+			all.add(wbo);
+		}
+
+		String[] sorts = new String[] {null, "oldest", "newest", "index"};
+		for (int i = 0; i < 5000; i++) {
+			String[] ids          = random.nextInt(4) == 0 ? new String[] {"id" + random.nextInt(250), "id" + random.nextInt(250), "id" + random.nextInt(250)} : null;
+			Double older          = random.nextBoolean() ? Double.valueOf(900 + random.nextInt(55)) : null;
+			Double newer          = random.nextBoolean() ? Double.valueOf(895 + random.nextInt(55)) : null;
+			Integer index_above   = random.nextBoolean() ? Integer.valueOf(random.nextInt(22) - 1) : null;
+			Integer index_below   = random.nextBoolean() ? Integer.valueOf(random.nextInt(22)) : null;
+			Integer limit         = random.nextBoolean() ? Integer.valueOf(random.nextInt(30)) : null;
+			Integer offset        = random.nextBoolean() ? Integer.valueOf(random.nextInt(30)) : null;
+			String sort           = sorts[random.nextInt(sorts.length)];
+
+			List<WeaveBasicObject> expected = serverQuery(all, ids, older, newer, index_above, index_below, limit, offset, sort, NOW);
+			List<WeaveBasicObject> actual   = index.query(ids, older, newer, index_above, index_below, limit, offset, sort, NOW);
+			assertEquals(String.format("query %d", i), ids(expected), ids(actual));
+		}
+
+		assertTrue(index.purgeExpired(NOW) > 0);
+		assertEquals(serverQuery(all, null, null, null, null, null, null, null, null, NOW).size(), index.size());
+	}
+
+	/**
+	 * Reference implementation of server query semantics, evaluated by scanning every record
+	 */
+	private static List<WeaveBasicObject> serverQuery(Collection<WeaveBasicObject> all, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, double now) {
+		Collection<String> wanted = ids == null ? null : new LinkedHashSet<String>(Arrays.asList(ids));
+
+		List<WeaveBasicObject> matched = new ArrayList<WeaveBasicObject>();
+		for (WeaveBasicObject wbo: all) {
+			Long sortindex = wbo.getSortindex();
+			if ( wanted != null && !wanted.contains(wbo.getId()) ) {
+				continue;
+			}
+			if ( older != null && wbo.getModified() >= older ) {
+				continue;
+			}
+			if ( newer != null && wbo.getModified() <= newer ) {
+				continue;
+			}
+			if ( index_above != null && (sortindex == null || sortindex <= index_above) ) {
+				continue;
+			}
+			if ( index_below != null && (sortindex == null || sortindex >= index_below) ) {
+				continue;
+			}
+			if ( wbo.getTtl() != null && wbo.getModified() + wbo.getTtl() <= now ) {
+				continue;
+			}
+			matched.add(wbo);
+		}
+
+		final boolean byIndex = "index".equals(sort);
+		final boolean reverse = byIndex || "newest".equals(sort);
+		Collections.sort(matched, new Comparator<WeaveBasicObject>() {
+			public int compare(WeaveBasicObject a, WeaveBasicObject b) {
+				int cmp = 0;
+				if ( byIndex ) {
+					//Null sortindex lowest
+					long ai = a.getSortindex() == null ? Long.MIN_VALUE : a.getSortindex();
+					long bi = b.getSortindex() == null ? Long.MIN_VALUE : b.getSortindex();
+					cmp = ai < bi ? -1 : (ai > bi ? 1 : 0);
+				} else {
+					cmp = Double.compare(a.getModified(), b.getModified());
+				}
+				if ( cmp == 0 ) {
+					cmp = a.getId().compareTo(b.getId());
+				}
+				return reverse ? -cmp : cmp;
+			}
+		});
+
+		int from = offset == null ? 0 : offset;
+		int to   = limit == null ? matched.size() : Math.min(matched.size(), from + limit);
+		return from >= matched.size() ? new ArrayList<WeaveBasicObject>() : matched.subList(from, to);
+	}
+}
@@ -0,0 +1,84 @@
+package org.exfio.weave.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.Locale;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AUTH;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.protocol.HTTP;
+import org.junit.Test;
+
+public class ClockSkewTrackerTest {
+
+	private static final String HOST = "sync.example.com";
+
+	private static String seconds(long offset) {
+		return String.format(Locale.ROOT, "%.2f", System.currentTimeMillis() / 1000.0 + offset);
+	}
+
+	@Test
+	public void testWeaveTimestamp() {
+		ClockSkewTracker tracker = new ClockSkewTracker();
+		assertEquals(0, tracker.getSkew(HOST));
+
+		tracker.recordResponse(HOST, HttpResponses.response(HttpStatus.SC_OK, ClockSkewTracker.HEADER_TIMESTAMP, seconds(300)));
+		assertEquals(300, tracker.getSkew(HOST), 1);
+
+		tracker.recordResponse(HOST, HttpResponses.response(HttpStatus.SC_OK, ClockSkewTracker.HEADER_TIMESTAMP, seconds(-120)));
+		assertEquals(-120, tracker.getSkew(HOST), 1);
+
+		//Tracked per host
+		assertEquals(0, tracker.getSkew("other.example.com"));
+	}
+
+	@Test
+	public void testHawkTimestampPreferred() {
+		ClockSkewTracker tracker = new ClockSkewTracker();
+		long ts = System.currentTimeMillis() / 1000 + 600;
+		tracker.recordResponse(HOST, HttpResponses.response(HttpStatus.SC_UNAUTHORIZED,
+			AUTH.WWW_AUTH, String.format("Hawk ts=\"%d\", tsm=\"abc\", error=\"Stale timestamp\"", ts),
+			ClockSkewTracker.HEADER_TIMESTAMP, seconds(0)
+		));
+		assertEquals(600, tracker.getSkew(HOST), 1);
+	}
+
+	@Test
+	public void testDateFallback() {
+		ClockSkewTracker tracker = new ClockSkewTracker();
+		Date date = new Date(System.currentTimeMillis() - 3600000);
+		tracker.recordResponse(HOST, HttpResponses.response(HttpStatus.SC_OK, HTTP.DATE_HEADER, DateUtils.formatDate(date)));
+		assertEquals(-3600, tracker.getSkew(HOST), 1);
+	}
+
+	@Test
+	public void testInvalidTimestampIgnored() {
+		ClockSkewTracker tracker = new ClockSkewTracker();
+		tracker.setSkew(HOST, 42);
+
+		assertNull(tracker.recordResponse(HOST, HttpResponses.response(HttpStatus.SC_OK, ClockSkewTracker.HEADER_TIMESTAMP, "yesterday")));
+		assertNull(tracker.recordResponse(HOST, HttpResponses.response(HttpStatus.SC_OK, ClockSkewTracker.HEADER_TIMESTAMP, "1e400")));
+		assertNull(tracker.recordResponse(HOST, HttpResponses.response(HttpStatus.SC_UNAUTHORIZED, AUTH.WWW_AUTH, "Hawk ts=\"99999999999999999999999\"")));
+		assertEquals(42, tracker.getSkew(HOST));
+	}
+
+	@Test
+	public void testSkewError() {
+		ClockSkewTracker tracker = new ClockSkewTracker();
+
+		assertTrue(tracker.isSkewError(HOST, HttpResponses.response(HttpStatus.SC_UNAUTHORIZED, AUTH.WWW_AUTH, "Hawk ts=\"1353832234\""), 0));
+		assertFalse(tracker.isSkewError(HOST, HttpResponses.response(HttpStatus.SC_UNAUTHORIZED, AUTH.WWW_AUTH, "Hawk ts=\"99999999999999999999999\""), 0));
+		assertFalse(tracker.isSkewError(HOST, HttpResponses.response(HttpStatus.SC_UNAUTHORIZED), 0));
+
+		//Estimate has moved since request was signed
+		tracker.setSkew(HOST, 120);
+		assertTrue(tracker.isSkewError(HOST, HttpResponses.response(HttpStatus.SC_UNAUTHORIZED), 0));
+		assertFalse(tracker.isSkewError(HOST, HttpResponses.response(HttpStatus.SC_UNAUTHORIZED), 120));
+		assertFalse(tracker.isSkewError(HOST, HttpResponses.response(HttpStatus.SC_FORBIDDEN), 0));
+	}
+}
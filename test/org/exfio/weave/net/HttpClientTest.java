@@ -0,0 +1,30 @@
+package org.exfio.weave.net;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Test;
+
+public class HttpClientTest {
+
+	@Test
+	public void testClosedClient() throws IOException, GeneralSecurityException {
+		HttpClient client = new HttpClient();
+		client.close();
+		assertTrue(client.isClosed());
+
+		try {
+			client.execute(new HttpGet("http://127.0.0.1/"));
+			throw new AssertionError("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			//expected
+		}
+
+		//Shared pool is unaffected
+		assertFalse(client.getConnectionPool().isClosed());
+	}
+}
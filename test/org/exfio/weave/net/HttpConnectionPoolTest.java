@@ -0,0 +1,33 @@
+package org.exfio.weave.net;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class HttpConnectionPoolTest {
+
+	@Test
+	public void testDefaultInstanceNotClosed() throws IOException {
+		HttpConnectionPool pool = HttpConnectionPool.getDefaultInstance();
+		pool.close();
+
+		assertFalse(pool.isClosed());
+		assertSame(pool, HttpConnectionPool.getDefaultInstance());
+		pool.getHttpAsyncClient();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testClosedPool() throws IOException {
+		HttpConnectionPool pool = new HttpConnectionPool();
+		pool.close();
+		assertTrue(pool.isClosed());
+
+		//Repeated close is harmless
+		pool.close();
+		pool.getHttpAsyncClient();
+	}
+}
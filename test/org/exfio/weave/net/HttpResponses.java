@@ -0,0 +1,27 @@
+package org.exfio.weave.net;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * HttpResponses
+ *
+ * Canned responses for tests of response header handling
+ *
+ */
+public class HttpResponses {
+
+	/**
+	 * response()
+	 *
+	 * @param headers header names and values, alternating
+	 */
+	public static HttpResponse response(int code, String... headers) {
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, code, null);
+		for (int i = 0; i + 1 < headers.length; i += 2) {
+			response.addHeader(headers[i], headers[i + 1]);
+		}
+		return response;
+	}
+}
@@ -0,0 +1,152 @@
+package org.exfio.weave.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Date;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.protocol.HttpCoreContext;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RetrySchedulerTest {
+
+	private static final String HOST = "sync.example.com";
+
+	private HttpClientParams params;
+	private RetryScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		params = new HttpClientParams();
+		params.retryBaseDelay = 100;
+		params.retryMaxDelay  = 60000;
+		scheduler = new RetryScheduler(params, null);
+	}
+
+	@Test
+	public void testRetryAfterSeconds() {
+		scheduler.recordResponse(HOST, HttpResponses.response(HttpStatus.SC_SERVICE_UNAVAILABLE, RetryScheduler.HEADER_RETRY_AFTER, "30"));
+
+		long delay = scheduler.getRequiredDelay(HOST);
+		assertTrue(delay > 29000 && delay <= 30000);
+		assertTrue(scheduler.isBackingOff(HOST));
+		assertTrue(scheduler.getRetryDelay(HOST, new HttpGet("http://" + HOST + "/"), HttpResponses.response(HttpStatus.SC_SERVICE_UNAVAILABLE), null, 0) >= 29000);
+	}
+
+	@Test
+	public void testRetryAfterDate() {
+		Date date = new Date(System.currentTimeMillis() + 120000);
+		scheduler.recordResponse(HOST, HttpResponses.response(RetryScheduler.SC_TOO_MANY_REQUESTS, RetryScheduler.HEADER_RETRY_AFTER, DateUtils.formatDate(date)));
+
+		//HTTP dates have one second resolution
+		long delay = scheduler.getRequiredDelay(HOST);
+		assertTrue(delay > 118000 && delay <= 120000);
+
+		//Longer than retryMaxDelay, hence not waited for
+		assertEquals(-1, scheduler.getRetryDelay(HOST, new HttpGet("http://" + HOST + "/"), HttpResponses.response(RetryScheduler.SC_TOO_MANY_REQUESTS), null, 0));
+	}
+
+	@Test
+	public void testRetryAfterIgnored() {
+		//Invalid value
+		scheduler.recordResponse(HOST, HttpResponses.response(HttpStatus.SC_SERVICE_UNAVAILABLE, RetryScheduler.HEADER_RETRY_AFTER, "soon"));
+		assertEquals(0, scheduler.getRequiredDelay(HOST));
+
+		//Only honoured on 503 and 429
+		scheduler.recordResponse(HOST, HttpResponses.response(HttpStatus.SC_OK, RetryScheduler.HEADER_RETRY_AFTER, "30"));
+		assertEquals(0, scheduler.getRequiredDelay(HOST));
+		assertFalse(scheduler.isBackingOff(HOST));
+	}
+
+	@Test
+	public void testWeaveBackoff() {
+		scheduler.recordResponse(HOST, HttpResponses.response(HttpStatus.SC_OK, RetryScheduler.HEADER_BACKOFF, "60"));
+
+		//Advisory only, requests are not delayed
+		assertTrue(scheduler.isBackingOff(HOST));
+		assertEquals(0, scheduler.getRequiredDelay(HOST));
+		assertFalse(scheduler.isBackingOff("other.example.com"));
+	}
+
+	@Test
+	public void testIdempotentOnlyAfterException() {
+		IOException e = new IOException("Connection reset");
+
+		long delay = scheduler.getRetryDelay(HOST, new HttpGet("http://" + HOST + "/"), null, e, 0);
+		assertTrue(delay >= 0 && delay <= params.retryBaseDelay);
+
+		assertEquals(-1, scheduler.getRetryDelay(HOST, new HttpPost("http://" + HOST + "/"), null, e, 0));
+	}
+
+	@Test
+	public void testUnsentRequestAfterException() {
+		IOException e = new IOException("Connection refused");
+		HttpPost post = new HttpPost("http://" + HOST + "/");
+
+		//Connect failure or stale pooled connection, request never written
+		HttpClientContext context = HttpClientContext.create();
+		assertTrue(scheduler.getRetryDelay(HOST, post, context, null, e, 0) >= 0);
+
+		context.setAttribute(HttpCoreContext.HTTP_REQ_SENT, Boolean.FALSE);
+		assertTrue(scheduler.getRetryDelay(HOST, post, context, null, e, 0) >= 0);
+
+		//Server may have processed request
+		context.setAttribute(HttpCoreContext.HTTP_REQ_SENT, Boolean.TRUE);
+		assertEquals(-1, scheduler.getRetryDelay(HOST, post, context, null, e, 0));
+		assertTrue(scheduler.getRetryDelay(HOST, new HttpGet("http://" + HOST + "/"), context, null, e, 0) >= 0);
+	}
+
+	@Test
+	public void testRetryableResponses() {
+		HttpPost post = new HttpPost("http://" + HOST + "/");
+
+		//Server did not process request, hence safe to retry any method
+		assertTrue(scheduler.getRetryDelay(HOST, post, HttpResponses.response(HttpStatus.SC_SERVICE_UNAVAILABLE), null, 0) >= 0);
+		assertTrue(scheduler.getRetryDelay(HOST, post, HttpResponses.response(RetryScheduler.SC_TOO_MANY_REQUESTS), null, 0) >= 0);
+
+		assertEquals(-1, scheduler.getRetryDelay(HOST, post, HttpResponses.response(HttpStatus.SC_INTERNAL_SERVER_ERROR), null, 0));
+		assertEquals(-1, scheduler.getRetryDelay(HOST, post, HttpResponses.response(HttpStatus.SC_PRECONDITION_FAILED), null, 0));
+	}
+
+	@Test
+	public void testMaxRetries() {
+		HttpGet get = new HttpGet("http://" + HOST + "/");
+		assertTrue(scheduler.getRetryDelay(HOST, get, HttpResponses.response(HttpStatus.SC_SERVICE_UNAVAILABLE), null, params.maxRetries - 1) >= 0);
+		assertEquals(-1, scheduler.getRetryDelay(HOST, get, HttpResponses.response(HttpStatus.SC_SERVICE_UNAVAILABLE), null, params.maxRetries));
+	}
+
+	@Test
+	public void testRetryBudget() {
+		params.retryBudget         = 3;
+		params.retryBudgetInterval = 3600000;
+
+		HttpGet get = new HttpGet("http://" + HOST + "/");
+		for (int i = 0; i < params.retryBudget; i++) {
+			assertTrue(scheduler.getRetryDelay(HOST, get, HttpResponses.response(HttpStatus.SC_SERVICE_UNAVAILABLE), null, 0) >= 0);
+		}
+		assertEquals(-1, scheduler.getRetryDelay(HOST, get, HttpResponses.response(HttpStatus.SC_SERVICE_UNAVAILABLE), null, 0));
+
+		//Budget is per host
+		assertTrue(scheduler.getRetryDelay("other.example.com", get, HttpResponses.response(HttpStatus.SC_SERVICE_UNAVAILABLE), null, 0) >= 0);
+	}
+
+	@Test
+	public void testHostsBounded() {
+		scheduler.recordResponse(HOST, HttpResponses.response(HttpStatus.SC_OK, RetryScheduler.HEADER_BACKOFF, "60"));
+		assertTrue(scheduler.isBackingOff(HOST));
+
+		//Least recently used host is dropped
+		for (int i = 0; i < RetryScheduler.MAX_HOSTS; i++) {
+			scheduler.isBackingOff("node" + i + ".example.com");
+		}
+		assertFalse(scheduler.isBackingOff(HOST));
+	}
+}
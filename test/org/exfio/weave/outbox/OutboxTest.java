@@ -0,0 +1,203 @@
+package org.exfio.weave.outbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.client.StubWeaveClient;
+import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
+import org.exfio.weave.storage.StorageContext;
+import org.exfio.weave.storage.StubStorageServer;
+import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.storage.WeavePostResult;
+
+public class OutboxTest {
+
+	private static final String COLLECTION = "bookmarks";
+
+	//Server state, records with ids starting "bad" are rejected
+	private double modified = 100.0;
+	private Map<String, String> stored = new LinkedHashMap<String, String>();
+	private List<List<String>> posts = Collections.synchronizedList(new ArrayList<List<String>>());
+
+	private StubStorageServer server;
+	private Connection db;
+	private Outbox outbox;
+
+	@Before
+	public void setUp() throws IOException, SQLException, WeaveException {
+		server = new StubStorageServer(new StubStorageServer.Handler() {
+			@SuppressWarnings("unchecked")
+			public void handle(HttpExchange exchange) throws IOException {
+				String condition = exchange.getRequestHeaders().getFirst(StorageContext.HEADER_IF_UNMODIFIED_SINCE);
+				JSONArray body = (JSONArray)JSONValue.parse(StubStorageServer.readBody(exchange));
+
+				synchronized(OutboxTest.this) {
+					if ( condition != null && Double.parseDouble(condition) < modified ) {
+						StubStorageServer.respond(exchange, 412, null, null);
+						return;
+					}
+
+					List<String> ids = new ArrayList<String>();
+					JSONArray success = new JSONArray();
+					JSONObject failed = new JSONObject();
+					for (Object record: body) {
+						String id = (String)((JSONObject)record).get("id");
+						ids.add(id);
+						if ( id.startsWith("bad") ) {
+							failed.put(id, "invalid");
+						} else {
+							success.add(id);
+							stored.put(id, (String)((JSONObject)record).get("payload"));
+						}
+					}
+					posts.add(ids);
+					modified += 1;
+
+					JSONObject result = new JSONObject();
+					result.put("modified", modified);
+					result.put("success", success);
+					result.put("failed", failed);
+					StubStorageServer.respond(exchange, 200, "application/json", result.toJSONString());
+				}
+			}
+		});
+
+		db = DriverManager.getConnection("jdbc:sqlite::memory:");
+		outbox = new Outbox(new StubWeaveClient(server.createStorageContext(ApiVersion.v1_5)), db);
+		outbox.setEncrypt(false);
+	}
+
+	@After
+	public void tearDown() throws IOException, SQLException {
+		outbox.close();
+		db.close();
+		server.close();
+	}
+
+	private void put(String id, String payload) throws WeaveException {
+		outbox.put(COLLECTION, id, new WeaveBasicObject(id, null, null, null, payload));
+	}
+
+	@Test
+	public void testCollapse() throws WeaveException {
+		put("a", "v1");
+		put("b", "v1");
+		put("a", "v2");
+		put("a", "v3");
+		assertEquals(2, outbox.getPendingCount());
+
+		WeavePostResult result = outbox.flush(COLLECTION);
+		assertEquals(2, result.getSuccess().size());
+		assertEquals(1, posts.size());
+		assertEquals(2, posts.get(0).size());
+		assertEquals("v3", stored.get("a"));
+		assertEquals("v1", stored.get("b"));
+		assertEquals(0, outbox.getPendingCount());
+	}
+
+	@Test
+	public void testBatches() throws WeaveException {
+		outbox.setBatchSize(3);
+		for (int i = 0; i < 7; i++) {
+			put("id" + i, "v1");
+		}
+
+		WeavePostResult result = outbox.flush(COLLECTION);
+		assertEquals(7, result.getSuccess().size());
+		assertEquals(3, posts.size());
+		assertEquals(Arrays.asList("id0", "id1", "id2"), posts.get(0));
+		assertEquals(Arrays.asList("id6"), posts.get(2));
+		assertEquals(0, outbox.getPendingCount());
+	}
+
+	@Test
+	public void testConflict() throws WeaveException {
+		final List<Double> conflicts = new ArrayList<Double>();
+		outbox.setListener(new Outbox.Listener() {
+			public void flushed(String collection, WeavePostResult result) {}
+			public void conflict(String collection, Double base) {
+				conflicts.add(base);
+			}
+		});
+
+		put("a", "v1");
+		put("b", "v1");
+
+		//Modified by another client since base
+		outbox.setBase(COLLECTION, 99.0);
+		assertNull(outbox.flush(COLLECTION));
+		assertEquals(Arrays.asList(99.0), conflicts);
+		assertEquals(2, outbox.getPendingCount());
+		assertTrue(stored.isEmpty());
+
+		//Caller merges remote changes and sets new base
+		outbox.setBase(COLLECTION, 100.0);
+		WeavePostResult result = outbox.flush(COLLECTION);
+		assertEquals(2, result.getSuccess().size());
+		assertEquals(0, outbox.getPendingCount());
+
+		//Subsequent uploads are based on our own changes
+		assertEquals(101.0, outbox.getBase(COLLECTION), 0);
+		put("c", "v1");
+		assertEquals(1, outbox.flush(COLLECTION).getSuccess().size());
+		assertEquals(1, conflicts.size());
+	}
+
+	@Test
+	public void testMaxAttempts() throws WeaveException {
+		outbox.setMaxAttempts(3);
+		put("a", "v1");
+		put("bad", "v1");
+
+		WeavePostResult result = outbox.flush(COLLECTION);
+		assertEquals(Arrays.asList("a"), result.getSuccess());
+		assertTrue(result.getFailed().containsKey("bad"));
+		assertEquals(1, outbox.getPendingCount());
+
+		outbox.flush(COLLECTION);
+		assertEquals(1, outbox.getPendingCount());
+
+		//Dropped after third attempt
+		outbox.flush(COLLECTION);
+		assertEquals(0, outbox.getPendingCount());
+		assertEquals(3, posts.size());
+		assertEquals(Arrays.asList("bad"), posts.get(2));
+	}
+
+	@Test
+	public void testRequeueResetsAttempts() throws WeaveException {
+		outbox.setMaxAttempts(2);
+		put("bad", "v1");
+		outbox.flush(COLLECTION);
+		assertEquals(1, outbox.getPendingCount());
+
+		//Newer version replaces failed record
+		put("bad", "v2");
+		outbox.flush(COLLECTION);
+		assertEquals(1, outbox.getPendingCount());
+		outbox.flush(COLLECTION);
+		assertEquals(0, outbox.getPendingCount());
+	}
+}
@@ -0,0 +1,214 @@
+package org.exfio.weave.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.exfio.weave.WeaveException;
+
+public class BatchUploadSessionTest {
+
+	//Server behaviour
+	private volatile boolean batchSupported = true;
+	private volatile String rejectId = null;
+
+	//Requests received, and records visible to readers
+	private List<Map<String, String>> posts = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+	private List<String> staged    = Collections.synchronizedList(new ArrayList<String>());
+	private List<String> committed = Collections.synchronizedList(new ArrayList<String>());
+
+	private StubStorageServer server;
+	private StorageV1_5 storage;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubStorageServer(new StubStorageServer.Handler() {
+			@SuppressWarnings("unchecked")
+			public void handle(HttpExchange exchange) throws IOException {
+				if ( exchange.getRequestURI().getPath().endsWith("info/configuration") ) {
+					if ( batchSupported ) {
+						StubStorageServer.respond(exchange, 200, StorageContext.MEDIA_TYPE_JSON, "{\"max_post_records\": 3}");
+					} else {
+						StubStorageServer.respond(exchange, 404, null, null);
+					}
+					return;
+				}
+
+				Map<String, String> params = StubStorageServer.getParams(exchange);
+				posts.add(params);
+
+				JSONArray records = null;
+				try {
+					records = (JSONArray)new JSONParser().parse(StubStorageServer.readBody(exchange));
+				} catch (ParseException e) {
+					throw new IOException(e);
+				}
+
+				JSONObject response = new JSONObject();
+				JSONArray success   = new JSONArray();
+				JSONObject failed   = new JSONObject();
+				for (Object record: records) {
+					String id = (String)((JSONObject)record).get("id");
+					if ( id.equals(rejectId) ) {
+						failed.put(id, "invalid");
+					} else {
+						success.add(id);
+						( params.containsKey("batch") && batchSupported ? staged : committed ).add(id);
+					}
+				}
+				if ( batchSupported && "true".equals(params.get("batch")) ) {
+					response.put("batch", "b1");
+				}
+				if ( "true".equals(params.get("commit")) ) {
+					committed.addAll(staged);
+					staged.clear();
+				}
+				response.put("modified", 1400000000.0);
+				response.put("success", success);
+				response.put("failed", failed);
+				StubStorageServer.respond(exchange, 200, StorageContext.MEDIA_TYPE_JSON, response.toJSONString());
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		storage.close();
+		server.close();
+	}
+
+	private BatchUploadSession startSession() throws WeaveException {
+		storage = new StorageV1_5();
+		storage.setResponseCache(null);
+		storage.init(server.getStorageURL(), "hawkid", new byte[32]);
+		return storage.startBatchUpload("bookmarks");
+	}
+
+	private static List<WeaveBasicObject> records(int count) {
+		List<WeaveBasicObject> wbos = new ArrayList<WeaveBasicObject>();
+		for (int i = 0; i < count; i++) {
+			wbos.add(new WeaveBasicObject("id" + i, null, null, null, "{}"));
+		}
+		return wbos;
+	}
+
+	@Test
+	public void testAtomicCommit() throws Exception {
+		BatchUploadSession session = startSession();
+		assertTrue(session.isAtomic());
+
+		session.addAll(records(8));
+		assertTrue(committed.isEmpty());
+
+		WeavePostResult result = session.commit();
+		assertEquals(8, result.getSuccess().size());
+		assertFalse(result.hasFailures());
+		assertEquals(8, committed.size());
+
+		//Three batches of at most 3 records then commit
+		assertEquals(4, posts.size());
+		assertEquals("true", posts.get(0).get("batch"));
+		for (Map<String, String> params: posts.subList(1, 4)) {
+			assertEquals("b1", params.get("batch"));
+		}
+		assertEquals("true", posts.get(3).get("commit"));
+		assertNull(posts.get(2).get("commit"));
+	}
+
+	@Test
+	public void testRejectedRecordAbandonsBatch() throws Exception {
+		rejectId = "id4";
+
+		BatchUploadSession session = startSession();
+		try {
+			session.addAll(records(8));
+			session.commit();
+			fail("Batch committed with failed record");
+		} catch (WeaveException e) {
+			//Expected
+		}
+
+		assertTrue(committed.isEmpty());
+		for (Map<String, String> params: posts) {
+			assertNull(params.get("commit"));
+		}
+	}
+
+	@Test
+	public void testOversizeRecordAbandonsBatch() throws Exception {
+		BatchUploadSession session = startSession();
+		StringBuilder payload = new StringBuilder();
+		for (int i = 0; i < StorageContext.DEFAULT_MAX_POST_BYTES; i++) {
+			payload.append('x');
+		}
+
+		session.addAll(records(2));
+		try {
+			session.add(new WeaveBasicObject("big", null, null, null, payload.toString()));
+			fail("Oversize record accepted");
+		} catch (WeaveException e) {
+			//Expected
+		}
+		try {
+			session.commit();
+			fail("Abandoned batch committed");
+		} catch (WeaveException e) {
+			//Expected
+		}
+
+		assertTrue(posts.isEmpty());
+		assertTrue(committed.isEmpty());
+	}
+
+	@Test
+	public void testBatchNotSupported() throws Exception {
+		batchSupported = false;
+
+		BatchUploadSession session = startSession();
+		assertFalse(session.isAtomic());
+
+		session.addAll(records(2));
+		try {
+			session.commit();
+			fail("Non-atomic upload without opt in");
+		} catch (WeaveException e) {
+			//Expected
+		}
+		assertTrue(posts.isEmpty());
+	}
+
+	@Test
+	public void testAllowNonAtomic() throws Exception {
+		batchSupported = false;
+
+		BatchUploadSession session = startSession();
+		session.setAllowNonAtomic(true);
+		session.addAll(records(5));
+		WeavePostResult result = session.commit();
+
+		assertFalse(session.isAtomic());
+		assertEquals(5, result.getSuccess().size());
+		assertEquals(5, committed.size());
+		for (Map<String, String> params: posts) {
+			assertNull(params.get("batch"));
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package org.exfio.weave.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.json.simple.JSONObject;
+
+import org.exfio.weave.Constants;
+import org.exfio.weave.WeaveException;
+
+/**
+ * CollectionResponses
+ *
+ * Canned collection responses and records for iterator tests. Content is handed out a few bytes per read so that
+ * records, and multi-byte characters, straddle reader buffer boundaries.
+ *
+ */
+public class CollectionResponses {
+
+	public static HttpResponse response(String body, String mediaType, int chunkSize) {
+		BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		InputStream content = new ChunkedInputStream(new ByteArrayInputStream(body.getBytes(Constants.UTF8)), chunkSize);
+		response.setEntity(new InputStreamEntity(content, -1, ContentType.create(mediaType, Constants.UTF8)));
+		return response;
+	}
+
+	/**
+	 * payload()
+	 *
+	 * Payload of given length including characters that need escaping and multi-byte encoding
+	 */
+	public static String payload(int seed, int length) {
+		String alphabet = "abcdefghijé中\"\\/\n€";
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append(alphabet.charAt((seed + i) % alphabet.length()));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * records()
+	 *
+	 * Records with ascending modified and sortindex, see payload()
+	 */
+	public static List<WeaveBasicObject> records(int count, int payloadLength) {
+		List<WeaveBasicObject> wbos = new ArrayList<WeaveBasicObject>();
+		for (int i = 0; i < count; i++) {
+			wbos.add(new WeaveBasicObject("id" + i, 1400000000.0 + i, (long)i, null, payload(i, payloadLength)));
+		}
+		return wbos;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static String encode(WeaveBasicObject wbo) {
+		JSONObject jsonObject = new JSONObject();
+		jsonObject.put("id", wbo.getId());
+		jsonObject.put("modified", wbo.getModified());
+		jsonObject.put("sortindex", wbo.getSortindex());
+		jsonObject.put("payload", wbo.getPayload());
+		return jsonObject.toJSONString();
+	}
+
+	public static List<WeaveBasicObject> readAll(WeaveCollectionIterator iterator) throws WeaveException {
+		List<WeaveBasicObject> wbos = new ArrayList<WeaveBasicObject>();
+		try {
+			while ( iterator.hasNext() ) {
+				wbos.add(iterator.next());
+			}
+		} finally {
+			iterator.close();
+		}
+		return wbos;
+	}
+
+	public static void assertRecords(List<WeaveBasicObject> expected, List<WeaveBasicObject> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getId(), actual.get(i).getId());
+			assertEquals(expected.get(i).getModified(), actual.get(i).getModified());
+			assertEquals(expected.get(i).getSortindex(), actual.get(i).getSortindex());
+			assertEquals(expected.get(i).getPayload(), actual.get(i).getPayload());
+		}
+	}
+
+	private static class ChunkedInputStream extends FilterInputStream {
+		private int chunkSize;
+
+		ChunkedInputStream(InputStream in, int chunkSize) {
+			super(in);
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return super.read(b, off, Math.min(len, chunkSize));
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package org.exfio.weave.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import org.exfio.weave.WeaveException;
+
+public class JSONArrayCollectionIteratorTest {
+
+	private static String encode(List<WeaveBasicObject> wbos) {
+		StringBuilder sb = new StringBuilder("[");
+		for (WeaveBasicObject wbo: wbos) {
+			sb.append(sb.length() > 1 ? "," : "").append(CollectionResponses.encode(wbo));
+		}
+		return sb.append("]").toString();
+	}
+
+	private static List<WeaveBasicObject> readAll(String body, int chunkSize) throws WeaveException {
+		return CollectionResponses.readAll(new JSONArrayCollectionIterator(CollectionResponses.response(body, StorageContext.MEDIA_TYPE_JSON, chunkSize)));
+	}
+
+	@Test
+	public void testRecordsSpanningParserBuffer() throws WeaveException {
+		//Parser and reader buffer 16k and 8k chars respectively
+		List<WeaveBasicObject> wbos = CollectionResponses.records(40, 5000);
+		CollectionResponses.assertRecords(wbos, readAll(encode(wbos), 8192));
+	}
+
+	@Test
+	public void testSingleByteReads() throws WeaveException {
+		List<WeaveBasicObject> wbos = CollectionResponses.records(5, 300);
+		CollectionResponses.assertRecords(wbos, readAll(encode(wbos), 1));
+	}
+
+	@Test
+	public void testWhitespaceAndNestedValues() throws WeaveException {
+		String body = " [ \n{\"id\": \"a\", \"modified\": 10, \"payload\": \"{\\\"x\\\":[1,[2]]}\", \"extra\": {\"k\": [true, null]}} ,\n"
+			+ "{\"id\":\"b\",\"modified\":11.5,\"payload\":\"\"}\n]\n";
+		List<WeaveBasicObject> wbos = readAll(body, 3);
+		assertEquals(2, wbos.size());
+		assertEquals("a", wbos.get(0).getId());
+		assertEquals(Double.valueOf(10), wbos.get(0).getModified());
+		assertEquals("{\"x\":[1,[2]]}", wbos.get(0).getPayload());
+		assertEquals("b", wbos.get(1).getId());
+		assertEquals(Double.valueOf(11.5), wbos.get(1).getModified());
+		assertNull(wbos.get(1).getSortindex());
+	}
+
+	@Test
+	public void testEmptyCollection() throws WeaveException {
+		assertEquals(0, readAll("[]", 1).size());
+		assertEquals(0, readAll(" [ ] ", 1).size());
+	}
+
+	@Test
+	public void testTruncatedCollection() throws WeaveException {
+		List<WeaveBasicObject> wbos = CollectionResponses.records(3, 100);
+		String body = encode(wbos);
+
+		WeaveCollectionIterator iterator = new JSONArrayCollectionIterator(CollectionResponses.response(body.substring(0, body.length() - 20), StorageContext.MEDIA_TYPE_JSON, 7));
+		assertEquals("id0", iterator.next().getId());
+		assertEquals("id1", iterator.next().getId());
+		try {
+			iterator.hasNext();
+			fail("Truncated record accepted");
+		} catch (WeaveException e) {
+			//Expected
+		}
+		assertFalse(iterator.hasNext());
+	}
+
+	@Test(expected = WeaveException.class)
+	public void testNonObjectRecord() throws WeaveException {
+		readAll("[{\"id\":\"a\",\"modified\":1,\"payload\":\"x\"}, 1]", 4);
+	}
+
+	@Test(expected = WeaveException.class)
+	public void testNotArray() throws WeaveException {
+		readAll("{\"id\":\"a\",\"payload\":\"x\"}", 4);
+	}
+}
@@ -0,0 +1,68 @@
+package org.exfio.weave.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import org.exfio.weave.WeaveException;
+
+public class NewlinesCollectionIteratorTest {
+
+	private static List<WeaveBasicObject> readAll(String body, int chunkSize) throws WeaveException {
+		return CollectionResponses.readAll(new NewlinesCollectionIterator(CollectionResponses.response(body, StorageContext.MEDIA_TYPE_NEWLINES, chunkSize)));
+	}
+
+	@Test
+	public void testLinesSpanningReaderBuffer() throws WeaveException {
+		//Reader buffers 8k chars, escaped newlines in payload must not split records
+		List<WeaveBasicObject> wbos = CollectionResponses.records(20, 10000);
+		StringBuilder body = new StringBuilder();
+		for (WeaveBasicObject wbo: wbos) {
+			body.append(CollectionResponses.encode(wbo)).append("\n");
+		}
+		CollectionResponses.assertRecords(wbos, readAll(body.toString(), 4096));
+	}
+
+	@Test
+	public void testSingleByteReads() throws WeaveException {
+		List<WeaveBasicObject> wbos = CollectionResponses.records(5, 200);
+		StringBuilder body = new StringBuilder();
+		for (WeaveBasicObject wbo: wbos) {
+			body.append(CollectionResponses.encode(wbo)).append("\n");
+		}
+		CollectionResponses.assertRecords(wbos, readAll(body.toString(), 1));
+	}
+
+	@Test
+	public void testLineEndings() throws WeaveException {
+		List<WeaveBasicObject> wbos = CollectionResponses.records(3, 50);
+		String body = CollectionResponses.encode(wbos.get(0)) + "\r\n" + CollectionResponses.encode(wbos.get(1)) + "\n\n  \n" + CollectionResponses.encode(wbos.get(2));
+		CollectionResponses.assertRecords(wbos, readAll(body, 5));
+	}
+
+	@Test
+	public void testEmptyCollection() throws WeaveException {
+		assertEquals(0, readAll("", 1).size());
+		assertEquals(0, readAll("\n", 1).size());
+	}
+
+	@Test
+	public void testInvalidLine() throws WeaveException {
+		List<WeaveBasicObject> wbos = CollectionResponses.records(2, 50);
+		String body = CollectionResponses.encode(wbos.get(0)) + "\n[1, 2]\n" + CollectionResponses.encode(wbos.get(1)) + "\n";
+
+		WeaveCollectionIterator iterator = new NewlinesCollectionIterator(CollectionResponses.response(body, StorageContext.MEDIA_TYPE_NEWLINES, 16));
+		assertEquals("id0", iterator.next().getId());
+		try {
+			iterator.hasNext();
+			fail("Non-object record accepted");
+		} catch (WeaveException e) {
+			//Expected
+		}
+		assertFalse(iterator.hasNext());
+	}
+}
@@ -0,0 +1,185 @@
+package org.exfio.weave.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.client.PreconditionFailedException;
+import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
+
+public class PagedCollectionTest {
+
+	private static final int COUNT = 10;
+
+	//Collection state, modified by tests while a paged fetch is in progress
+	private volatile int version = 1;
+	private volatile int modifyAfterRequests = -1;
+	private volatile boolean nextOffsetHeader = true;
+	private List<Map<String, String>> requests = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+	private List<String> ifUnmodifiedSince = Collections.synchronizedList(new ArrayList<String>());
+
+	private StubStorageServer server;
+
+	private String lastModified() {
+		return String.format("%d.00", 1400000000 + version);
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		server = new StubStorageServer(new StubStorageServer.Handler() {
+			@SuppressWarnings("unchecked")
+			public void handle(HttpExchange exchange) throws IOException {
+				Map<String, String> params = StubStorageServer.getParams(exchange);
+				String condition = exchange.getRequestHeaders().getFirst(StorageContext.HEADER_IF_UNMODIFIED_SINCE);
+				requests.add(params);
+				ifUnmodifiedSince.add(condition);
+
+				if ( condition != null && !condition.equals(lastModified()) ) {
+					StubStorageServer.respond(exchange, 412, null, null);
+					return;
+				}
+
+				int limit  = Integer.parseInt(params.get("limit"));
+				int offset = ( params.containsKey("offset") ? Integer.parseInt(params.get("offset").replace("token", "")) : 0 );
+
+				JSONArray jsonArray = new JSONArray();
+				for (int i = offset; i < Math.min(offset + limit, COUNT); i++) {
+					String id = String.format("v%d-%d", version, i);
+					if ( params.containsKey("full") ) {
+						JSONObject jsonObject = new JSONObject();
+						jsonObject.put("id", id);
+						jsonObject.put("modified", 1400000000.0 + version);
+						jsonObject.put("payload", "{}");
+						jsonArray.add(jsonObject);
+					} else {
+						jsonArray.add(id);
+					}
+				}
+
+				List<String> headers = new ArrayList<String>();
+				headers.add(StorageContext.HEADER_LAST_MODIFIED);
+				headers.add(lastModified());
+				if ( nextOffsetHeader && offset + limit < COUNT ) {
+					headers.add(StorageContext.HEADER_NEXT_OFFSET);
+					headers.add("token" + (offset + limit));
+				}
+				StubStorageServer.respond(exchange, 200, StorageContext.MEDIA_TYPE_JSON, jsonArray.toJSONString(), headers.toArray(new String[headers.size()]));
+
+				if ( requests.size() == modifyAfterRequests ) {
+					version++;
+				}
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	private static String[] expectedIds(int version) {
+		String[] ids = new String[COUNT];
+		for (int i = 0; i < COUNT; i++) {
+			ids[i] = String.format("v%d-%d", version, i);
+		}
+		return ids;
+	}
+
+	@Test
+	public void testCollectionPaged() throws Exception {
+		StorageContext storage = server.createStorageContext(ApiVersion.v1_5);
+		WeaveCollectionIterator iterator = storage.getCollectionPaged("bookmarks", null, null, null, null, null, null, StorageContext.FORMAT_JSON, 3);
+
+		List<String> ids = new ArrayList<String>();
+		while ( iterator.hasNext() ) {
+			ids.add(iterator.next().getId());
+		}
+
+		assertArrayEquals(expectedIds(1), ids.toArray());
+		assertEquals(4, requests.size());
+		assertNull(requests.get(0).get("offset"));
+		assertEquals("3", requests.get(0).get("limit"));
+		for (int i = 1; i < 4; i++) {
+			assertEquals("token" + (i * 3), requests.get(i).get("offset"));
+			assertEquals(lastModified(), ifUnmodifiedSince.get(i));
+		}
+		assertNull(ifUnmodifiedSince.get(0));
+	}
+
+	@Test
+	public void testCollectionPagedModified() throws Exception {
+		modifyAfterRequests = 2;
+
+		StorageContext storage = server.createStorageContext(ApiVersion.v1_5);
+		WeaveCollectionIterator iterator = storage.getCollectionPaged("bookmarks", null, null, null, null, null, null, StorageContext.FORMAT_JSON, 3);
+
+		List<String> ids = new ArrayList<String>();
+		try {
+			while ( iterator.hasNext() ) {
+				ids.add(iterator.next().getId());
+			}
+			fail("Pages of different versions mixed");
+		} catch (WeaveException e) {
+			assertTrue(e.getCause() instanceof PreconditionFailedException);
+		} finally {
+			iterator.close();
+		}
+
+		//Only records of first version handed out
+		for (String id: ids) {
+			assertTrue(id.startsWith("v1-"));
+		}
+	}
+
+	@Test
+	public void testCollectionIdsPaged() throws Exception {
+		StorageContext storage = server.createStorageContext(ApiVersion.v1_5);
+		assertArrayEquals(expectedIds(1), storage.getCollectionIdsPaged("bookmarks", null, null, null, null, null, null, 4));
+		assertEquals(3, requests.size());
+		assertEquals("token4", requests.get(1).get("offset"));
+		assertEquals("token8", requests.get(2).get("offset"));
+	}
+
+	@Test
+	public void testCollectionIdsPagedRestart() throws Exception {
+		modifyAfterRequests = 2;
+
+		StorageContext storage = server.createStorageContext(ApiVersion.v1_5);
+		assertArrayEquals(expectedIds(2), storage.getCollectionIdsPaged("bookmarks", null, null, null, null, null, null, 4));
+
+		//First page, second page, rejected third page, then complete restart
+		assertEquals(6, requests.size());
+		assertNull(ifUnmodifiedSince.get(3));
+		assertNull(requests.get(3).get("offset"));
+	}
+
+	@Test
+	public void testNumericOffsetFallback() throws Exception {
+		nextOffsetHeader = false;
+
+		StorageContext storage = server.createStorageContext(ApiVersion.v1_1);
+		assertArrayEquals(expectedIds(1), storage.getCollectionIdsPaged("bookmarks", null, null, null, null, null, null, 5));
+
+		//Final page is empty as server can't indicate that there are no more records
+		assertEquals(3, requests.size());
+		assertEquals("5", requests.get(1).get("offset"));
+		assertEquals("10", requests.get(2).get("offset"));
+	}
+}
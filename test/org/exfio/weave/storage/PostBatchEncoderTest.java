@@ -0,0 +1,122 @@
+package org.exfio.weave.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+import org.exfio.weave.Constants;
+
+public class PostBatchEncoderTest {
+
+	private static String record(String id, int payloadLength) {
+		StringBuilder payload = new StringBuilder();
+		for (int i = 0; i < payloadLength; i++) {
+			payload.append('x');
+		}
+		return String.format("{\"id\":\"%s\",\"payload\":\"%s\"}", id, payload);
+	}
+
+	private static List<String> encode(PostBatchEncoder encoder, List<String> records, WeavePostResult result) {
+		List<String> batches = new ArrayList<String>();
+		for (int i = 0; i < records.size(); i++) {
+			String batch = encoder.add("id" + i, records.get(i), result);
+			if ( batch != null ) {
+				batches.add(batch);
+			}
+		}
+		if ( !encoder.isEmpty() ) {
+			batches.add(encoder.flush());
+		}
+		return batches;
+	}
+
+	private static int size(String batch) throws Exception {
+		return ((JSONArray)new JSONParser().parse(batch)).size();
+	}
+
+	@Test
+	public void testRecordLimit() throws Exception {
+		List<String> records = new ArrayList<String>();
+		for (int i = 0; i < 7; i++) {
+			records.add(record("id" + i, 10));
+		}
+
+		WeavePostResult result = new WeavePostResult();
+		List<String> batches = encode(new PostBatchEncoder(3, 1024 * 1024), records, result);
+
+		assertEquals(3, batches.size());
+		assertEquals(3, size(batches.get(0)));
+		assertEquals(3, size(batches.get(1)));
+		assertEquals(1, size(batches.get(2)));
+		assertFalse(result.hasFailures());
+	}
+
+	@Test
+	public void testByteLimit() throws Exception {
+		//Two records and delimiters fit exactly, a third does not
+		String record = record("id", 40);
+		int recordBytes = record.getBytes(Constants.UTF8).length;
+		int maxBytes = 2 * recordBytes + 3;
+
+		List<String> records = new ArrayList<String>();
+		for (int i = 0; i < 5; i++) {
+			records.add(record);
+		}
+
+		WeavePostResult result = new WeavePostResult();
+		List<String> batches = encode(new PostBatchEncoder(100, maxBytes), records, result);
+
+		assertEquals(3, batches.size());
+		for (String batch: batches) {
+			assertTrue(batch.getBytes(Constants.UTF8).length <= maxBytes);
+		}
+		assertEquals(maxBytes, batches.get(0).getBytes(Constants.UTF8).length);
+		assertEquals(2, size(batches.get(0)));
+		assertEquals(1, size(batches.get(2)));
+	}
+
+	@Test
+	public void testMultiByteRecords() throws Exception {
+		//Limit applies to encoded bytes not characters
+		String record = "{\"id\":\"a\",\"payload\":\"€€€€\"}";
+		int recordBytes = record.getBytes(Constants.UTF8).length;
+
+		List<String> records = new ArrayList<String>();
+		records.add(record);
+		records.add(record);
+
+		List<String> batches = encode(new PostBatchEncoder(100, 2 * recordBytes + 2), records, new WeavePostResult());
+		assertEquals(2, batches.size());
+	}
+
+	@Test
+	public void testOversizeRecord() throws Exception {
+		List<String> records = new ArrayList<String>();
+		records.add(record("id0", 10));
+		records.add(record("id1", 500));
+		records.add(record("id2", 10));
+
+		WeavePostResult result = new WeavePostResult();
+		List<String> batches = encode(new PostBatchEncoder(100, 100), records, result);
+
+		assertEquals(1, batches.size());
+		assertEquals(2, size(batches.get(0)));
+		assertEquals(1, result.getFailed().size());
+		assertTrue(result.getFailed().containsKey("id1"));
+	}
+
+	@Test
+	public void testEmpty() {
+		PostBatchEncoder encoder = new PostBatchEncoder(10, 1024);
+		assertTrue(encoder.isEmpty());
+		assertNull(encoder.flush());
+	}
+}
@@ -0,0 +1,80 @@
+package org.exfio.weave.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
+
+public class ResponseCacheTest {
+
+	private volatile String lastModified = "1400000000.00";
+	private volatile int requests = 0;
+
+	private StubStorageServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new StubStorageServer(new StubStorageServer.Handler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				requests++;
+				String condition = exchange.getRequestHeaders().getFirst(StorageContext.HEADER_IF_MODIFIED_SINCE);
+				if ( lastModified.equals(condition) ) {
+					StubStorageServer.respond(exchange, 304, null, null);
+				} else {
+					String body = String.format("{\"id\":\"a\",\"modified\":%s,\"payload\":\"{}\"}", lastModified);
+					StubStorageServer.respond(exchange, 200, StorageContext.MEDIA_TYPE_JSON, body, StorageContext.HEADER_LAST_MODIFIED, lastModified);
+				}
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	@Test
+	public void testConditionalGet() throws Exception {
+		StorageContext storage = server.createStorageContext(ApiVersion.v1_5);
+		ResponseCache cache = storage.getResponseCache();
+
+		assertEquals("a", storage.get("bookmarks", "a").getId());
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		assertEquals(Double.valueOf(1400000000.0), storage.get("bookmarks", "a").getModified());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		lastModified = "1400000001.00";
+		assertEquals(Double.valueOf(1400000001.0), storage.get("bookmarks", "a").getModified());
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(3, requests);
+	}
+
+	@Test
+	public void testEviction() {
+		ResponseCache cache = new ResponseCache(2);
+		cache.put(URI.create("http://host/a"), "1", "a");
+		cache.put(URI.create("http://host/b"), "1", "b");
+
+		//Access moves a to most recently used
+		assertNotNull(cache.get(URI.create("http://host/a")));
+		cache.put(URI.create("http://host/c"), "1", "c");
+
+		assertNotNull(cache.get(URI.create("http://host/a")));
+		assertNull(cache.get(URI.create("http://host/b")));
+		assertEquals("c", cache.get(URI.create("http://host/c")).getValue());
+	}
+}
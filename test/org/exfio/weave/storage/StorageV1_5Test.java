@@ -0,0 +1,73 @@
+package org.exfio.weave.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.exfio.weave.WeaveException;
+
+public class StorageV1_5Test {
+
+	private StubStorageServer server;
+
+	private StorageV1_5 createStorage(final String configuration) throws IOException, WeaveException {
+		server = new StubStorageServer(new StubStorageServer.Handler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if ( configuration == null ) {
+					StubStorageServer.respond(exchange, 404, null, null);
+				} else {
+					StubStorageServer.respond(exchange, 200, StorageContext.MEDIA_TYPE_JSON, configuration);
+				}
+			}
+		});
+
+		StorageV1_5 storage = new StorageV1_5();
+		storage.setResponseCache(null);
+		storage.init(server.getStorageURL(), "hawkid", new byte[32]);
+		return storage;
+	}
+
+	@After
+	public void tearDown() {
+		if ( server != null ) {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testServerLimitsLowerConfigured() throws Exception {
+		StorageV1_5 storage = createStorage("{\"max_post_records\": 50, \"max_post_bytes\": 2097152, \"max_total_records\": 1000, \"max_total_bytes\": 10485760}");
+		storage.setMaxPostRecords(80);
+		storage.loadLimits();
+
+		assertEquals(50, storage.getMaxPostRecords());
+		assertEquals(StorageContext.DEFAULT_MAX_POST_BYTES, storage.getMaxPostBytes());
+		assertEquals(1000, storage.getMaxTotalRecords());
+		assertEquals(10485760, storage.getMaxTotalBytes());
+	}
+
+	@Test
+	public void testInvalidLimitsIgnored() throws Exception {
+		StorageV1_5 storage = createStorage("{\"max_post_records\": \"lots\", \"max_post_bytes\": 99999999999, \"max_total_records\": -1, \"max_total_bytes\": 1.5e30}");
+		storage.loadLimits();
+
+		assertEquals(StorageContext.DEFAULT_MAX_POST_RECORDS, storage.getMaxPostRecords());
+		assertEquals(StorageContext.DEFAULT_MAX_POST_BYTES, storage.getMaxPostBytes());
+		assertEquals(Long.MAX_VALUE, storage.getMaxTotalRecords());
+		assertEquals(Long.MAX_VALUE, storage.getMaxTotalBytes());
+	}
+
+	@Test
+	public void testConfigurationNotFound() throws Exception {
+		StorageV1_5 storage = createStorage(null);
+		storage.loadLimits();
+
+		assertEquals(StorageContext.DEFAULT_MAX_POST_RECORDS, storage.getMaxPostRecords());
+		assertEquals(StorageContext.DEFAULT_MAX_POST_BYTES, storage.getMaxPostBytes());
+	}
+}
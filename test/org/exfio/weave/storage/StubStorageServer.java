@@ -0,0 +1,119 @@
+package org.exfio.weave.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.exfio.weave.Constants;
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
+
+/**
+ * StubStorageServer
+ *
+ * Local HTTP server standing in for a storage node. Tests supply a Handler that inspects each request
+ * and writes the response.
+ *
+ */
+public class StubStorageServer implements Closeable {
+
+	public interface Handler {
+		void handle(HttpExchange exchange) throws IOException;
+	}
+
+	private static class Context extends StorageContext {
+		public Context(URI storageURL, ApiVersion version) throws WeaveException {
+			super();
+			this.storageURL = storageURL;
+			this.version    = version;
+		}
+
+		public void init(StorageParams storageParams) throws WeaveException {
+			//Configured by constructor
+		}
+	}
+
+	private HttpServer server;
+
+	public StubStorageServer(final Handler handler) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					handler.handle(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	public URI getStorageURL() {
+		return URI.create(String.format("http://127.0.0.1:%d/1.5/1/", server.getAddress().getPort()));
+	}
+
+	public StorageContext createStorageContext(ApiVersion version) throws WeaveException {
+		return new Context(getStorageURL(), version);
+	}
+
+	public static String readBody(HttpExchange exchange) throws IOException {
+		InputStream is = exchange.getRequestBody();
+		try {
+			return IOUtils.toString(is, Constants.UTF8.name());
+		} finally {
+			is.close();
+		}
+	}
+
+	public static Map<String, String> getParams(HttpExchange exchange) throws IOException {
+		Map<String, String> params = new HashMap<String, String>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if ( query != null ) {
+			for (String param: query.split("&")) {
+				String[] pair = param.split("=", 2);
+				params.put(URLDecoder.decode(pair[0], "UTF-8"), pair.length > 1 ? URLDecoder.decode(pair[1], "UTF-8") : "");
+			}
+		}
+		return params;
+	}
+
+	/**
+	 * respond()
+	 *
+	 * @param headers header names and values, alternating
+	 */
+	public static void respond(HttpExchange exchange, int code, String contentType, String body, String... headers) throws IOException {
+		for (int i = 0; i + 1 < headers.length; i += 2) {
+			exchange.getResponseHeaders().add(headers[i], headers[i + 1]);
+		}
+		if ( contentType != null ) {
+			exchange.getResponseHeaders().add("Content-Type", contentType);
+		}
+		byte[] bytes = ( body == null ? new byte[0] : body.getBytes(Constants.UTF8) );
+		if ( bytes.length == 0 ) {
+			//Server drops connection after a response without body, hence client must not reuse it
+			exchange.getResponseHeaders().set("Connection", "close");
+			exchange.sendResponseHeaders(code, -1);
+		} else {
+			exchange.sendResponseHeaders(code, bytes.length);
+			exchange.getResponseBody().write(bytes);
+		}
+	}
+
+	public void close() {
+		server.stop(0);
+	}
+}
@@ -0,0 +1,68 @@
+package org.exfio.weave.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ParseException;
+import org.junit.Test;
+
+import org.exfio.weave.WeaveException;
+
+public class WeaveBasicObjectTest {
+
+	@SuppressWarnings("unchecked")
+	private static WeaveBasicObject decode(String payload) throws WeaveException {
+		JSONObject jsonObject = new JSONObject();
+		jsonObject.put("id", "abc123");
+		jsonObject.put("modified", 1400000000.25);
+		jsonObject.put("payload", payload);
+		return StorageContext.decodeWeaveBasicObject((JSONObject)JSONValue.parse(jsonObject.toJSONString()));
+	}
+
+	@Test
+	public void testEncryptedPayload() throws WeaveException, ParseException {
+		WeaveBasicObject wbo = decode(new EncryptedPayload("Y2lwaGVy", "aXY=", "0123abcd").toJSONString());
+
+		assertTrue(wbo.isEncrypted());
+		EncryptedPayload envelope = wbo.getEncryptedPayload();
+		assertEquals("Y2lwaGVy", envelope.getCiphertext());
+		assertEquals("aXY=", envelope.getIv());
+		assertEquals("0123abcd", envelope.getHmac());
+	}
+
+	@Test
+	public void testCleartextObject() throws WeaveException, ParseException {
+		WeaveBasicObject wbo = decode("{\"title\":\"cleartext\"}");
+		assertFalse(wbo.isEncrypted());
+		assertEquals("cleartext", wbo.getPayloadAsJSONObject().get("title"));
+	}
+
+	@Test
+	public void testPayloadNotObject() throws WeaveException, ParseException {
+		//Valid JSON but not an object, i.e. not encrypted
+		for (String payload: new String[] {"\"abc\"", "123", "true", "null"}) {
+			WeaveBasicObject wbo = decode(payload);
+			assertFalse(payload, wbo.isEncrypted());
+			assertEquals(payload, wbo.getPayload());
+		}
+	}
+
+	@Test
+	public void testPayloadNotJSON() throws WeaveException {
+		WeaveBasicObject wbo = decode("not json");
+		assertEquals("not json", wbo.getPayload());
+	}
+
+	@Test
+	public void testNullPayload() throws WeaveException, ParseException {
+		WeaveBasicObject wbo = decode(null);
+		assertNotNull(wbo);
+		assertNull(wbo.getPayload());
+		assertFalse(wbo.isEncrypted());
+	}
+}
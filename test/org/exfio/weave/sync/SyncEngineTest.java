@@ -0,0 +1,260 @@
+package org.exfio.weave.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.client.StubWeaveClient;
+import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
+import org.exfio.weave.crypto.WeaveSyncV5Crypto;
+import org.exfio.weave.storage.StorageContext;
+import org.exfio.weave.storage.StubStorageServer;
+import org.exfio.weave.storage.WeaveCollectionInfo;
+import org.exfio.weave.sync.SyncReport.CollectionResult;
+
+public class SyncEngineTest {
+
+	/**
+	 * Records start order and info passed to sync(), failing collections listed in failures
+	 */
+	private class Target implements SyncTarget {
+		Map<String, Double> modified = new HashMap<String, Double>();
+		Map<String, String> failures = new HashMap<String, String>();
+		List<String> started = Collections.synchronizedList(new ArrayList<String>());
+		Map<String, WeaveCollectionInfo> synced = Collections.synchronizedMap(new HashMap<String, WeaveCollectionInfo>());
+		int begun = 0;
+
+		public synchronized void begin(Map<String, WeaveCollectionInfo> info) {
+			begun++;
+		}
+
+		public synchronized Double getModified(String collection) {
+			return modified.get(collection);
+		}
+
+		public int sync(String collection, WeaveCollectionInfo info) throws WeaveException {
+			started.add(collection);
+			synced.put(collection, info);
+
+			String failure = failures.get(collection);
+			if ( "weave".equals(failure) ) {
+				throw new WeaveException("Sync failed");
+			} else if ( "runtime".equals(failure) ) {
+				throw new IllegalStateException("Sync failed");
+			} else if ( "resize".equals(failure) ) {
+				engine.setMaxParallel(engine.getMaxParallel() + 1);
+			}
+			return 1;
+		}
+	}
+
+	//Server state, info/collections plus usage and counts if given
+	private Map<String, Double> modified = new LinkedHashMap<String, Double>();
+	private Map<String, Double> usage = new LinkedHashMap<String, Double>();
+	private Map<String, Long> counts = new LinkedHashMap<String, Long>();
+
+	private StubStorageServer server;
+	private Target target;
+	private SyncEngine engine;
+
+	@Before
+	public void setUp() throws IOException, WeaveException {
+		server = new StubStorageServer(new StubStorageServer.Handler() {
+			@SuppressWarnings("unchecked")
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+
+				JSONObject body = new JSONObject();
+				synchronized(SyncEngineTest.this) {
+					if ( path.endsWith("/info/collections") ) {
+						body.putAll(modified);
+					} else if ( path.endsWith("/info/collection_usage") ) {
+						body.putAll(usage);
+					} else if ( path.endsWith("/info/collection_counts") ) {
+						body.putAll(counts);
+					} else {
+						StubStorageServer.respond(exchange, 404, null, null);
+						return;
+					}
+				}
+				StubStorageServer.respond(exchange, 200, StorageContext.MEDIA_TYPE_JSON, body.toJSONString());
+			}
+		});
+
+		target = new Target();
+		engine = new SyncEngine(new StubWeaveClient(server.createStorageContext(ApiVersion.v1_5)), target);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		engine.close();
+		server.close();
+	}
+
+	private synchronized void put(String collection, double modified, Double usage, Long count) {
+		this.modified.put(collection, modified);
+		if ( usage != null ) {
+			this.usage.put(collection, usage);
+		}
+		if ( count != null ) {
+			this.counts.put(collection, count);
+		}
+	}
+
+	private static Map<String, WeaveCollectionInfo> info(Object... sizes) {
+		//Name, usage and count triples
+		Map<String, WeaveCollectionInfo> info = new HashMap<String, WeaveCollectionInfo>();
+		for (int i = 0; i < sizes.length; i += 3) {
+			info.put((String)sizes[i], new WeaveCollectionInfo((String)sizes[i], 100.0, (Long)sizes[i + 2], (Double)sizes[i + 1]));
+		}
+		return info;
+	}
+
+	private List<String> schedule(int maxParallel, Map<String, WeaveCollectionInfo> info, String... changed) {
+		engine.setMaxParallel(maxParallel);
+		List<String> order = new ArrayList<String>(Arrays.asList(changed));
+		engine.schedule(order, info);
+		return order;
+	}
+
+	private static Map<String, CollectionResult> results(SyncReport report) {
+		Map<String, CollectionResult> results = new HashMap<String, CollectionResult>();
+		for (CollectionResult result: report.getResults()) {
+			results.put(result.getCollection(), result);
+		}
+		return results;
+	}
+
+	@Test
+	public void testSchedule() {
+		Map<String, WeaveCollectionInfo> info = info("a", 30.0, 1L, "b", 10.0, 3L, "c", 20.0, 2L, "d", 40.0, 4L);
+
+		//Largest first only if there are more collections than workers, the rest smallest first
+		assertEquals(Arrays.asList("d", "b", "c", "a"), schedule(2, info, "a", "b", "c", "d"));
+		assertEquals(Arrays.asList("d", "b", "c", "a"), schedule(3, info, "a", "b", "c", "d"));
+		assertEquals(Arrays.asList("b", "c", "a", "d"), schedule(4, info, "a", "b", "c", "d"));
+		assertEquals(Arrays.asList("b", "c", "a", "d"), schedule(8, info, "a", "b", "c", "d"));
+		assertEquals(Arrays.asList("b", "c", "a", "d"), schedule(1, info, "a", "b", "c", "d"));
+	}
+
+	@Test
+	public void testScheduleSize() {
+		//Usage preferred, then count, collections with neither or deleted on server are smallest. Ties keep
+		//their order.
+		Map<String, WeaveCollectionInfo> info = info("a", null, 5L, "b", 10.0, 1L, "c", null, null, "d", 2.0, 100L);
+		assertEquals(Arrays.asList("c", "e", "d", "a", "b"), schedule(8, info, "a", "b", "c", "d", "e"));
+	}
+
+	@Test
+	public void testSyncOrder() throws WeaveException {
+		put("a", 100.0, 30.0, 1L);
+		put("b", 100.0, 10.0, 3L);
+		put("c", 100.0, 20.0, 2L);
+		put("d", 100.0, null, 40L);
+
+		engine.setMaxParallel(1);
+		SyncReport report = engine.sync();
+
+		assertEquals(Arrays.asList("b", "c", "a", "d"), target.started);
+		assertEquals(4, report.getResults().size());
+		assertFalse(report.hasErrors());
+		assertEquals(1, target.begun);
+	}
+
+	@Test
+	public void testUnchangedDeletedAndExcluded() throws WeaveException {
+		put(WeaveSyncV5Crypto.KEY_CRYPTO_COLLECTION, 10.0, null, null);
+		put(WeaveSyncV5Crypto.KEY_META_COLLECTION, 10.0, null, null);
+		put("same", 100.0, null, null);
+		put("newer", 101.0, null, null);
+		put("new", 102.0, null, null);
+		target.modified.put("same", 100.0);
+		target.modified.put("newer", 100.0);
+		target.modified.put("deleted", 100.0);
+
+		//Collections held locally but deleted on server are synced with null info, hence cleared
+		engine.setCollections(Arrays.asList("same", "newer", "new", "deleted", "missing"));
+		SyncReport report = engine.sync();
+
+		assertEquals(new HashSet<String>(Arrays.asList("newer", "new", "deleted")), new HashSet<String>(target.started));
+		assertEquals(Arrays.asList("same", "missing"), report.getUnchanged());
+		assertTrue(target.synced.containsKey("deleted"));
+		assertNull(target.synced.get("deleted"));
+		assertEquals(Double.valueOf(101.0), target.synced.get("newer").getModified());
+
+		//All collections other than crypto and meta by default
+		target.started.clear();
+		engine.setCollections(null);
+		engine.sync();
+		assertEquals(new HashSet<String>(Arrays.asList("newer", "new")), new HashSet<String>(target.started));
+	}
+
+	@Test
+	public void testErrorIsolation() throws WeaveException {
+		put("a", 100.0, 1.0, null);
+		put("b", 100.0, 2.0, null);
+		put("c", 100.0, 3.0, null);
+		put("d", 100.0, 4.0, null);
+		target.failures.put("a", "weave");
+		target.failures.put("c", "runtime");
+
+		engine.setMaxParallel(1);
+		SyncReport report = engine.sync();
+
+		//Every collection is attempted despite earlier failures
+		assertEquals(Arrays.asList("a", "b", "c", "d"), target.started);
+		assertTrue(report.hasErrors());
+
+		Map<String, CollectionResult> results = results(report);
+		assertTrue(results.get("a").getError() instanceof WeaveException);
+		assertTrue(results.get("b").isSuccess());
+		assertEquals(1, results.get("b").getRecords());
+		assertTrue(results.get("c").getError() instanceof IllegalStateException);
+		assertTrue(results.get("d").isSuccess());
+	}
+
+	@Test
+	public void testResizeDuringSync() throws WeaveException {
+		Set<String> names = new HashSet<String>();
+		for (int i = 0; i < 20; i++) {
+			put("col" + i, 100.0, (double)i, null);
+			names.add("col" + i);
+		}
+		//Pool is shut down while remaining collections are being queued
+		target.failures.put("col0", "resize");
+
+		engine.setMaxParallel(1);
+		SyncReport report = engine.sync();
+
+		assertEquals(20, report.getResults().size());
+		assertFalse(report.hasErrors());
+		assertEquals(2, engine.getMaxParallel());
+
+		//Next cycle uses new pool
+		target.started.clear();
+		target.modified.put("col0", 100.0);
+		report = engine.sync();
+		assertEquals(19, report.getResults().size());
+		assertFalse(report.hasErrors());
+	}
+}